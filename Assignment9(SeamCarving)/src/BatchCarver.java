@@ -0,0 +1,592 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import tester.*;
+
+// Retargets many images without a window: reads them with ImageIO, resizes
+// each one with a Retargeter on a fixed pool of threads, and writes PNGs.
+// At most one image per thread is loaded at any time, however many jobs
+// there are, because a job is only handed to the pool once a thread is
+// free for it.
+//
+// Usage: java BatchCarver <manifest or directory> <output directory>
+//            [threads] [width scale]
+// A manifest has one job per line: an image path (relative to the manifest)
+// followed by the target width and height. Every image of a directory is
+// scaled to width scale times its width (0.7 unless given) at its own
+// height. A line that cannot be read, or an image whose PNG would have the
+// same name as an earlier one's (a.jpg after a.png), fails as a job of its
+// own and the rest of the batch goes on.
+class BatchCarver {
+  // Number of images carved at the same time
+  int threads;
+  // Most seams taken out of one solve
+  int seamsPerPass;
+  // Number of images written by the last run
+  int imagesDone;
+  // Number of images that could not be read, carved or written
+  int imagesFailed;
+  // Number of pixels of the images written by the last run
+  long pixelsIn;
+  // Sum of the time taken by each image of the last run, in nanoseconds
+  long carveNanos;
+  // Time the last run took from start to end, in nanoseconds
+  long wallNanos;
+  // Number of images being carved right now
+  int inFlight;
+  // Most images carved at the same time in the last run
+  int maxInFlight;
+  // Whether to print a line for every image
+  boolean verbose;
+
+  // Creates a batch carver that carves on the given number of threads
+  BatchCarver(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Threads must be at least 1");
+    }
+    this.threads = threads;
+    this.seamsPerPass = 16;
+    this.verbose = true;
+  }
+
+  // EFFECT: carves every job, no more than this.threads at a time, and
+  // keeps totals of how it went. A job whose output an earlier job already
+  // writes fails instead of overwriting it.
+  void run(Iterator<BatchJob> jobs) {
+    this.imagesDone = 0;
+    this.imagesFailed = 0;
+    this.pixelsIn = 0;
+    this.carveNanos = 0;
+    this.maxInFlight = 0;
+    long start = System.nanoTime();
+
+    ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+    Semaphore free = new Semaphore(this.threads);
+    HashMap<File, File> writers = new HashMap<File, File>();
+    try {
+      while (jobs.hasNext()) {
+        BatchJob job = jobs.next();
+        if (job.error == null) {
+          File writer = writers.get(job.output.getAbsoluteFile());
+          if (writer != null) {
+            job = BatchJob.failed(job.input, "Output " + job.output
+                + " is already written for " + writer);
+          }
+          else {
+            writers.put(job.output.getAbsoluteFile(), job.input);
+          }
+        }
+        free.acquireUninterruptibly();
+        pool.execute(new BatchTask(this, job, free));
+      }
+    }
+    finally {
+      pool.shutdown();
+      try {
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    this.wallNanos = System.nanoTime() - start;
+  }
+
+  // Reads, resizes and writes the image of one job, and reports how long it
+  // took. Failures are reported rather than thrown so that one bad image
+  // does not stop the batch.
+  BatchResult carve(BatchJob job) {
+    long start = System.nanoTime();
+    if (job.error != null) {
+      return new BatchResult(job, 0, 0, 0, 0, System.nanoTime() - start, job.error);
+    }
+    try {
+      BufferedImage image = ImageIO.read(job.input);
+      if (image == null) {
+        throw new IOException("Not an image: " + job.input);
+      }
+      PixelStore store = new PixelStore(image);
+      int targetWidth = job.targetWidth(store.getWidth());
+      int targetHeight = job.targetHeight(store.height);
+      store.updateAllEnergy();
+      Retargeter retargeter = new Retargeter(store, this.seamsPerPass, 1.0, null);
+      retargeter.resizeTo(targetWidth, targetHeight);
+      ImageIO.write(store.toBufferedImage(), "png", job.output);
+      return new BatchResult(job, image.getWidth(), image.getHeight(), targetWidth, targetHeight,
+          System.nanoTime() - start, null);
+    }
+    catch (IOException | RuntimeException e) {
+      return new BatchResult(job, 0, 0, 0, 0, System.nanoTime() - start, e.toString());
+    }
+  }
+
+  // EFFECT: counts an image as being carved
+  synchronized void started() {
+    this.inFlight++;
+    this.maxInFlight = Math.max(this.maxInFlight, this.inFlight);
+  }
+
+  // EFFECT: adds the result of one image to the totals and prints it
+  synchronized void finished(BatchResult result) {
+    this.inFlight--;
+    this.carveNanos += result.nanos;
+    if (result.error == null) {
+      this.imagesDone++;
+      this.pixelsIn += (long) result.inWidth * result.inHeight;
+    }
+    else {
+      this.imagesFailed++;
+    }
+    if (this.verbose) {
+      System.out.println(result.report());
+    }
+  }
+
+  // Returns a one-line summary of the last run
+  String summary() {
+    double seconds = this.wallNanos / 1e9;
+    return String.format("%d images (%d failed) in %.2f s: %.2f images/s, %.2f Mpixel/s",
+        this.imagesDone, this.imagesFailed, seconds, this.imagesDone / seconds,
+        this.pixelsIn / 1e6 / seconds);
+  }
+
+  // Returns the jobs listed in a manifest, reading it one line at a time as
+  // the jobs are taken
+  static Iterator<BatchJob> jobsFromManifest(File manifest, File outputDir) {
+    try {
+      return new ManifestJobs(new BufferedReader(new FileReader(manifest)),
+          manifest.getAbsoluteFile().getParentFile(), outputDir);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Returns a job for every image in a directory, scaled to widthScale times
+  // its width at its own height
+  static Iterator<BatchJob> jobsFromDirectory(File inputDir, File outputDir,
+      double widthScale) {
+    File[] files = inputDir.listFiles();
+    if (files == null) {
+      throw new IllegalArgumentException("Not a directory: " + inputDir);
+    }
+    Arrays.sort(files);
+    ArrayList<BatchJob> jobs = new ArrayList<BatchJob>();
+    for (File file : files) {
+      String name = file.getName().toLowerCase();
+      if (file.isFile() && (name.endsWith(".png") || name.endsWith(".jpg")
+          || name.endsWith(".jpeg") || name.endsWith(".bmp") || name.endsWith(".gif"))) {
+        jobs.add(new BatchJob(file, BatchJob.outputFor(file, outputDir), 0, 0, widthScale));
+      }
+    }
+    return jobs.iterator();
+  }
+
+  // Runs a batch from the command line
+  public static void main(String[] args) {
+    if (args.length < 2) {
+      System.err.println(
+          "Usage: java BatchCarver <manifest or directory> <output directory> [threads] "
+              + "[width scale]");
+      System.exit(2);
+    }
+    File input = new File(args[0]);
+    File outputDir = new File(args[1]);
+    int threads = args.length > 2 ? Integer.parseInt(args[2])
+        : Runtime.getRuntime().availableProcessors();
+    double widthScale = args.length > 3 ? Double.parseDouble(args[3]) : 0.7;
+
+    outputDir.mkdirs();
+    Iterator<BatchJob> jobs;
+    if (input.isDirectory()) {
+      jobs = BatchCarver.jobsFromDirectory(input, outputDir, widthScale);
+    }
+    else {
+      jobs = BatchCarver.jobsFromManifest(input, outputDir);
+    }
+    BatchCarver batch = new BatchCarver(threads);
+    batch.run(jobs);
+    System.out.println(batch.summary());
+    if (batch.imagesFailed > 0) {
+      System.exit(1);
+    }
+  }
+}
+
+// One image to retarget: where to read it, where to write it, and its size
+// afterwards
+class BatchJob {
+  // Image to read
+  File input;
+  // PNG to write
+  File output;
+  // Width to carve to, or 0 to use widthScale
+  int targetWidth;
+  // Height to carve to, or 0 to keep the height of the image
+  int targetHeight;
+  // Fraction of the width kept when targetWidth is 0
+  double widthScale;
+  // Why the job fails without being carved, or null if it can be carved
+  String error;
+
+  BatchJob(File input, File output, int targetWidth, int targetHeight, double widthScale) {
+    this.input = input;
+    this.output = output;
+    this.targetWidth = targetWidth;
+    this.targetHeight = targetHeight;
+    this.widthScale = widthScale;
+  }
+
+  // Returns a job for the given input that fails with the given error,
+  // writing nothing
+  static BatchJob failed(File input, String error) {
+    BatchJob job = new BatchJob(input, null, 0, 0, 1.0);
+    job.error = error;
+    return job;
+  }
+
+  // Returns the width to carve an image of the given width to
+  int targetWidth(int width) {
+    if (this.targetWidth > 0) {
+      return this.targetWidth;
+    }
+    return Math.max(1, (int) Math.round(width * this.widthScale));
+  }
+
+  // Returns the height to carve an image of the given height to
+  int targetHeight(int height) {
+    if (this.targetHeight > 0) {
+      return this.targetHeight;
+    }
+    return height;
+  }
+
+  // Returns the PNG in outputDir named after the given image
+  static File outputFor(File input, File outputDir) {
+    String name = input.getName();
+    int dot = name.lastIndexOf('.');
+    if (dot > 0) {
+      name = name.substring(0, dot);
+    }
+    return new File(outputDir, name + ".png");
+  }
+}
+
+// How one image of a batch went
+class BatchResult {
+  // The job carved
+  BatchJob job;
+  // Size of the image read
+  int inWidth;
+  int inHeight;
+  // Size of the image written
+  int outWidth;
+  int outHeight;
+  // Time taken to read, carve and write the image, in nanoseconds
+  long nanos;
+  // What went wrong, or null if the image was written
+  String error;
+
+  BatchResult(BatchJob job, int inWidth, int inHeight, int outWidth, int outHeight, long nanos,
+      String error) {
+    this.job = job;
+    this.inWidth = inWidth;
+    this.inHeight = inHeight;
+    this.outWidth = outWidth;
+    this.outHeight = outHeight;
+    this.nanos = nanos;
+    this.error = error;
+  }
+
+  // Returns a line describing this result, with the throughput of the image
+  String report() {
+    double millis = this.nanos / 1e6;
+    if (this.error != null) {
+      return String.format("FAILED %s after %.1f ms: %s", this.job.input, millis, this.error);
+    }
+    return String.format("%s %dx%d -> %dx%d in %.1f ms (%.2f Mpixel/s)", this.job.input,
+        this.inWidth, this.inHeight, this.outWidth, this.outHeight, millis,
+        (double) this.inWidth * this.inHeight / 1e3 / millis);
+  }
+}
+
+// Carves one job on a pool thread and gives its permit back when done
+class BatchTask implements Runnable {
+  // The batch the job belongs to
+  BatchCarver batch;
+  // The job to carve
+  BatchJob job;
+  // Permits for the jobs that may be loaded at the same time
+  Semaphore free;
+
+  BatchTask(BatchCarver batch, BatchJob job, Semaphore free) {
+    this.batch = batch;
+    this.job = job;
+    this.free = free;
+  }
+
+  // EFFECT: carves the job and reports it to the batch
+  public void run() {
+    try {
+      this.batch.started();
+      this.batch.finished(this.batch.carve(this.job));
+    }
+    finally {
+      this.free.release();
+    }
+  }
+}
+
+// The jobs of a manifest, read one line at a time. Blank lines and lines
+// starting with # are skipped, and a line that is not a job becomes a job
+// that fails.
+class ManifestJobs implements Iterator<BatchJob> {
+  // The manifest being read
+  BufferedReader reader;
+  // Directory that relative image paths are relative to
+  File baseDir;
+  // Directory the PNGs are written to
+  File outputDir;
+  // The job of the next line, or null once the manifest has ended
+  BatchJob next;
+  // Number of lines read so far
+  int lineNumber;
+
+  ManifestJobs(BufferedReader reader, File baseDir, File outputDir) {
+    this.reader = reader;
+    this.baseDir = baseDir;
+    this.outputDir = outputDir;
+    this.next = this.readJob();
+  }
+
+  // Determines whether there is another job
+  public boolean hasNext() {
+    return this.next != null;
+  }
+
+  // Returns the next job
+  public BatchJob next() {
+    if (this.next == null) {
+      throw new NoSuchElementException("No more jobs in the manifest");
+    }
+    BatchJob job = this.next;
+    this.next = this.readJob();
+    return job;
+  }
+
+  // Returns the job on the next line that has one, or null at the end of
+  // the manifest (closing it). The manifest is also closed if it cannot be
+  // read.
+  BatchJob readJob() {
+    String line;
+    try {
+      line = this.readLine();
+      while (line != null && (line.trim().isEmpty() || line.trim().startsWith("#"))) {
+        line = this.readLine();
+      }
+      if (line == null) {
+        this.reader.close();
+        return null;
+      }
+    }
+    catch (IOException e) {
+      try {
+        this.reader.close();
+      }
+      catch (IOException closing) {
+        e.addSuppressed(closing);
+      }
+      throw new UncheckedIOException(e);
+    }
+    try {
+      return this.parse(line.trim());
+    }
+    catch (IllegalArgumentException e) {
+      return BatchJob.failed(new File(line.trim()), "line " + this.lineNumber + ": " + e);
+    }
+  }
+
+  // Returns the next line of the manifest, or null at its end
+  String readLine() throws IOException {
+    String line = this.reader.readLine();
+    if (line != null) {
+      this.lineNumber++;
+    }
+    return line;
+  }
+
+  // Returns the job described by a line: a path, then a width and a height
+  BatchJob parse(String line) {
+    String[] words = line.split("\\s+");
+    if (words.length < 3) {
+      throw new IllegalArgumentException("Expected a path, a width and a height: " + line);
+    }
+    int heightStart = line.lastIndexOf(words[words.length - 1]);
+    int widthStart = line.lastIndexOf(words[words.length - 2], heightStart - 1);
+    File input = new File(line.substring(0, widthStart).trim());
+    if (!input.isAbsolute()) {
+      input = new File(this.baseDir, input.getPath());
+    }
+    return new BatchJob(input, BatchJob.outputFor(input, this.outputDir),
+        Integer.parseInt(words[words.length - 2]), Integer.parseInt(words[words.length - 1]), 1.0);
+  }
+}
+
+class ExamplesBatchCarver {
+  File workDir;
+  File outputDir;
+
+  void init() {
+    this.workDir = ScratchFiles.newDirectory("batch");
+    this.outputDir = new File(this.workDir, "out");
+    this.outputDir.mkdirs();
+  }
+
+  // EFFECT: deletes the work directory and everything written into it
+  void cleanUp() {
+    ScratchFiles.deleteTree(this.workDir);
+  }
+
+  // Writes a small random PNG to the work directory
+  File writeImage(String name, int width, int height) {
+    java.util.Random random = new java.util.Random(name.hashCode());
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, 0xFF000000 | random.nextInt(3) * 0x7F7F7F);
+      }
+    }
+    File file = new File(this.workDir, name);
+    try {
+      ImageIO.write(image, "png", file);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return file;
+  }
+
+  // Returns the size of the PNG written for the given name, as "WxH"
+  String sizeOf(String name) {
+    try {
+      BufferedImage image = ImageIO.read(new File(this.outputDir, name));
+      return image.getWidth() + "x" + image.getHeight();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  void testDirectory(Tester t) {
+    this.init();
+    for (int i = 0; i < 5; i++) {
+      this.writeImage("photo" + i + ".png", 40, 20);
+    }
+    BatchCarver batch = new BatchCarver(2);
+    batch.verbose = false;
+    batch.run(BatchCarver.jobsFromDirectory(this.workDir, this.outputDir, 0.5));
+    t.checkExpect(batch.imagesDone, 5);
+    t.checkExpect(batch.imagesFailed, 0);
+    t.checkExpect(batch.pixelsIn, 5L * 40 * 20);
+    t.checkExpect(batch.maxInFlight <= 2, true);
+    t.checkExpect(this.sizeOf("photo3.png"), "20x20");
+    this.cleanUp();
+  }
+
+  void testManifest(Tester t) {
+    this.init();
+    this.writeImage("wide.png", 30, 12);
+    this.writeImage("tall one.png", 10, 25);
+    File manifest = new File(this.workDir, "jobs.txt");
+    try {
+      java.nio.file.Files.write(manifest.toPath(), Arrays.asList("# product photos", "",
+          "wide.png 20 12", "tall one.png   14 20", "missing.png 5 5",
+          new File("src/Balloons.jpg").getAbsolutePath() + " 300 200"));
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    BatchCarver batch = new BatchCarver(3);
+    batch.verbose = false;
+    batch.run(BatchCarver.jobsFromManifest(manifest, this.outputDir));
+    t.checkExpect(batch.imagesDone, 3);
+    t.checkExpect(batch.imagesFailed, 1);
+    t.checkExpect(this.sizeOf("wide.png"), "20x12");
+    t.checkExpect(this.sizeOf("tall one.png"), "14x20");
+    t.checkExpect(this.sizeOf("Balloons.png"), "300x200");
+    t.checkExpect(batch.summary().startsWith("3 images (1 failed)"), true);
+    this.cleanUp();
+  }
+
+  void testBadLinesAndCollisions(Tester t) {
+    this.init();
+    this.writeImage("a.png", 12, 10);
+    this.writeImage("a.jpg", 12, 10);
+    this.writeImage("b.png", 12, 10);
+    File manifest = new File(this.workDir, "jobs.txt");
+    try {
+      java.nio.file.Files.write(manifest.toPath(), Arrays.asList("a.png 8 10",
+          "b.png wide 10", "b.png 8", "a.jpg 6 10", "b.png 9 10"));
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    BatchCarver batch = new BatchCarver(2);
+    batch.verbose = false;
+    batch.run(BatchCarver.jobsFromManifest(manifest, this.outputDir));
+    t.checkExpect(batch.imagesDone, 2);
+    t.checkExpect(batch.imagesFailed, 3);
+    t.checkExpect(this.sizeOf("a.png"), "8x10");
+    t.checkExpect(this.sizeOf("b.png"), "9x10");
+
+    batch.run(BatchCarver.jobsFromDirectory(this.workDir, this.outputDir, 0.5));
+    t.checkExpect(batch.imagesDone, 2);
+    t.checkExpect(batch.imagesFailed, 1);
+
+    BufferedReader reader = new BufferedReader(new java.io.StringReader("x.png 1\ny.png 1 2"));
+    ManifestJobs jobs = new ManifestJobs(reader, new File("base"), new File("out"));
+    BatchJob bad = jobs.next();
+    t.checkExpect(bad.error,
+        "line 1: java.lang.IllegalArgumentException: Expected a path, a width and a height: "
+            + "x.png 1");
+    t.checkExpect(new BatchCarver(1).carve(bad).error, bad.error);
+    t.checkExpect(jobs.next().error, null);
+    t.checkExpect(jobs.hasNext(), false);
+    t.checkException(new IOException("Stream closed"), reader, "ready");
+    this.cleanUp();
+  }
+
+  void testJobs(Tester t) {
+    this.init();
+    BatchJob scaled = new BatchJob(new File("a.jpg"), new File("a.png"), 0, 0, 0.7);
+    t.checkExpect(scaled.targetWidth(100), 70);
+    t.checkExpect(scaled.targetHeight(80), 80);
+    t.checkExpect(BatchJob.outputFor(new File("dir/b.photo.jpg"), new File("out")),
+        new File("out", "b.photo.png"));
+    ManifestJobs jobs = new ManifestJobs(new BufferedReader(new java.io.StringReader("x.png 1 2")),
+        new File("base"), new File("out"));
+    BatchJob job = jobs.next();
+    t.checkExpect(job.input, new File("base", "x.png"));
+    t.checkExpect(job.targetHeight, 2);
+    t.checkExpect(jobs.hasNext(), false);
+    t.checkException(new IllegalArgumentException("Expected a path, a width and a height: x 1"),
+        jobs, "parse", "x 1");
+    t.checkConstructorException(new IllegalArgumentException("Threads must be at least 1"),
+        "BatchCarver", 0);
+    this.cleanUp();
+  }
+}
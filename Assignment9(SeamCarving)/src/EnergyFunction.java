@@ -0,0 +1,593 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import tester.*;
+
+// A way of computing the energy of the pixels of a PixelStore, other than
+// the Sobel gradient of brightness the store computes itself. An energy
+// function works on the store's primitive planes, and may keep planes of
+// its own in store.planes: those are aligned with the store's arrays and
+// move with the pixels when seams are removed, so that after a removal
+// only the band of pixels near the seam is computed again.
+interface EnergyFunction {
+  // Returns how far, in rows or columns, the pixels the energy of a pixel
+  // depends on can be from it
+  int radius();
+
+  // EFFECT: sets up the planes this function keeps in the store, for a
+  // store that is starting to use it
+  void attach(PixelStore store);
+
+  // EFFECT: recomputes every plane this function keeps that is computed
+  // from the store's pixels, after the pixels were moved around some other
+  // way than by removing seams
+  void refreshPlanes(PixelStore store);
+
+  // EFFECT: recomputes the planes and energy of every pixel of the store
+  void computeAll(PixelStore store);
+
+  // EFFECT: recomputes the planes and energy of the pixels from low[i] to
+  // high[i] (inclusive, clamped to the image) of every row i when rows is
+  // true, or of every column i otherwise, given that every pixel whose
+  // planes or energy changed is in one of those bands, and returns how many
+  // energies were computed
+  int recompute(PixelStore store, int[] low, int[] high, boolean rows);
+
+  // Computes the energy of the pixel at (x, y) from the pixels alone,
+  // without using or changing any plane
+  double energyAt(PixelStore store, int x, int y);
+}
+
+// A two-dimensional convolution done as two one-dimensional ones: a row
+// kernel across each row into an intermediate plane, then a column kernel
+// down each column of that. Pixels outside the image count as 0, like
+// BorderPixel. Energy functions keep the intermediate planes in the store,
+// so after a seam is removed only the intermediate values whose row window
+// straddled the seam, and the outputs whose column window did, are
+// computed again; any energy function built from convolutions shares this
+// code.
+class SeparableConvolution {
+  // Weights across a row, centered on the pixel
+  double[] rowKernel;
+  // Weights down a column, centered on the pixel
+  double[] columnKernel;
+  // Number of weights on each side of the center
+  int radius;
+
+  // Creates the convolution with the given kernels, which must have the same
+  // odd length
+  SeparableConvolution(double[] rowKernel, double[] columnKernel) {
+    if (rowKernel.length != columnKernel.length || rowKernel.length % 2 == 0) {
+      throw new IllegalArgumentException("Kernels must have the same odd length");
+    }
+    this.rowKernel = rowKernel;
+    this.columnKernel = columnKernel;
+    this.radius = rowKernel.length / 2;
+  }
+
+  // Returns the row kernel applied to the source plane at (x, y)
+  float rowAt(PixelStore store, float[] source, int x, int y) {
+    int width = store.getRowWidth(y);
+    int middle = store.index(0, y);
+    double sum = 0;
+    for (int k = 0; k < this.rowKernel.length; k++) {
+      int at = x + k - this.radius;
+      if (at >= 0 && at < width) {
+        sum += this.rowKernel[k] * source[middle + at];
+      }
+    }
+    return (float) sum;
+  }
+
+  // Returns the column kernel applied to the intermediate plane at (x, y)
+  double columnAt(PixelStore store, float[] intermediate, int x, int y) {
+    double sum = 0;
+    for (int k = 0; k < this.columnKernel.length; k++) {
+      int at = y + k - this.radius;
+      if (store.contains(x, at)) {
+        sum += this.columnKernel[k] * intermediate[store.index(x, at)];
+      }
+    }
+    return sum;
+  }
+
+  // Returns the whole convolution of the source plane at (x, y), without
+  // using the intermediate plane
+  double convolveAt(PixelStore store, float[] source, int x, int y) {
+    double sum = 0;
+    for (int k = 0; k < this.columnKernel.length; k++) {
+      int at = y + k - this.radius;
+      if (at >= 0 && at < store.height && x < store.getRowWidth(at)) {
+        sum += this.columnKernel[k] * this.rowAt(store, source, x, at);
+      }
+    }
+    return sum;
+  }
+
+  // EFFECT: computes the intermediate plane from the source plane for the
+  // pixels from low[i] to high[i] of every row (or column) i
+  void rowPass(PixelStore store, float[] source, float[] intermediate, int[] low, int[] high,
+      boolean rows) {
+    for (int i = 0; i < low.length; i++) {
+      if (rows) {
+        if (i >= store.height) {
+          break;
+        }
+        int from = Math.max(0, low[i]);
+        int to = Math.min(store.getRowWidth(i) - 1, high[i]);
+        for (int x = from; x <= to; x++) {
+          intermediate[store.index(x, i)] = this.rowAt(store, source, x, i);
+        }
+      }
+      else {
+        int from = Math.max(0, low[i]);
+        int to = Math.min(store.height - 1, high[i]);
+        for (int y = from; y <= to; y++) {
+          if (i < store.getRowWidth(y)) {
+            intermediate[store.index(i, y)] = this.rowAt(store, source, i, y);
+          }
+        }
+      }
+    }
+  }
+
+  // EFFECT: computes the intermediate plane of every pixel
+  void rowPassAll(PixelStore store, float[] source, float[] intermediate) {
+    for (int y = 0; y < store.height; y++) {
+      for (int x = 0; x < store.getRowWidth(y); x++) {
+        intermediate[store.index(x, y)] = this.rowAt(store, source, x, y);
+      }
+    }
+  }
+}
+
+// Helpers shared by the energy functions for working over bands of a store
+class EnergyBands {
+  // Returns bands that cover every pixel of the store, row by row
+  static int[][] everything(PixelStore store) {
+    int[] low = new int[store.height];
+    int[] high = new int[store.height];
+    for (int y = 0; y < store.height; y++) {
+      high[y] = store.getRowWidth(y) - 1;
+    }
+    return new int[][] { low, high };
+  }
+
+  // EFFECT: computes the energy of the pixels in the bands with the given
+  // function of a pixel, and returns how many there were
+  static int computeEnergy(PixelStore store, int[] low, int[] high, boolean rows,
+      PixelEnergy energy) {
+    int count = 0;
+    for (int i = 0; i < low.length; i++) {
+      if (rows) {
+        if (i >= store.height) {
+          break;
+        }
+        int from = Math.max(0, low[i]);
+        int to = Math.min(store.getRowWidth(i) - 1, high[i]);
+        for (int x = from; x <= to; x++) {
+          store.energy[store.index(x, i)] = energy.at(store, x, i);
+          count++;
+        }
+      }
+      else {
+        int from = Math.max(0, low[i]);
+        int to = Math.min(store.height - 1, high[i]);
+        for (int y = from; y <= to; y++) {
+          if (i < store.getRowWidth(y)) {
+            store.energy[store.index(i, y)] = energy.at(store, i, y);
+            count++;
+          }
+        }
+      }
+    }
+    return count;
+  }
+}
+
+// The energy of one pixel from the planes an energy function keeps up to
+// date
+interface PixelEnergy {
+  // Returns the energy of the pixel at (x, y)
+  double at(PixelStore store, int x, int y);
+}
+
+// Gradient magnitude of the red, green and blue channels separately, so
+// that edges between colors of the same brightness count: the Sobel
+// gradient of each channel (in 0 to 1), summed in squares, scaled to the
+// range of the brightness gradient. Keeps each channel and the two
+// intermediate planes of its two Sobel convolutions in the store.
+class ChannelGradientEnergy implements EnergyFunction, PixelEnergy {
+  // Sobel convolution for the horizontal gradient
+  SeparableConvolution gradientX;
+  // Sobel convolution for the vertical gradient
+  SeparableConvolution gradientY;
+
+  // Creates the energy function
+  ChannelGradientEnergy() {
+    this.gradientX = new SeparableConvolution(new double[] { -1, 0, 1 },
+        new double[] { 1, 2, 1 });
+    this.gradientY = new SeparableConvolution(new double[] { 1, 2, 1 },
+        new double[] { -1, 0, 1 });
+  }
+
+  // Returns 1: the Sobel kernels reach one pixel out
+  public int radius() {
+    return 1;
+  }
+
+  // EFFECT: gives the store three channel planes and six intermediate planes
+  public void attach(PixelStore store) {
+    store.planes = new float[9][store.argb.length];
+  }
+
+  // EFFECT: recomputes every plane from the store's colors
+  public void refreshPlanes(PixelStore store) {
+    int[][] all = EnergyBands.everything(store);
+    this.recomputePlanes(store, all[0], all[1], true);
+  }
+
+  // EFFECT: recomputes the channel and intermediate planes in the bands
+  void recomputePlanes(PixelStore store, int[] low, int[] high, boolean rows) {
+    for (int i = 0; i < low.length; i++) {
+      if (rows) {
+        if (i >= store.height) {
+          break;
+        }
+        int from = Math.max(0, low[i]);
+        int to = Math.min(store.getRowWidth(i) - 1, high[i]);
+        for (int x = from; x <= to; x++) {
+          this.setChannels(store, store.index(x, i));
+        }
+      }
+      else {
+        int from = Math.max(0, low[i]);
+        int to = Math.min(store.height - 1, high[i]);
+        for (int y = from; y <= to; y++) {
+          if (i < store.getRowWidth(y)) {
+            this.setChannels(store, store.index(i, y));
+          }
+        }
+      }
+    }
+    for (int c = 0; c < 3; c++) {
+      this.gradientX.rowPass(store, store.planes[c], store.planes[3 + 2 * c], low, high, rows);
+      this.gradientY.rowPass(store, store.planes[c], store.planes[4 + 2 * c], low, high, rows);
+    }
+  }
+
+  // EFFECT: sets the channel planes of the pixel at index i from its color
+  void setChannels(PixelStore store, int i) {
+    int color = store.argb[i];
+    store.planes[0][i] = ((color >> 16) & 0xFF) / 255.0f;
+    store.planes[1][i] = ((color >> 8) & 0xFF) / 255.0f;
+    store.planes[2][i] = (color & 0xFF) / 255.0f;
+  }
+
+  // EFFECT: recomputes every plane and energy
+  public void computeAll(PixelStore store) {
+    int[][] all = EnergyBands.everything(store);
+    this.recompute(store, all[0], all[1], true);
+  }
+
+  // EFFECT: recomputes the planes in the bands, then their energy, which
+  // reads the intermediate planes of the rows (or columns) around them
+  public int recompute(PixelStore store, int[] low, int[] high, boolean rows) {
+    this.recomputePlanes(store, low, high, rows);
+    return EnergyBands.computeEnergy(store, low, high, rows, this);
+  }
+
+  // Returns the energy of the pixel at (x, y) from the intermediate planes
+  public double at(PixelStore store, int x, int y) {
+    double sum = 0;
+    for (int c = 0; c < 3; c++) {
+      double horiz = this.gradientX.columnAt(store, store.planes[3 + 2 * c], x, y);
+      double vert = this.gradientY.columnAt(store, store.planes[4 + 2 * c], x, y);
+      sum += horiz * horiz + vert * vert;
+    }
+    return Math.sqrt(sum / 3);
+  }
+
+  // Computes the energy of the pixel at (x, y) straight from the colors
+  public double energyAt(PixelStore store, int x, int y) {
+    double sum = 0;
+    for (int c = 0; c < 3; c++) {
+      float[] channel = new float[store.argb.length];
+      for (int i = 0; i < channel.length; i++) {
+        channel[i] = ((store.argb[i] >> (16 - 8 * c)) & 0xFF) / 255.0f;
+      }
+      double horiz = this.gradientX.convolveAt(store, channel, x, y);
+      double vert = this.gradientY.convolveAt(store, channel, x, y);
+      sum += horiz * horiz + vert * vert;
+    }
+    return Math.sqrt(sum / 3);
+  }
+}
+
+// A saliency map supplied as a grayscale image the size of the store: the
+// brighter the map, the more a pixel should be kept. The map is smoothed
+// with a 5x5 binomial kernel, so that a hard-edged map does not make seams
+// hug its edges, and scaled to the range of the brightness gradient. Keeps
+// the map and the intermediate plane of the smoothing in the store; the map
+// moves with the pixels as seams are removed.
+class SaliencyEnergy implements EnergyFunction, PixelEnergy {
+  // Brightness of every pixel of the map, row by row
+  float[] map;
+  // Width of the map
+  int width;
+  // Binomial smoothing
+  SeparableConvolution smoothing;
+
+  // Creates the energy function for the given map
+  SaliencyEnergy(PixelStore map) {
+    this.width = map.getWidth();
+    this.map = new float[this.width * map.height];
+    for (int y = 0; y < map.height; y++) {
+      for (int x = 0; x < this.width; x++) {
+        this.map[y * this.width + x] = (float) map.getBrightness(x, y);
+      }
+    }
+    double[] binomial = new double[] { 1 / 16.0, 4 / 16.0, 6 / 16.0, 4 / 16.0, 1 / 16.0 };
+    this.smoothing = new SeparableConvolution(binomial, binomial);
+  }
+
+  // Returns 2: the smoothing reaches two pixels out
+  public int radius() {
+    return 2;
+  }
+
+  // EFFECT: gives the store the map and an intermediate plane; the store
+  // must be the size of the map
+  public void attach(PixelStore store) {
+    if (store.getWidth() != this.width || store.height * this.width != this.map.length) {
+      throw new IllegalArgumentException("Saliency map must be the size of the image");
+    }
+    store.planes = new float[2][store.argb.length];
+    for (int y = 0; y < store.height; y++) {
+      System.arraycopy(this.map, y * this.width, store.planes[0], store.index(0, y),
+          this.width);
+    }
+  }
+
+  // EFFECT: recomputes the intermediate plane from the map
+  public void refreshPlanes(PixelStore store) {
+    this.smoothing.rowPassAll(store, store.planes[0], store.planes[1]);
+  }
+
+  // EFFECT: recomputes the intermediate plane and every energy
+  public void computeAll(PixelStore store) {
+    int[][] all = EnergyBands.everything(store);
+    this.recompute(store, all[0], all[1], true);
+  }
+
+  // EFFECT: recomputes the intermediate plane in the bands, then their
+  // energy
+  public int recompute(PixelStore store, int[] low, int[] high, boolean rows) {
+    this.smoothing.rowPass(store, store.planes[0], store.planes[1], low, high, rows);
+    return EnergyBands.computeEnergy(store, low, high, rows, this);
+  }
+
+  // Returns the smoothed saliency of the pixel at (x, y)
+  public double at(PixelStore store, int x, int y) {
+    return this.smoothing.columnAt(store, store.planes[1], x, y) * Math.sqrt(32);
+  }
+
+  // Computes the smoothed saliency of the pixel at (x, y) from the map
+  // plane alone
+  public double energyAt(PixelStore store, int x, int y) {
+    return this.smoothing.convolveAt(store, store.planes[0], x, y) * Math.sqrt(32);
+  }
+}
+
+// Local entropy of brightness: the Shannon entropy of the brightness of
+// the pixels in a square window, quantized into bins, so that textured
+// areas keep their pixels even where no single edge is strong. Pixels
+// outside the image count as black. Scaled to the range of the brightness
+// gradient. Keeps no planes: the histograms are counted from the
+// brightness plane as the energy is computed.
+class EntropyEnergy implements EnergyFunction, PixelEnergy {
+  // Number of pixels on each side of the center of the window
+  int radius;
+  // Number of brightness bins
+  int bins;
+
+  // Creates the energy function with a 5x5 window and 8 bins
+  EntropyEnergy() {
+    this(2, 8);
+  }
+
+  // Creates the energy function with the given window radius and bins
+  EntropyEnergy(int radius, int bins) {
+    if (radius < 1 || bins < 2) {
+      throw new IllegalArgumentException("Entropy needs a radius of 1 and 2 bins at least");
+    }
+    this.radius = radius;
+    this.bins = bins;
+  }
+
+  // Returns the radius of the window
+  public int radius() {
+    return this.radius;
+  }
+
+  // EFFECT: gives the store no planes
+  public void attach(PixelStore store) {
+    store.planes = null;
+  }
+
+  // EFFECT: does nothing, as there are no planes
+  public void refreshPlanes(PixelStore store) {
+    // no planes to refresh
+  }
+
+  // EFFECT: recomputes every energy
+  public void computeAll(PixelStore store) {
+    int[][] all = EnergyBands.everything(store);
+    this.recompute(store, all[0], all[1], true);
+  }
+
+  // EFFECT: recomputes the energy in the bands
+  public int recompute(PixelStore store, int[] low, int[] high, boolean rows) {
+    return EnergyBands.computeEnergy(store, low, high, rows, this);
+  }
+
+  // Returns the entropy of the window around (x, y)
+  public double at(PixelStore store, int x, int y) {
+    int[] counts = new int[this.bins];
+    int side = 2 * this.radius + 1;
+    for (int dy = -this.radius; dy <= this.radius; dy++) {
+      for (int dx = -this.radius; dx <= this.radius; dx++) {
+        double brightness = store.getBrightness(x + dx, y + dy);
+        counts[Math.min(this.bins - 1, (int) (brightness * this.bins))]++;
+      }
+    }
+    double entropy = 0;
+    double total = side * side;
+    for (int count : counts) {
+      if (count > 0) {
+        double p = count / total;
+        entropy -= p * Math.log(p);
+      }
+    }
+    return entropy / Math.log(this.bins) * Math.sqrt(32);
+  }
+
+  // Computes the entropy of the window around (x, y)
+  public double energyAt(PixelStore store, int x, int y) {
+    return this.at(store, x, y);
+  }
+}
+
+class ExamplesEnergyFunction {
+  // Builds a store of random colors with its energy computed by the function
+  PixelStore storeWith(EnergyFunction function, int width, int height, long seed) {
+    PixelStore store = new ExamplesPixelStore().randomStore(width, height,
+        new java.util.Random(seed));
+    store.useEnergy(function);
+    return store;
+  }
+
+  // Determines whether the stored energy of every pixel is what the function
+  // computes from the pixels alone
+  boolean energyIsFresh(PixelStore store) {
+    boolean fresh = true;
+    for (int y = 0; y < store.height; y++) {
+      for (int x = 0; x < store.getRowWidth(y); x++) {
+        fresh = fresh && Math.abs(store.getEnergy(x, y)
+            - store.energyFunction.energyAt(store, x, y)) < 1e-5;
+      }
+    }
+    return fresh;
+  }
+
+  void testSeparableConvolution(Tester t) {
+    PixelStore store = new PixelStore(3, 3);
+    float[] source = new float[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+    SeparableConvolution sobel = new SeparableConvolution(new double[] { -1, 0, 1 },
+        new double[] { 1, 2, 1 });
+    t.checkExpect(sobel.rowAt(store, source, 1, 1), 2.0f);
+    t.checkExpect(sobel.rowAt(store, source, 0, 1), 5.0f);
+    t.checkExpect(sobel.convolveAt(store, source, 1, 1), 8.0);
+    float[] intermediate = new float[9];
+    sobel.rowPassAll(store, source, intermediate);
+    t.checkExpect(sobel.columnAt(store, intermediate, 1, 1), 8.0);
+    t.checkExpect(sobel.columnAt(store, intermediate, 1, 0), 6.0);
+    t.checkConstructorException(
+        new IllegalArgumentException("Kernels must have the same odd length"),
+        "SeparableConvolution", new double[] { 1, 1 }, new double[] { 1, 1 });
+  }
+
+  void testIncrementalAfterSeams(Tester t) {
+    PixelStore mapSource = new ExamplesPixelStore().randomStore(30, 20,
+        new java.util.Random(8));
+    EnergyFunction[] functions = new EnergyFunction[] { new ChannelGradientEnergy(),
+        new SaliencyEnergy(mapSource), new EntropyEnergy() };
+    for (EnergyFunction function : functions) {
+      PixelStore store = this.storeWith(function, 30, 20, 3);
+      t.checkExpect(this.energyIsFresh(store), true);
+      SeamCostTable table = new SeamCostTable();
+      for (int i = 0; i < 3; i++) {
+        int[] seam = table.findVertSeam(store.energy, store.stride, store.getWidth(),
+            store.height);
+        store.removeVertSeam(seam);
+        int count = store.recomputeEnergyNearVertSeam(seam);
+        t.checkExpect(count < store.getWidth() * store.height / 2, true);
+        t.checkExpect(this.energyIsFresh(store), true);
+
+        int[] row = table.findHoriSeam(store.energy, store.stride, store.getWidth(),
+            store.height);
+        store.removeHoriSeam(row);
+        store.recomputeEnergyNearHoriSeam(row);
+        t.checkExpect(this.energyIsFresh(store), true);
+      }
+      ArrayList<int[]> seams = table.findVertSeams(store.energy, store.stride,
+          store.getWidth(), store.height, 3, 100.0);
+      store.removeVertSeams(seams);
+      store.recomputeEnergyNearVertSeams(seams);
+      t.checkExpect(this.energyIsFresh(store), true);
+      ArrayList<int[]> rows = table.findHoriSeams(store.energy, store.stride,
+          store.getWidth(), store.height, 2, 100.0);
+      store.removeHoriSeams(rows);
+      store.recomputeEnergyNearHoriSeams(rows);
+      t.checkExpect(this.energyIsFresh(store), true);
+
+      store.transpose();
+      t.checkExpect(this.energyIsFresh(store), true);
+      store.transpose();
+      PixelStore copy = new PixelStore(store);
+      t.checkExpect(copy.energyFunction, function);
+      t.checkExpect(this.energyIsFresh(copy), true);
+    }
+  }
+
+  void testRestoreSeams(Tester t) {
+    PixelStore store = this.storeWith(new ChannelGradientEnergy(), 20, 12, 21);
+    double[] before = Arrays.copyOf(store.energy, store.energy.length);
+    SeamHistory history = new SeamHistory();
+    int[] seam = new SeamCostTable().findVertSeam(store.energy, store.stride, 20, 12);
+    history.record(store, seam, "vertical");
+    store.removeVertSeam(seam);
+    store.recomputeEnergyNearVertSeam(seam);
+    t.checkExpect(this.energyIsFresh(store), true);
+    history.undo(store);
+    t.checkExpect(this.energyIsFresh(store), true);
+    t.checkExpect(store.energy, before);
+  }
+
+  void testEnergyFunctions(Tester t) {
+    PixelStore flat = new PixelStore(6, 6);
+    for (int y = 0; y < 6; y++) {
+      for (int x = 0; x < 6; x++) {
+        flat.setArgb(x, y, 0xFFFFFFFF);
+      }
+    }
+    flat.useEnergy(new EntropyEnergy());
+    t.checkInexact(flat.getEnergy(3, 3), 0.0, 0.0001);
+    t.checkExpect(flat.getEnergy(0, 0) > 0, true);
+    flat.useEnergy(new ChannelGradientEnergy());
+    t.checkInexact(flat.getEnergy(3, 3), 0.0, 0.0001);
+
+    PixelStore colors = new PixelStore(3, 3);
+    for (int y = 0; y < 3; y++) {
+      colors.setArgb(0, y, 0xFFFF0000);
+      colors.setArgb(1, y, 0xFF00FF00);
+      colors.setArgb(2, y, 0xFF0000FF);
+    }
+    colors.updateAllEnergy();
+    t.checkInexact(colors.getEnergy(1, 1), 0.0, 0.0001);
+    colors.useEnergy(new ChannelGradientEnergy());
+    t.checkExpect(colors.getEnergy(1, 1) > 1, true);
+
+    PixelStore map = new PixelStore(3, 3);
+    map.setArgb(1, 1, 0xFFFFFFFF);
+    colors.useEnergy(new SaliencyEnergy(map));
+    t.checkInexact(colors.getEnergy(1, 1), 36 / 256.0 * Math.sqrt(32), 0.0001);
+    t.checkException(new IllegalArgumentException("Saliency map must be the size of the image"),
+        flat, "useEnergy", new SaliencyEnergy(map));
+    colors.useEnergy(null);
+    t.checkInexact(colors.getEnergy(1, 1), 0.0, 0.0001);
+    t.checkExpect(colors.planes, null);
+    t.checkConstructorException(
+        new IllegalArgumentException("Entropy needs a radius of 1 and 2 bins at least"),
+        "EntropyEnergy", 0, 8);
+  }
+}
@@ -0,0 +1,685 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import tester.*;
+
+// A pixel store kept out of the heap: packed ARGB colors live in a scratch
+// file mapped into memory in strips of rows, so images far larger than the
+// heap can be carved. The heap only holds a few rows at a time. Energy is
+// never stored: the seam search computes it from a window of three rows of
+// brightness as it sweeps down the image, and writes the step of every DP
+// cell to a second mapped file. Removing a seam shifts each row left in
+// place. Every pass reads and writes the files from top to bottom, so the
+// operating system sees long sequential runs.
+class MappedPixelStore {
+  // Scratch file holding the colors, row by row with a stride of stride
+  File file;
+  // Channel the color strips are mapped from
+  FileChannel channel;
+  // Mapped strips of stripRows rows of colors each
+  ArrayList<IntBuffer> strips;
+  // Scratch file holding the DP step of every cell, laid out like the colors
+  File stepFile;
+  // Channel the step strips are mapped from
+  FileChannel stepChannel;
+  // Mapped strips of stripRows rows of steps each
+  ArrayList<ByteBuffer> stepStrips;
+  // Number of rows in each mapped strip
+  int stripRows;
+  // Distance in the file, in pixels, between the start of one row and the
+  // next
+  int stride;
+  // Current width of the image
+  int width;
+  // Height of the image
+  int height;
+  // Total energy of the last seam found
+  double lastSeamCost;
+  // Number of times the image decoder ran to fill this store
+  int decodes;
+
+  // Creates an all-black store of the given size in a new scratch file,
+  // mapped in strips of (at most) the given number of rows
+  MappedPixelStore(File file, int width, int height, int stripRows) {
+    if (width < 1 || height < 1 || stripRows < 1) {
+      throw new IllegalArgumentException("Size and strip rows must be at least 1");
+    }
+    this.file = file;
+    this.stride = width;
+    this.width = width;
+    this.height = height;
+    // a single mapping cannot be larger than 2GB
+    this.stripRows = (int) Math.max(1, Math.min(stripRows, (1L << 30) / (4L * width)));
+    this.strips = new ArrayList<IntBuffer>();
+    this.stepStrips = new ArrayList<ByteBuffer>();
+    this.stepFile = new File(file.getPath() + ".steps");
+    this.decodes = 0;
+    try {
+      this.channel = new RandomAccessFile(file, "rw").getChannel();
+      this.stepChannel = new RandomAccessFile(this.stepFile, "rw").getChannel();
+      for (int top = 0; top < height; top += this.stripRows) {
+        long rows = Math.min(this.stripRows, height - top);
+        long offset = (long) top * width;
+        this.strips.add(this.channel.map(FileChannel.MapMode.READ_WRITE, offset * 4,
+            rows * width * 4).asIntBuffer());
+        this.stepStrips.add(this.stepChannel.map(FileChannel.MapMode.READ_WRITE, offset,
+            rows * width));
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    int[] row = new int[width];
+    java.util.Arrays.fill(row, 0xFF000000);
+    for (int y = 0; y < height; y++) {
+      this.writeRow(y, 0, row, width);
+    }
+  }
+
+  // Creates a store holding the image in the given file, decoded in one
+  // pass from the top of the file to the bottom. The decoder writes its
+  // samples, in the layout it decodes to, straight into a raster mapped from
+  // a second scratch file, so the whole image is never in the heap; the
+  // samples are then turned into colors row by row. A raster cannot hold
+  // 2^31 samples or more, so only an image larger than that is decoded in
+  // several bands of rows, each a separate pass.
+  static MappedPixelStore fromImage(File image, File scratch, int stripRows) {
+    try (ImageInputStream input = ImageIO.createImageInputStream(image)) {
+      if (input == null || !ImageIO.getImageReaders(input).hasNext()) {
+        throw new IllegalArgumentException("Not an image: " + image);
+      }
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      ImageReader reader = readers.next();
+      reader.setInput(input, true);
+      int width = reader.getWidth(0);
+      int height = reader.getHeight(0);
+      MappedPixelStore store = new MappedPixelStore(scratch, width, height, stripRows);
+      try {
+        store.decode(reader, new File(scratch.getPath() + ".samples"));
+      }
+      catch (IOException | RuntimeException e) {
+        // a failed decode must not leave the scratch files behind
+        store.close();
+        throw e;
+      }
+      finally {
+        reader.dispose();
+      }
+      return store;
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // EFFECT: decodes the reader's first image into this store, which must be
+  // its size, through a mapped raster in the given scratch file
+  void decode(ImageReader reader, File samples) throws IOException {
+    ImageTypeSpecifier type = reader.getImageTypes(0).next();
+    ColorModel colors = type.getColorModel();
+    long rowSamples = (long) this.width * type.getSampleModel(1, 1).getNumDataElements();
+    int bandRows = (int) Math.max(1, Math.min(this.height, Integer.MAX_VALUE / rowSamples));
+    MappedDataBuffer buffer = new MappedDataBuffer(
+        type.getSampleModel(1, 1).getDataType(), (int) (rowSamples * bandRows), samples);
+    try {
+      int[] row = new int[this.width];
+      for (int top = 0; top < this.height; top += bandRows) {
+        int rows = Math.min(bandRows, this.height - top);
+        SampleModel layout = type.getSampleModel(this.width, rows);
+        WritableRaster raster = Raster.createWritableRaster(layout, buffer, null);
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (rows < this.height) {
+          param.setSourceRegion(new Rectangle(0, top, this.width, rows));
+        }
+        param.setDestination(new BufferedImage(colors, raster, colors.isAlphaPremultiplied(),
+            null));
+        reader.read(0, param);
+        this.decodes++;
+
+        Object pixel = null;
+        for (int y = 0; y < rows; y++) {
+          for (int x = 0; x < this.width; x++) {
+            pixel = raster.getDataElements(x, y, pixel);
+            row[x] = colors.getRGB(pixel);
+          }
+          this.writeRow(top + y, 0, row, this.width);
+        }
+      }
+    }
+    finally {
+      buffer.close();
+    }
+  }
+
+  // Returns the strip holding row y
+  IntBuffer stripOf(int y) {
+    return this.strips.get(y / this.stripRows);
+  }
+
+  // Returns the position of (x, y) in the strip holding row y
+  int offsetIn(int x, int y) {
+    return (y % this.stripRows) * this.stride + x;
+  }
+
+  // Returns the packed ARGB color of the pixel at (x, y)
+  int getArgb(int x, int y) {
+    return this.stripOf(y).get(this.offsetIn(x, y));
+  }
+
+  // EFFECT: sets the color of the pixel at (x, y)
+  void setArgb(int x, int y, int color) {
+    this.stripOf(y).put(this.offsetIn(x, y), color);
+  }
+
+  // EFFECT: copies count pixels of row y, starting at column x, into the
+  // start of the given array
+  void readRow(int y, int x, int[] into, int count) {
+    IntBuffer view = this.stripOf(y).duplicate();
+    view.position(this.offsetIn(x, y));
+    view.get(into, 0, count);
+  }
+
+  // EFFECT: writes the first count values of the given array to row y,
+  // starting at column x
+  void writeRow(int y, int x, int[] from, int count) {
+    IntBuffer view = this.stripOf(y).duplicate();
+    view.position(this.offsetIn(x, y));
+    view.put(from, 0, count);
+  }
+
+  // EFFECT: fills the given array with the brightness of row y, shifted one
+  // to the right with 0 at both ends, or with 0 alone for rows outside the
+  // image (like a BorderPixel)
+  void readBrightness(int y, int[] colors, double[] into) {
+    java.util.Arrays.fill(into, 0);
+    if (y < 0 || y >= this.height) {
+      return;
+    }
+    this.readRow(y, 0, colors, this.width);
+    for (int x = 0; x < this.width; x++) {
+      into[x + 1] = PixelStore.brightnessOf(colors[x]);
+    }
+  }
+
+  // Finds the minimum vertical seam, computing energy as it goes with the
+  // same formula and tie-breaking as PixelStore and SeamCostTable, so the
+  // seam is the same as theirs
+  int[] findVertSeam() {
+    int[] colors = new int[this.width];
+    double[] above = new double[this.width + 2];
+    double[] middle = new double[this.width + 2];
+    double[] below = new double[this.width + 2];
+    this.readBrightness(0, colors, middle);
+    this.readBrightness(1, colors, below);
+    double[] previous = new double[this.width];
+    double[] current = new double[this.width];
+    byte[] steps = new byte[this.width];
+
+    for (int y = 0; y < this.height; y++) {
+      for (int x = 0; x < this.width; x++) {
+        int i = x + 1;
+        double horiz = (above[i - 1] + 2 * middle[i - 1] + below[i - 1])
+            - (above[i + 1] + 2 * middle[i + 1] + below[i + 1]);
+        double vert = (above[i - 1] + 2 * above[i] + above[i + 1])
+            - (below[i - 1] + 2 * below[i] + below[i + 1]);
+        double energy = Math.sqrt(horiz * horiz + vert * vert);
+        if (y == 0) {
+          current[x] = energy;
+          continue;
+        }
+
+        double center = previous[x];
+        double before = x > 0 ? previous[x - 1] : Double.MAX_VALUE;
+        double after = x < this.width - 1 ? previous[x + 1] : Double.MAX_VALUE;
+        double minCost = center;
+        if (before < minCost) {
+          minCost = before;
+        }
+        if (after < minCost) {
+          minCost = after;
+        }
+        byte step = 0;
+        if (before < center && before < after) {
+          step = -1;
+        }
+        else if (after < center && after < before) {
+          step = 1;
+        }
+        current[x] = minCost + energy;
+        steps[x] = step;
+      }
+      if (y > 0) {
+        ByteBuffer view = this.stepStrips.get(y / this.stripRows).duplicate();
+        view.position(this.offsetIn(0, y));
+        view.put(steps, 0, this.width);
+      }
+
+      double[] solved = previous;
+      previous = current;
+      current = solved;
+      double[] oldest = above;
+      above = middle;
+      middle = below;
+      below = oldest;
+      this.readBrightness(y + 2, colors, below);
+    }
+
+    int end = 0;
+    for (int x = 1; x < this.width; x++) {
+      if (previous[x] < previous[end]) {
+        end = x;
+      }
+    }
+    this.lastSeamCost = previous[end];
+    int[] seam = new int[this.height];
+    int x = end;
+    for (int y = this.height - 1; y > 0; y--) {
+      seam[y] = x;
+      x += this.stepStrips.get(y / this.stripRows).get(this.offsetIn(x, y));
+    }
+    seam[0] = x;
+    return seam;
+  }
+
+  // EFFECT: removes the pixel at seam[y] from every row y, shifting the rest
+  // of the row left in place
+  void removeVertSeam(int[] seam) {
+    int[] tail = new int[this.width];
+    for (int y = 0; y < this.height; y++) {
+      int count = this.width - seam[y] - 1;
+      this.readRow(y, seam[y] + 1, tail, count);
+      this.writeRow(y, seam[y], tail, count);
+    }
+    this.width--;
+  }
+
+  // Returns a new store, in the given scratch file, holding this image
+  // turned on its side: the pixel at (x, y) goes to (y, x). Rows are read a
+  // strip at a time, and each strip is written out as a run of pixels in
+  // every row of the result.
+  MappedPixelStore transposed(File scratch) {
+    MappedPixelStore result = new MappedPixelStore(scratch, this.height, this.width,
+        this.stripRows);
+    int rows = Math.min(this.stripRows, result.stripRows);
+    int[][] strip = new int[rows][this.width];
+    int[] run = new int[rows];
+    for (int top = 0; top < this.height; top += rows) {
+      int count = Math.min(rows, this.height - top);
+      for (int y = 0; y < count; y++) {
+        this.readRow(top + y, 0, strip[y], this.width);
+      }
+      for (int x = 0; x < this.width; x++) {
+        for (int y = 0; y < count; y++) {
+          run[y] = strip[y][x];
+        }
+        result.writeRow(x, top, run, count);
+      }
+    }
+    return result;
+  }
+
+  // Carves the image to targetWidth by targetHeight, removing columns first.
+  // Rows are removed as columns of a transposed copy, so the result may be a
+  // new store (with its own scratch files next to this one's); this store is
+  // closed if so.
+  MappedPixelStore carveTo(int targetWidth, int targetHeight) {
+    if (targetWidth < 1 || targetHeight < 1 || targetWidth > this.width
+        || targetHeight > this.height) {
+      throw new IllegalArgumentException("Target size must be between 1x1 and the image size");
+    }
+    while (this.width > targetWidth) {
+      this.removeVertSeam(this.findVertSeam());
+    }
+    if (this.height == targetHeight) {
+      return this;
+    }
+    MappedPixelStore turned = this.transposed(this.scratchNextTo("turned"));
+    this.close();
+    while (turned.width > targetHeight) {
+      turned.removeVertSeam(turned.findVertSeam());
+    }
+    MappedPixelStore result = turned.transposed(turned.scratchNextTo("carved"));
+    turned.close();
+    return result;
+  }
+
+  // Returns a new scratch file in the same directory as this store's file
+  File scratchNextTo(String prefix) {
+    try {
+      return File.createTempFile(prefix, ".pixels", this.file.getAbsoluteFile().getParentFile());
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Returns a new image with the pixels of this store; only for images that
+  // fit in the heap
+  BufferedImage toBufferedImage() {
+    BufferedImage image = new BufferedImage(this.width, this.height,
+        BufferedImage.TYPE_INT_ARGB);
+    int[] row = new int[this.width];
+    for (int y = 0; y < this.height; y++) {
+      this.readRow(y, 0, row, this.width);
+      image.setRGB(0, y, this.width, 1, row, 0, this.width);
+    }
+    return image;
+  }
+
+  // EFFECT: writes the image as a binary PPM, one row at a time, so that
+  // images larger than the heap can be saved
+  void writePpm(File out) {
+    try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(out), 1 << 16)) {
+      stream.write(("P6\n" + this.width + " " + this.height + "\n255\n").getBytes("US-ASCII"));
+      int[] row = new int[this.width];
+      byte[] bytes = new byte[3 * this.width];
+      for (int y = 0; y < this.height; y++) {
+        this.readRow(y, 0, row, this.width);
+        for (int x = 0; x < this.width; x++) {
+          bytes[3 * x] = (byte) (row[x] >> 16);
+          bytes[3 * x + 1] = (byte) (row[x] >> 8);
+          bytes[3 * x + 2] = (byte) row[x];
+        }
+        stream.write(bytes);
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // EFFECT: closes the scratch files and deletes them
+  void close() {
+    try {
+      this.channel.close();
+      this.stepChannel.close();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.strips.clear();
+    this.stepStrips.clear();
+    this.file.delete();
+    this.stepFile.delete();
+  }
+
+  // Carves an image from the command line without loading it into the heap
+  //
+  // Usage: java MappedPixelStore <image> <width> <height> <output.ppm>
+  //            [strip rows]
+  public static void main(String[] args) {
+    File image = new File(args[0]);
+    int targetWidth = Integer.parseInt(args[1]);
+    int targetHeight = Integer.parseInt(args[2]);
+    int stripRows = args.length > 4 ? Integer.parseInt(args[4]) : 256;
+    File output = new File(args[3]);
+    File scratch = new File(output.getAbsoluteFile().getParentFile(),
+        output.getName() + ".pixels");
+    long start = System.nanoTime();
+    MappedPixelStore store = MappedPixelStore.fromImage(image, scratch, stripRows);
+    store = store.carveTo(targetWidth, targetHeight);
+    store.writePpm(output);
+    store.close();
+    System.out.println(String.format("%s -> %s (%dx%d) in %.2f s", image, output, targetWidth,
+        targetHeight, (System.nanoTime() - start) / 1e9));
+  }
+}
+
+// Samples of a raster kept in a scratch file mapped into memory, so that an
+// image decoder can write a whole image out of the heap. Each sample takes
+// as many bytes as its data type.
+class MappedDataBuffer extends DataBuffer {
+  // Scratch file holding the samples
+  File file;
+  // Channel the chunks are mapped from
+  FileChannel channel;
+  // Mapped chunks of chunkSamples samples each
+  ArrayList<ByteBuffer> chunks;
+  // Number of samples in each mapped chunk
+  int chunkSamples;
+  // Number of bytes in each sample
+  int sampleBytes;
+
+  // Creates a buffer of the given number of samples of the given type
+  // (DataBuffer.TYPE_BYTE, TYPE_USHORT, TYPE_SHORT or TYPE_INT) in a new
+  // scratch file
+  MappedDataBuffer(int dataType, int size, File file) {
+    super(dataType, size);
+    if (dataType != TYPE_BYTE && dataType != TYPE_USHORT && dataType != TYPE_SHORT
+        && dataType != TYPE_INT) {
+      throw new IllegalArgumentException("Unsupported sample type: " + dataType);
+    }
+    this.file = file;
+    this.sampleBytes = DataBuffer.getDataTypeSize(dataType) / 8;
+    this.chunkSamples = (1 << 30) / this.sampleBytes;
+    this.chunks = new ArrayList<ByteBuffer>();
+    try {
+      this.channel = new RandomAccessFile(file, "rw").getChannel();
+      for (long first = 0; first < size; first += this.chunkSamples) {
+        long samples = Math.min(this.chunkSamples, size - first);
+        this.chunks.add(this.channel.map(FileChannel.MapMode.READ_WRITE,
+            first * this.sampleBytes, samples * this.sampleBytes));
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Returns the i-th sample of the given bank (there is only one)
+  public int getElem(int bank, int i) {
+    ByteBuffer chunk = this.chunks.get(i / this.chunkSamples);
+    int at = (i % this.chunkSamples) * this.sampleBytes;
+    if (this.dataType == TYPE_BYTE) {
+      return chunk.get(at) & 0xFF;
+    }
+    else if (this.dataType == TYPE_USHORT) {
+      return chunk.getShort(at) & 0xFFFF;
+    }
+    else if (this.dataType == TYPE_SHORT) {
+      return chunk.getShort(at);
+    }
+    return chunk.getInt(at);
+  }
+
+  // EFFECT: sets the i-th sample of the given bank (there is only one)
+  public void setElem(int bank, int i, int value) {
+    ByteBuffer chunk = this.chunks.get(i / this.chunkSamples);
+    int at = (i % this.chunkSamples) * this.sampleBytes;
+    if (this.dataType == TYPE_BYTE) {
+      chunk.put(at, (byte) value);
+    }
+    else if (this.dataType == TYPE_INT) {
+      chunk.putInt(at, value);
+    }
+    else {
+      chunk.putShort(at, (short) value);
+    }
+  }
+
+  // EFFECT: closes the scratch file and deletes it
+  void close() {
+    try {
+      this.channel.close();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.chunks.clear();
+    this.file.delete();
+  }
+}
+
+class ExamplesMappedPixelStore {
+  File workDir;
+  PixelStore store;
+  File imageFile;
+
+  void init() {
+    this.workDir = ScratchFiles.newDirectory("mapped");
+    java.util.Random random = new java.util.Random(41);
+    this.store = new PixelStore(37, 29);
+    for (int y = 0; y < 29; y++) {
+      for (int x = 0; x < 37; x++) {
+        this.store.setArgb(x, y, 0xFF000000 | random.nextInt(4) * 0x555555);
+      }
+    }
+    this.store.updateAllEnergy();
+    this.imageFile = new File(this.workDir, "random.png");
+    try {
+      ImageIO.write(this.store.toBufferedImage(), "png", this.imageFile);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // EFFECT: deletes the work directory and everything written into it
+  void cleanUp() {
+    ScratchFiles.deleteTree(this.workDir);
+  }
+
+  void testReadAndWrite(Tester t) {
+    this.init();
+    MappedPixelStore mapped = MappedPixelStore.fromImage(this.imageFile,
+        new File(this.workDir, "a.pixels"), 4);
+    t.checkExpect(mapped.width, 37);
+    t.checkExpect(mapped.height, 29);
+    t.checkExpect(mapped.strips.size(), 8);
+    t.checkExpect(mapped.getArgb(36, 28), this.store.getArgb(36, 28));
+    t.checkExpect(mapped.getArgb(5, 9), this.store.getArgb(5, 9));
+    mapped.setArgb(5, 9, 0xFF123456);
+    t.checkExpect(mapped.toBufferedImage().getRGB(5, 9), 0xFF123456);
+
+    MappedPixelStore turned = mapped.transposed(new File(this.workDir, "b.pixels"));
+    t.checkExpect(turned.width, 29);
+    t.checkExpect(turned.getArgb(9, 5), 0xFF123456);
+    t.checkExpect(turned.getArgb(28, 36), this.store.getArgb(36, 28));
+
+    File ppm = new File(this.workDir, "out.ppm");
+    mapped.writePpm(ppm);
+    t.checkExpect(ppm.length(), (long) "P6\n37 29\n255\n".length() + 3 * 37 * 29);
+    mapped.close();
+    turned.close();
+    t.checkExpect(new File(this.workDir, "a.pixels").exists(), false);
+    t.checkConstructorException(
+        new IllegalArgumentException("Size and strip rows must be at least 1"),
+        "MappedPixelStore", new File(this.workDir, "c.pixels"), 0, 5, 4);
+    this.cleanUp();
+  }
+
+  void testDecodesOnce(Tester t) {
+    this.init();
+    MappedPixelStore mapped = MappedPixelStore.fromImage(this.imageFile,
+        new File(this.workDir, "a.pixels"), 4);
+    t.checkExpect(mapped.strips.size(), 8);
+    t.checkExpect(mapped.decodes, 1);
+    boolean same = true;
+    for (int y = 0; y < 29; y++) {
+      for (int x = 0; x < 37; x++) {
+        same = same && mapped.getArgb(x, y) == this.store.getArgb(x, y);
+      }
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(new File(this.workDir, "a.pixels.samples").exists(), false);
+    mapped.close();
+
+    MappedPixelStore photo = MappedPixelStore.fromImage(new File("src/Balloons.jpg"),
+        new File(this.workDir, "b.pixels"), 16);
+    t.checkExpect(photo.decodes, 1);
+    photo.close();
+    this.cleanUp();
+  }
+
+  void testFailedDecodeLeavesNoScratch(Tester t) {
+    this.init();
+    // a PNG cut off after its header: the size can be read, the pixels not
+    File cut = new File(this.workDir, "cut.png");
+    try {
+      byte[] bytes = java.nio.file.Files.readAllBytes(this.imageFile.toPath());
+      java.nio.file.Files.write(cut.toPath(), java.util.Arrays.copyOf(bytes, 60));
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    File scratch = new File(this.workDir, "a.pixels");
+    boolean failed = false;
+    try {
+      MappedPixelStore.fromImage(cut, scratch, 4);
+    }
+    catch (UncheckedIOException e) {
+      failed = true;
+    }
+    t.checkExpect(failed, true);
+    t.checkExpect(scratch.exists(), false);
+    t.checkExpect(new File(this.workDir, "a.pixels.steps").exists(), false);
+    this.cleanUp();
+  }
+
+  void testSeamsMatchPixelStore(Tester t) {
+    this.init();
+    MappedPixelStore mapped = MappedPixelStore.fromImage(this.imageFile,
+        new File(this.workDir, "a.pixels"), 5);
+    SeamCostTable table = new SeamCostTable();
+    boolean same = true;
+    for (int i = 0; i < 6; i++) {
+      int[] expected = table.findVertSeam(this.store.energy, this.store.stride,
+          this.store.getWidth(), this.store.height);
+      int[] seam = mapped.findVertSeam();
+      same = same && java.util.Arrays.equals(seam, expected)
+          && mapped.lastSeamCost == table.lastSeamCost;
+      this.store.removeVertSeam(expected);
+      this.store.recomputeEnergyNearVertSeam(expected);
+      mapped.removeVertSeam(seam);
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(mapped.width, this.store.getWidth());
+    t.checkExpect(mapped.getArgb(30, 20), this.store.getArgb(30, 20));
+    mapped.close();
+    this.cleanUp();
+  }
+
+  void testCarveTo(Tester t) {
+    this.init();
+    MappedPixelStore mapped = MappedPixelStore.fromImage(this.imageFile,
+        new File(this.workDir, "a.pixels"), 3);
+    PixelStore copy = new PixelStore(this.store);
+    new Retargeter(copy, 1, 0.0, null).carveTo(30, 25);
+    MappedPixelStore carved = mapped.carveTo(30, 25);
+    t.checkExpect(carved.width, 30);
+    t.checkExpect(carved.height, 25);
+    boolean same = true;
+    for (int y = 0; y < 25; y++) {
+      for (int x = 0; x < 30; x++) {
+        same = same && carved.getArgb(x, y) == copy.getArgb(x, y);
+      }
+    }
+    t.checkExpect(same, true);
+    t.checkException(
+        new IllegalArgumentException("Target size must be between 1x1 and the image size"),
+        carved, "carveTo", 31, 25);
+    carved.close();
+    this.cleanUp();
+  }
+}
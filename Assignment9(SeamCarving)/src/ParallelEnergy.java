@@ -0,0 +1,203 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import tester.*;
+import java.awt.Color;
+
+// Computes whole energy maps on several threads, splitting the image into
+// bands of rows on a ForkJoinPool. Every pixel's energy is computed by the
+// same code as the sequential pass, so the results are identical.
+class ParallelEnergy {
+  // The pool the bands run on
+  ForkJoinPool pool;
+  // Number of threads in the pool
+  int parallelism;
+  // Bands are not split below this many rows
+  int minBandRows;
+
+  // Creates a parallel energy pass on a new pool with the given number of
+  // threads
+  ParallelEnergy(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1");
+    }
+    this.parallelism = parallelism;
+    this.pool = new ForkJoinPool(parallelism);
+    this.minBandRows = 8;
+  }
+
+  // Returns the number of rows below which a band of an image with the given
+  // height is not split, giving each thread a few bands to balance the load
+  int bandRows(int height) {
+    return Math.max(this.minBandRows, height / (this.parallelism * 4));
+  }
+
+  // EFFECT: recomputes the stored energy of every pixel of the store, on
+  // the world's thread when the store has an energy function, whose planes
+  // must be computed before the energy that reads them
+  void updateAllEnergy(PixelStore store) {
+    if (store.energyFunction != null) {
+      store.updateAllEnergy();
+      return;
+    }
+    this.pool.invoke(new StoreEnergyBand(store, 0, store.height, this.bandRows(store.height)));
+  }
+
+  // EFFECT: recomputes the energy of every pixel of the grid
+  void recomputeGridEnergy(ArrayList<ArrayList<IPixel>> grid) {
+    this.pool.invoke(new GridEnergyBand(grid, 0, grid.size(), this.bandRows(grid.size())));
+  }
+
+  // EFFECT: stops the threads of the pool
+  void shutdown() {
+    this.pool.shutdown();
+  }
+}
+
+// Recomputes the stored energy of a band of rows of a PixelStore
+class StoreEnergyBand extends RecursiveAction {
+  // Version of the serialized form RecursiveAction asks for
+  private static final long serialVersionUID = 1L;
+  // The store being updated
+  PixelStore store;
+  // First row of the band
+  int startRow;
+  // Row after the last row of the band
+  int endRow;
+  // Bands with at most this many rows are computed directly
+  int bandRows;
+
+  // Creates a task for the rows from startRow up to (not including) endRow
+  StoreEnergyBand(PixelStore store, int startRow, int endRow, int bandRows) {
+    this.store = store;
+    this.startRow = startRow;
+    this.endRow = endRow;
+    this.bandRows = bandRows;
+  }
+
+  // EFFECT: computes this band, splitting it in half while it is large
+  protected void compute() {
+    if (this.endRow - this.startRow <= this.bandRows) {
+      for (int y = this.startRow; y < this.endRow; y++) {
+        this.store.recomputeEnergyInRow(y, 0, this.store.getRowWidth(y) - 1);
+      }
+    }
+    else {
+      int middle = (this.startRow + this.endRow) / 2;
+      invokeAll(new StoreEnergyBand(this.store, this.startRow, middle, this.bandRows),
+          new StoreEnergyBand(this.store, middle, this.endRow, this.bandRows));
+    }
+  }
+}
+
+// Recomputes the energy of the pixels in a band of rows of a pixel grid
+class GridEnergyBand extends RecursiveAction {
+  // Version of the serialized form RecursiveAction asks for
+  private static final long serialVersionUID = 1L;
+  // The grid being updated
+  ArrayList<ArrayList<IPixel>> grid;
+  // First row of the band
+  int startRow;
+  // Row after the last row of the band
+  int endRow;
+  // Bands with at most this many rows are computed directly
+  int bandRows;
+
+  // Creates a task for the rows from startRow up to (not including) endRow
+  GridEnergyBand(ArrayList<ArrayList<IPixel>> grid, int startRow, int endRow, int bandRows) {
+    this.grid = grid;
+    this.startRow = startRow;
+    this.endRow = endRow;
+    this.bandRows = bandRows;
+  }
+
+  // EFFECT: computes this band, splitting it in half while it is large
+  protected void compute() {
+    if (this.endRow - this.startRow <= this.bandRows) {
+      for (int y = this.startRow; y < this.endRow; y++) {
+        for (IPixel pixel : this.grid.get(y)) {
+          pixel.recomputeEnergy();
+        }
+      }
+    }
+    else {
+      int middle = (this.startRow + this.endRow) / 2;
+      invokeAll(new GridEnergyBand(this.grid, this.startRow, middle, this.bandRows),
+          new GridEnergyBand(this.grid, middle, this.endRow, this.bandRows));
+    }
+  }
+}
+
+class ExamplesParallelEnergy {
+  ParallelEnergy parallel;
+  PixelStore store;
+
+  void init() {
+    this.parallel = new ParallelEnergy(4);
+    this.parallel.minBandRows = 2;
+    java.util.Random random = new java.util.Random(17);
+    this.store = new PixelStore(40, 37);
+    for (int y = 0; y < 37; y++) {
+      for (int x = 0; x < 40; x++) {
+        this.store.setArgb(x, y, random.nextInt());
+      }
+    }
+  }
+
+  void testBandRows(Tester t) {
+    this.init();
+    t.checkExpect(this.parallel.bandRows(10), 2);
+    t.checkExpect(this.parallel.bandRows(160), 10);
+    t.checkConstructorException(new IllegalArgumentException("Parallelism must be at least 1"),
+        "ParallelEnergy", 0);
+  }
+
+  void testStoreEnergyMatchesSequential(Tester t) {
+    this.init();
+    this.store.updateAllEnergy();
+    double[] sequential = Arrays.copyOf(this.store.energy, this.store.energy.length);
+    Arrays.fill(this.store.energy, -1.0);
+
+    this.parallel.updateAllEnergy(this.store);
+    t.checkExpect(this.store.energy, sequential);
+
+    this.store.removeVertSeam(new int[37]);
+    this.store.updateAllEnergy();
+    sequential = Arrays.copyOf(this.store.energy, this.store.energy.length);
+    this.parallel.updateAllEnergy(this.store);
+    t.checkExpect(this.store.energy, sequential);
+    this.parallel.shutdown();
+  }
+
+  void testGridEnergyMatchesSequential(Tester t) {
+    this.init();
+    ArrayList<ArrayList<IPixel>> grid = new ArrayList<ArrayList<IPixel>>();
+    for (int y = 0; y < this.store.height; y++) {
+      ArrayList<IPixel> row = new ArrayList<IPixel>();
+      for (int x = 0; x < this.store.getWidth(); x++) {
+        row.add(new Pixel(new Color(this.store.getArgb(x, y))));
+      }
+      grid.add(row);
+    }
+    BorderPixel border = new BorderPixel();
+    for (int y = 0; y < grid.size(); y++) {
+      for (int x = 0; x < grid.get(y).size(); x++) {
+        grid.get(y).get(x).connectToNeighbors(x, y, grid.get(y).size(), grid.size(), grid,
+            border);
+      }
+    }
+
+    this.parallel.recomputeGridEnergy(grid);
+    boolean same = true;
+    for (ArrayList<IPixel> row : grid) {
+      for (IPixel pixel : row) {
+        double parallelEnergy = pixel.getEnergy();
+        pixel.recomputeEnergy();
+        same = same && parallelEnergy == pixel.getEnergy();
+      }
+    }
+    t.checkExpect(same, true);
+    this.parallel.shutdown();
+  }
+}
@@ -0,0 +1,316 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import tester.*;
+
+// A Flight Recorder event for one phase of carving a seam: the phase, the
+// size of the image it ran on, how many pixels it computed, how long it
+// took and how many bytes it allocated. Enable "seamcarving.Phase" in a recording to see them.
+@Name("seamcarving.Phase")
+@Label("Seam Carving Phase")
+@Category("Seam Carving")
+@Description("One phase of finding, removing or drawing a seam")
+@StackTrace(false)
+class PhaseEvent extends Event {
+  // Name of the phase
+  @Label("Phase")
+  String phase;
+  // Width of the image when the phase ran
+  @Label("Width")
+  int width;
+  // Height of the image when the phase ran
+  @Label("Height")
+  int height;
+  // Number of pixels (or seam cost cells) the phase computed
+  @Label("Pixels")
+  int pixels;
+  // Time the phase took
+  @Label("Elapsed")
+  @Timespan(Timespan.NANOSECONDS)
+  long elapsed;
+  // Bytes the phase allocated on its thread, or -1 if the JVM cannot tell
+  @Label("Allocated")
+  @DataAmount(DataAmount.BYTES)
+  long allocated;
+}
+
+// Running totals of one phase: how often it ran, for how long in all and at
+// most, how many pixels it computed and how many bytes it allocated
+class PhaseTotals {
+  // Name of the phase
+  String phase;
+  // Number of times the phase ran
+  long calls;
+  // Total time of every run
+  long nanos;
+  // Longest single run
+  long maxNanos;
+  // Total pixels computed by every run
+  long pixels;
+  // Total bytes allocated by every run, or -1 if the JVM cannot tell
+  long bytes;
+
+  // Creates empty totals for the phase
+  PhaseTotals(String phase) {
+    this.phase = phase;
+  }
+
+  // EFFECT: adds one run of the phase to these totals
+  void add(long elapsed, int pixels, long allocated) {
+    this.calls++;
+    this.nanos += elapsed;
+    this.maxNanos = Math.max(this.maxNanos, elapsed);
+    this.pixels += pixels;
+    if (allocated < 0 || this.bytes < 0) {
+      this.bytes = -1;
+    }
+    else {
+      this.bytes += allocated;
+    }
+  }
+
+  // Returns one line of a report
+  public String toString() {
+    return String.format("%-10s %8d calls %10.2f ms %8.3f ms/call %8.3f ms max %12d pixels"
+        + " %14d bytes", this.phase, this.calls, this.nanos / 1e6, this.calls == 0 ? 0
+            : this.nanos / 1e6 / this.calls, this.maxNanos / 1e6, this.pixels, this.bytes);
+  }
+}
+
+// When a phase started: the clock and the bytes its thread had allocated
+class PhaseStart {
+  // System.nanoTime() when the phase started
+  long nanos;
+  // Bytes allocated by the thread when the phase started, or -1 if unknown
+  long bytes;
+
+  // Creates the start of a phase
+  PhaseStart(long nanos, long bytes) {
+    this.nanos = nanos;
+    this.bytes = bytes;
+  }
+}
+
+// Times the phases of carving: "energy", "seamCosts", "trace", "remove",
+// "redraw" and "draw", and counts the bytes each allocates on its thread. Each
+// phase is reported as a PhaseEvent to any Flight Recorder recording that
+// enables it, and added to in-process totals when counting is on. With
+// both off, start and end only read a flag and neither the clock nor the
+// allocation counter is read, so a timer can be left in place.
+//
+// Phases can nest: on a graph of pixels, the seam costs found with the
+// cost table include the energy phase that fills in their plane.
+class PhaseTimer {
+  // Whether phases are added to the in-process totals
+  boolean counting;
+  // Totals of every phase seen while counting, by name
+  HashMap<String, PhaseTotals> totals;
+  // Names of the phases in the order they were first seen
+  ArrayList<String> phases;
+
+  // Returned by start when nothing is listening, so end does nothing
+  static final PhaseStart OFF = new PhaseStart(0, 0);
+  // The Flight Recorder's view of PhaseEvent, to ask whether it is enabled
+  static final EventType EVENT_TYPE = EventType.getEventType(PhaseEvent.class);
+  // Counts the bytes allocated by a thread, or null if the JVM cannot
+  static final com.sun.management.ThreadMXBean THREADS = PhaseTimer.allocationCounter();
+
+  // Creates a timer that does not count (events are still sent to any
+  // recording that enables them)
+  PhaseTimer() {
+    this(false);
+  }
+
+  // Creates a timer that counts or not
+  PhaseTimer(boolean counting) {
+    this.counting = counting;
+    this.totals = new HashMap<String, PhaseTotals>();
+    this.phases = new ArrayList<String>();
+  }
+
+  // Returns the JVM's per-thread allocation counter, or null if it has none
+  static com.sun.management.ThreadMXBean allocationCounter() {
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean threads =
+          (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      if (threads.isThreadAllocatedMemorySupported()) {
+        return threads;
+      }
+    }
+    return null;
+  }
+
+  // Returns the bytes allocated so far by this thread, or -1 if unknown
+  static long allocatedBytes() {
+    if (THREADS == null || !THREADS.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  // Returns when a phase starts, or OFF when neither the totals nor a
+  // recording want it
+  PhaseStart start() {
+    if (!this.counting && !EVENT_TYPE.isEnabled()) {
+      return OFF;
+    }
+    return new PhaseStart(System.nanoTime(), PhaseTimer.allocatedBytes());
+  }
+
+  // EFFECT: records a phase that began at start, on an image of the given
+  // size, that computed the given number of pixels
+  void end(String phase, PhaseStart start, int width, int height, int pixels) {
+    if (start == OFF) {
+      return;
+    }
+    long elapsed = System.nanoTime() - start.nanos;
+    long allocated = -1;
+    if (start.bytes >= 0) {
+      allocated = PhaseTimer.allocatedBytes() - start.bytes;
+    }
+    if (this.counting) {
+      this.count(phase, elapsed, pixels, allocated);
+    }
+    PhaseEvent event = new PhaseEvent();
+    if (event.isEnabled()) {
+      event.phase = phase;
+      event.width = width;
+      event.height = height;
+      event.pixels = pixels;
+      event.elapsed = elapsed;
+      event.allocated = allocated;
+      event.commit();
+    }
+  }
+
+  // EFFECT: adds a run of the phase to its totals
+  synchronized void count(String phase, long elapsed, int pixels, long allocated) {
+    PhaseTotals phaseTotals = this.totals.get(phase);
+    if (phaseTotals == null) {
+      phaseTotals = new PhaseTotals(phase);
+      this.totals.put(phase, phaseTotals);
+      this.phases.add(phase);
+    }
+    phaseTotals.add(elapsed, pixels, allocated);
+  }
+
+  // Returns the totals of the phase so far, empty if it has not run
+  synchronized PhaseTotals totalsOf(String phase) {
+    PhaseTotals phaseTotals = this.totals.get(phase);
+    if (phaseTotals == null) {
+      return new PhaseTotals(phase);
+    }
+    return phaseTotals;
+  }
+
+  // EFFECT: forgets every total
+  synchronized void reset() {
+    this.totals.clear();
+    this.phases.clear();
+  }
+
+  // Returns the totals of every phase, one line each, in the order they
+  // were first seen
+  synchronized String report() {
+    StringBuilder report = new StringBuilder();
+    for (String phase : this.phases) {
+      report.append(this.totals.get(phase)).append("\n");
+    }
+    return report.toString();
+  }
+}
+
+class ExamplesPhaseTimer {
+  void testCounting(Tester t) {
+    PhaseTimer timer = new PhaseTimer(true);
+    PhaseStart start = timer.start();
+    t.checkExpect(start == PhaseTimer.OFF, false);
+    timer.end("energy", start, 4, 3, 12);
+    timer.end("energy", timer.start(), 4, 3, 12);
+    timer.end("remove", timer.start(), 3, 3, 6);
+    t.checkExpect(timer.totalsOf("energy").calls, 2L);
+    t.checkExpect(timer.totalsOf("energy").pixels, 24L);
+    t.checkExpect(timer.totalsOf("energy").nanos >= timer.totalsOf("energy").maxNanos, true);
+    t.checkExpect(timer.totalsOf("draw").calls, 0L);
+    t.checkExpect(timer.phases.get(1), "remove");
+    t.checkExpect(timer.report().split("\n").length, 2);
+    timer.reset();
+    t.checkExpect(timer.totalsOf("energy").calls, 0L);
+  }
+
+  void testOff(Tester t) {
+    PhaseTimer timer = new PhaseTimer();
+    if (!PhaseTimer.EVENT_TYPE.isEnabled()) {
+      t.checkExpect(timer.start(), PhaseTimer.OFF);
+    }
+    timer.end("energy", PhaseTimer.OFF, 4, 3, 12);
+    t.checkExpect(timer.totalsOf("energy").calls, 0L);
+    t.checkExpect(timer.report(), "");
+  }
+
+  void testSeamCarverPhases(Tester t) {
+    SeamCarver flat = new SeamCarver("src/Balloons.jpg", "flat");
+    flat.timer.counting = true;
+    flat.costMode = "array";
+    flat.onTick();
+    flat.onTick();
+    flat.makeScene();
+    t.checkExpect(flat.timer.totalsOf("seamCosts").calls, 1L);
+    t.checkExpect(flat.timer.totalsOf("remove").calls, 1L);
+    t.checkExpect(flat.timer.totalsOf("remove").pixels, 0L);
+    t.checkExpect(flat.timer.totalsOf("energy").calls, 1L);
+    t.checkExpect(flat.timer.totalsOf("energy").pixels > flat.height, true);
+    t.checkExpect(flat.timer.totalsOf("draw").pixels, (long) flat.width * flat.height);
+
+    SeamCarver graph = new SeamCarver("src/Balloons.jpg");
+    graph.timer.counting = true;
+    graph.onTick();
+    t.checkExpect(graph.timer.totalsOf("energy").calls, 1L);
+    t.checkExpect(graph.timer.totalsOf("seamCosts").pixels, (long) graph.width * graph.height);
+    t.checkExpect(graph.timer.totalsOf("trace").pixels, (long) graph.height);
+    graph.onTick();
+    t.checkExpect(graph.timer.totalsOf("remove").calls, 1L);
+    t.checkExpect(graph.timer.totalsOf("remove").pixels, 0L);
+  }
+
+  void testRasterPhases(Tester t) {
+    SeamCarver raster = new SeamCarver("src/Balloons.jpg", "flat");
+    raster.timer.counting = true;
+    raster.costMode = "array";
+    raster.onKeyEvent("r");
+    raster.makeScene();
+    long whole = (long) raster.width * raster.height;
+    t.checkExpect(raster.timer.totalsOf("draw").pixels, whole);
+    raster.onTick();
+    raster.onTick();
+    t.checkExpect(raster.timer.totalsOf("redraw").calls, 1L);
+    t.checkExpect(raster.timer.totalsOf("redraw").pixels > 0, true);
+    raster.makeScene();
+    long drawn = raster.timer.totalsOf("draw").pixels - whole;
+    t.checkExpect(drawn, (long) raster.raster.flushed);
+    t.checkExpect(drawn < whole, true);
+  }
+
+  void testAllocatedBytes(Tester t) {
+    PhaseTimer timer = new PhaseTimer(true);
+    PhaseStart start = timer.start();
+    int[] plane = new int[100000];
+    timer.end("energy", start, 1000, 100, plane.length);
+    if (PhaseTimer.allocatedBytes() >= 0) {
+      t.checkExpect(timer.totalsOf("energy").bytes >= 400000, true);
+    }
+    else {
+      t.checkExpect(timer.totalsOf("energy").bytes, -1L);
+    }
+    t.checkExpect(timer.report().contains("bytes"), true);
+  }
+}
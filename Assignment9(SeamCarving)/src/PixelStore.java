@@ -0,0 +1,1527 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import tester.*;
+import javalib.worldimages.*;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+// A flat store of the pixels in an image: packed ARGB colors and brightness
+// values kept in primitive arrays, with neighbors found by index arithmetic
+// instead of references between pixel objects
+class PixelStore {
+  // Packed ARGB color of every pixel, row by row
+  int[] argb;
+  // Brightness of every pixel, aligned with argb
+  float[] brightness;
+  // Energy of every pixel, aligned with argb and kept up to date by
+  // updateAllEnergy and the recompute methods below
+  double[] energy;
+  // Number of pixels still in each row
+  int[] rowWidths;
+  // Distance in the arrays between the start of one row and the next
+  int stride;
+  // Number of rows still in the image
+  int height;
+  // Index each pixel had when trackOrigins was called, aligned with argb and
+  // moved along with the pixel, or null when origins are not tracked
+  int[] origins;
+  // Stride of the arrays when origins were tracked, which a transpose does
+  // not change
+  int originStride;
+  // Computes the energy instead of the Sobel gradient of brightness, or
+  // null for the Sobel gradient
+  EnergyFunction energyFunction;
+  // Planes the energy function keeps, each aligned with argb and moved along
+  // with the pixels, or null
+  float[][] planes;
+  // Mask of every pixel, aligned with argb and moved along with the pixel:
+  // PROTECT keeps seams away from it, REMOVE draws seams through it, and 0
+  // leaves it alone. Null when no mask is in use.
+  byte[] mask;
+
+  // Mask value of a pixel seams should stay away from
+  static final byte PROTECT = 1;
+  // Mask value of a pixel of an object to carve away
+  static final byte REMOVE = -1;
+
+  // Creates an all-black store of the given size
+  PixelStore(int width, int height) {
+    this.stride = width;
+    this.height = height;
+    this.argb = new int[width * height];
+    this.brightness = new float[width * height];
+    this.energy = new double[width * height];
+    this.rowWidths = new int[height];
+    for (int y = 0; y < height; y++) {
+      this.rowWidths[y] = width;
+    }
+    for (int i = 0; i < this.argb.length; i++) {
+      this.argb[i] = Color.BLACK.getRGB();
+    }
+  }
+
+  // Creates a store holding the pixels of the given image
+  PixelStore(FromFileImage image) {
+    this((int) image.getWidth(), (int) image.getHeight());
+    for (int y = 0; y < this.height; y++) {
+      for (int x = 0; x < this.stride; x++) {
+        this.setArgb(x, y, image.getColorAt(x, y).getRGB());
+      }
+    }
+  }
+
+  // Creates a store holding the pixels of the given image, read in bulk
+  // without going through javalib
+  PixelStore(BufferedImage image) {
+    this(image.getWidth(), image.getHeight());
+    this.readPixels(image);
+  }
+
+  // Returns a store holding the pixels of the image file, decoded once
+  static PixelStore load(String fileName) {
+    try {
+      BufferedImage image = ImageIO.read(new File(fileName));
+      if (image == null) {
+        throw new IllegalArgumentException("Not an image: " + fileName);
+      }
+      return new PixelStore(image);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // EFFECT: fills this store, which must be the size of the image, with the
+  // image's pixels and their brightness in one pass. The packed int and
+  // 3-byte BGR layouts that ImageIO decodes to are read straight out of
+  // their data buffers; anything else goes through one bulk getRGB.
+  void readPixels(BufferedImage image) {
+    WritableRaster raster = image.getRaster();
+    int count = this.argb.length;
+    boolean whole = raster.getParent() == null && raster.getSampleModelTranslateX() == 0
+        && raster.getSampleModelTranslateY() == 0;
+    int type = image.getType();
+    if (whole && (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)) {
+      int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+      int alpha = type == BufferedImage.TYPE_INT_RGB ? 0xFF000000 : 0;
+      for (int i = 0; i < count; i++) {
+        int color = data[i] | alpha;
+        this.argb[i] = color;
+        this.brightness[i] = PixelStore.brightnessOf(color);
+      }
+    }
+    else if (whole && type == BufferedImage.TYPE_3BYTE_BGR) {
+      byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+      for (int i = 0, j = 0; i < count; i++, j += 3) {
+        int color = 0xFF000000 | ((data[j + 2] & 0xFF) << 16) | ((data[j + 1] & 0xFF) << 8)
+            | (data[j] & 0xFF);
+        this.argb[i] = color;
+        this.brightness[i] = PixelStore.brightnessOf(color);
+      }
+    }
+    else {
+      image.getRGB(0, 0, this.stride, this.height, this.argb, 0, this.stride);
+      for (int i = 0; i < count; i++) {
+        this.brightness[i] = PixelStore.brightnessOf(this.argb[i]);
+      }
+    }
+  }
+
+  // Creates a store holding the colors of the given grid of pixels
+  PixelStore(ArrayList<ArrayList<IPixel>> grid) {
+    this(grid.isEmpty() ? 0 : grid.get(0).size(), grid.size());
+    for (int y = 0; y < this.height; y++) {
+      this.rowWidths[y] = grid.get(y).size();
+      for (int x = 0; x < this.rowWidths[y]; x++) {
+        this.setArgb(x, y, grid.get(y).get(x).getColor().getRGB());
+      }
+    }
+  }
+
+  // Creates a copy of the given store, with its own arrays
+  PixelStore(PixelStore other) {
+    this.stride = other.stride;
+    this.height = other.height;
+    this.argb = Arrays.copyOf(other.argb, other.argb.length);
+    this.brightness = Arrays.copyOf(other.brightness, other.brightness.length);
+    this.energy = Arrays.copyOf(other.energy, other.energy.length);
+    this.rowWidths = Arrays.copyOf(other.rowWidths, other.rowWidths.length);
+    if (other.origins != null) {
+      this.origins = Arrays.copyOf(other.origins, other.origins.length);
+      this.originStride = other.originStride;
+    }
+    this.energyFunction = other.energyFunction;
+    if (other.planes != null) {
+      this.planes = new float[other.planes.length][];
+      for (int p = 0; p < this.planes.length; p++) {
+        this.planes[p] = Arrays.copyOf(other.planes[p], other.planes[p].length);
+      }
+    }
+    if (other.mask != null) {
+      this.mask = Arrays.copyOf(other.mask, other.mask.length);
+    }
+  }
+
+  // Returns the position in the arrays of the pixel at (x, y)
+  int index(int x, int y) {
+    return y * this.stride + x;
+  }
+
+  // Returns the current width of the image (the width of its first row)
+  int getWidth() {
+    if (this.height == 0) {
+      return 0;
+    }
+    return this.rowWidths[0];
+  }
+
+  // Returns the number of pixels still in row y
+  int getRowWidth(int y) {
+    return this.rowWidths[y];
+  }
+
+  // Determines whether (x, y) is a pixel of this image
+  boolean contains(int x, int y) {
+    return y >= 0 && y < this.height && x >= 0 && x < this.rowWidths[y];
+  }
+
+  // Returns the packed ARGB color of the pixel at (x, y)
+  int getArgb(int x, int y) {
+    return this.argb[this.index(x, y)];
+  }
+
+  // Returns the color of the pixel at (x, y)
+  Color getColor(int x, int y) {
+    return new Color(this.getArgb(x, y), true);
+  }
+
+  // EFFECT: sets the color of the pixel at (x, y) and updates its brightness
+  void setArgb(int x, int y, int color) {
+    int i = this.index(x, y);
+    this.argb[i] = color;
+    this.brightness[i] = PixelStore.brightnessOf(color);
+  }
+
+  // Brightness of every possible sum of the red, green and blue values
+  static final float[] BRIGHTNESS_OF_SUM = PixelStore.brightnessTable();
+
+  // Returns the brightness of a packed color (average of RGB values)
+  static float brightnessOf(int color) {
+    int red = (color >> 16) & 0xFF;
+    int green = (color >> 8) & 0xFF;
+    int blue = color & 0xFF;
+    return BRIGHTNESS_OF_SUM[red + green + blue];
+  }
+
+  // Returns the brightness of every sum of red, green and blue from 0 to
+  // 3 * 255, so that reading an image does no division per pixel
+  static float[] brightnessTable() {
+    float[] table = new float[3 * 255 + 1];
+    for (int sum = 0; sum < table.length; sum++) {
+      table[sum] = (float) ((double) sum / (255.0 * 3.0));
+    }
+    return table;
+  }
+
+  // Returns the brightness of the pixel at (x, y), or 0 outside the image
+  // just like a BorderPixel
+  double getBrightness(int x, int y) {
+    if (!this.contains(x, y)) {
+      return 0;
+    }
+    return this.brightness[this.index(x, y)];
+  }
+
+  // Calculates the horizontal energy gradient of the pixel at (x, y)
+  double getHorizEnergy(int x, int y) {
+    return (this.getBrightness(x - 1, y - 1) + 2 * this.getBrightness(x - 1, y)
+        + this.getBrightness(x - 1, y + 1))
+        - (this.getBrightness(x + 1, y - 1) + 2 * this.getBrightness(x + 1, y)
+            + this.getBrightness(x + 1, y + 1));
+  }
+
+  // Calculates the vertical energy gradient of the pixel at (x, y)
+  double getVertEnergy(int x, int y) {
+    return (this.getBrightness(x - 1, y - 1) + 2 * this.getBrightness(x, y - 1)
+        + this.getBrightness(x + 1, y - 1))
+        - (this.getBrightness(x - 1, y + 1) + 2 * this.getBrightness(x, y + 1)
+            + this.getBrightness(x + 1, y + 1));
+  }
+
+  // Calculates the energy of the pixel at (x, y)
+  double computeEnergy(int x, int y) {
+    double horiz = this.getHorizEnergy(x, y);
+    double vert = this.getVertEnergy(x, y);
+    return Math.sqrt(horiz * horiz + vert * vert);
+  }
+
+  // Returns the stored energy of the pixel at (x, y)
+  double getEnergy(int x, int y) {
+    return this.energy[this.index(x, y)];
+  }
+
+  // EFFECT: computes the energy with the given function from now on, or
+  // with the Sobel gradient of brightness when it is null, and recomputes
+  // the energy of every pixel
+  void useEnergy(EnergyFunction function) {
+    this.planes = null;
+    if (function != null) {
+      function.attach(this);
+    }
+    this.energyFunction = function;
+    this.updateAllEnergy();
+  }
+
+  // Returns how far from a pixel the pixels its energy depends on can be
+  int energyRadius() {
+    if (this.energyFunction == null) {
+      return 1;
+    }
+    return this.energyFunction.radius();
+  }
+
+  // EFFECT: recomputes the stored energy of every pixel
+  void updateAllEnergy() {
+    if (this.energyFunction != null) {
+      this.energyFunction.computeAll(this);
+      return;
+    }
+    for (int y = 0; y < this.height; y++) {
+      this.recomputeEnergyInRow(y, 0, this.rowWidths[y] - 1);
+    }
+  }
+
+  // EFFECT: recomputes the stored energy of the pixels from low[i] to
+  // high[i] (inclusive, clamped to the image) of every row i, or of every
+  // column i when rows is false, and returns how many were recomputed
+  int recomputeEnergyInBands(int[] low, int[] high, boolean rows) {
+    if (this.energyFunction != null) {
+      return this.energyFunction.recompute(this, low, high, rows);
+    }
+    int count = 0;
+    for (int i = 0; i < low.length; i++) {
+      if (rows) {
+        count += this.recomputeEnergyInRow(i, low[i], high[i]);
+      }
+      else {
+        count += this.recomputeEnergyInColumn(i, low[i], high[i]);
+      }
+    }
+    return count;
+  }
+
+  // Returns the bands of pixels whose neighborhoods changed when the given
+  // seam, with one position per line, was taken out of (or, when restored
+  // is true, put back into) every line: in each line, from the leftmost
+  // position of the seam in the lines within the energy radius, less the
+  // radius, to the rightmost, plus the radius (less one after a removal,
+  // since the pixels right of the seam moved onto it)
+  int[][] bandsNear(int[] seam, int lines, boolean restored) {
+    int radius = this.energyRadius();
+    int[] low = new int[lines];
+    int[] high = new int[lines];
+    for (int i = 0; i < lines; i++) {
+      int least = seam[i];
+      int most = seam[i];
+      for (int j = Math.max(0, i - radius); j <= Math.min(lines - 1, i + radius); j++) {
+        least = Math.min(least, seam[j]);
+        most = Math.max(most, seam[j]);
+      }
+      low[i] = least - radius;
+      high[i] = restored ? most + radius : most + radius - 1;
+    }
+    return new int[][] { low, high };
+  }
+
+  // EFFECT: recomputes the stored energy of the pixels from x = start to
+  // x = end (inclusive, clamped to the row) in row y, and returns how many
+  // pixels were recomputed
+  int recomputeEnergyInRow(int y, int start, int end) {
+    if (this.energyFunction != null) {
+      return this.recomputeEnergyInLine(y, start, end, true);
+    }
+    int from = Math.max(0, start);
+    int to = Math.min(this.rowWidths[y] - 1, end);
+    int innerFrom = Math.max(from, 1);
+    int innerTo = Math.min(to, this.rowWidths[y] - 2);
+    if (y == 0 || y == this.height - 1 || innerFrom > innerTo
+        || this.rowWidths[y - 1] != this.rowWidths[y]
+        || this.rowWidths[y + 1] != this.rowWidths[y]) {
+      innerFrom = to + 1;
+      innerTo = to;
+    }
+    for (int x = from; x < innerFrom; x++) {
+      this.energy[this.index(x, y)] = this.computeEnergy(x, y);
+    }
+    this.sobelRow(y, innerFrom, innerTo);
+    for (int x = innerTo + 1; x <= to; x++) {
+      this.energy[this.index(x, y)] = this.computeEnergy(x, y);
+    }
+    return Math.max(0, to - from + 1);
+  }
+
+  // EFFECT: recomputes the stored energy of the pixels in row y from x = from
+  // to x = to, all of which must have all eight neighbors inside the image.
+  // The three rows are read straight from the brightness plane in one flat
+  // loop with no method calls or bounds tests, which the JIT can unroll and
+  // vectorize. The sums are done in the same order as computeEnergy, so the
+  // energies are exactly the same.
+  void sobelRow(int y, int from, int to) {
+    float[] b = this.brightness;
+    double[] e = this.energy;
+    int middle = this.index(0, y);
+    int top = middle - this.stride;
+    int bottom = middle + this.stride;
+    for (int x = from; x <= to; x++) {
+      double topLeft = b[top + x - 1];
+      double topCenter = b[top + x];
+      double topRight = b[top + x + 1];
+      double left = b[middle + x - 1];
+      double right = b[middle + x + 1];
+      double bottomLeft = b[bottom + x - 1];
+      double bottomCenter = b[bottom + x];
+      double bottomRight = b[bottom + x + 1];
+      double horiz = (topLeft + 2 * left + bottomLeft) - (topRight + 2 * right + bottomRight);
+      double vert = (topLeft + 2 * topCenter + topRight)
+          - (bottomLeft + 2 * bottomCenter + bottomRight);
+      e[middle + x] = Math.sqrt(horiz * horiz + vert * vert);
+    }
+  }
+
+  // EFFECT: recomputes the stored energy of the pixels in column x from
+  // y = start to y = end (inclusive, clamped to the column), and returns how
+  // many pixels were recomputed
+  int recomputeEnergyInColumn(int x, int start, int end) {
+    if (this.energyFunction != null) {
+      return this.recomputeEnergyInLine(x, start, end, false);
+    }
+    int from = Math.max(0, start);
+    int to = Math.min(this.height - 1, end);
+    for (int y = from; y <= to; y++) {
+      this.energy[this.index(x, y)] = this.computeEnergy(x, y);
+    }
+    return Math.max(0, to - from + 1);
+  }
+  // EFFECT: recomputes the energy of the pixels from start to end of one
+  // row (or column) with the energy function
+  int recomputeEnergyInLine(int line, int start, int end, boolean rows) {
+    int lines = rows ? this.height : this.getWidth();
+    int[] low = new int[lines];
+    int[] high = new int[lines];
+    Arrays.fill(high, -1);
+    low[line] = start;
+    high[line] = end;
+    return this.energyFunction.recompute(this, low, high, rows);
+  }
+
+
+  // EFFECT: after removeVertSeam(seam), recomputes the energy of exactly the
+  // pixels whose 3x3 neighborhood changed, and returns how many there were.
+  // A pixel in row y keeps its neighborhood unless its columns straddle the
+  // seam in row y - 1, y or y + 1, so only a band of about three pixels per
+  // row is touched.
+  int recomputeEnergyNearVertSeam(int[] seam) {
+    int[][] bands = this.bandsNear(seam, this.height, false);
+    return this.recomputeEnergyInBands(bands[0], bands[1], true);
+  }
+
+  // EFFECT: after removeHoriSeam(seam), recomputes the energy of exactly the
+  // pixels whose 3x3 neighborhood changed, and returns how many there were
+  int recomputeEnergyNearHoriSeam(int[] seam) {
+    int[][] bands = this.bandsNear(seam, seam.length, false);
+    return this.recomputeEnergyInBands(bands[0], bands[1], false);
+  }
+
+  // EFFECT: after removeVertSeams(seams), for seams that neither share nor
+  // cross pixels, recomputes the energy of the pixels whose 3x3
+  // neighborhood changed, and returns how many recomputes were done. Since
+  // the seams keep their left-to-right order in every row, the j-th seam
+  // from the left was taken out at column seam[y] - j of the result, and its
+  // band is found just like the band of a single seam.
+  int recomputeEnergyNearVertSeams(ArrayList<int[]> seams) {
+    int count = seams.size();
+    int[] shifted = new int[count * this.height];
+    for (int y = 0; y < this.height; y++) {
+      for (int i = 0; i < count; i++) {
+        shifted[y * count + i] = seams.get(i)[y];
+      }
+      Arrays.sort(shifted, y * count, (y + 1) * count);
+      for (int i = 0; i < count; i++) {
+        shifted[y * count + i] -= i;
+      }
+    }
+
+    int recomputed = 0;
+    int[] seam = new int[this.height];
+    for (int i = 0; i < count; i++) {
+      for (int y = 0; y < this.height; y++) {
+        seam[y] = shifted[y * count + i];
+      }
+      int[][] bands = this.bandsNear(seam, this.height, false);
+      recomputed += this.recomputeEnergyInBands(bands[0], bands[1], true);
+    }
+    return recomputed;
+  }
+
+  // EFFECT: after removeHoriSeams(seams), for seams that neither share nor
+  // cross pixels, recomputes the energy of the pixels whose 3x3
+  // neighborhood changed, and returns how many recomputes were done
+  int recomputeEnergyNearHoriSeams(ArrayList<int[]> seams) {
+    int count = seams.size();
+    int width = this.getWidth();
+    int[] shifted = new int[count * width];
+    for (int x = 0; x < width; x++) {
+      for (int i = 0; i < count; i++) {
+        shifted[x * count + i] = seams.get(i)[x];
+      }
+      Arrays.sort(shifted, x * count, (x + 1) * count);
+      for (int i = 0; i < count; i++) {
+        shifted[x * count + i] -= i;
+      }
+    }
+
+    int recomputed = 0;
+    int[] seam = new int[width];
+    for (int i = 0; i < count; i++) {
+      for (int x = 0; x < width; x++) {
+        seam[x] = shifted[x * count + i];
+      }
+      int[][] bands = this.bandsNear(seam, width, false);
+      recomputed += this.recomputeEnergyInBands(bands[0], bands[1], false);
+    }
+    return recomputed;
+  }
+
+  // Returns the given energy as a grayscale color for visualization
+  Color energyColor(double energy) {
+    return new Color(this.energyArgb(energy));
+  }
+
+  // Returns the packed gray color that displays the given energy
+  int energyArgb(double energy) {
+    int gray = (int) Math.floor(energy * 225 / (Math.sqrt(32)));
+    return 0xFF000000 | (gray << 16) | (gray << 8) | gray;
+  }
+
+  // EFFECT: moves count pixels, with everything stored about them, from
+  // index from to index to
+  void movePixels(int from, int to, int count) {
+    System.arraycopy(this.argb, from, this.argb, to, count);
+    System.arraycopy(this.brightness, from, this.brightness, to, count);
+    System.arraycopy(this.energy, from, this.energy, to, count);
+    if (this.origins != null) {
+      System.arraycopy(this.origins, from, this.origins, to, count);
+    }
+    if (this.planes != null) {
+      for (float[] plane : this.planes) {
+        System.arraycopy(plane, from, plane, to, count);
+      }
+    }
+    if (this.mask != null) {
+      System.arraycopy(this.mask, from, this.mask, to, count);
+    }
+  }
+
+  // EFFECT: moves one pixel, with everything stored about it, from index from
+  // to index to
+  void movePixel(int from, int to) {
+    this.argb[to] = this.argb[from];
+    this.brightness[to] = this.brightness[from];
+    this.energy[to] = this.energy[from];
+    if (this.origins != null) {
+      this.origins[to] = this.origins[from];
+    }
+    if (this.planes != null) {
+      for (float[] plane : this.planes) {
+        plane[to] = plane[from];
+      }
+    }
+    if (this.mask != null) {
+      this.mask[to] = this.mask[from];
+    }
+  }
+
+  // EFFECT: starts tracking where every pixel is now, so that after seams
+  // are removed originX and originY tell where a pixel came from
+  void trackOrigins() {
+    this.origins = new int[this.argb.length];
+    this.originStride = this.stride;
+    for (int i = 0; i < this.origins.length; i++) {
+      this.origins[i] = i;
+    }
+  }
+
+  // Returns the column the pixel at (x, y) was in when origins were tracked
+  int originX(int x, int y) {
+    return this.origins[this.index(x, y)] % this.originStride;
+  }
+
+  // Returns the row the pixel at (x, y) was in when origins were tracked
+  int originY(int x, int y) {
+    return this.origins[this.index(x, y)] / this.originStride;
+  }
+
+  // Returns the mask of the pixel at (x, y), or 0 when no mask is in use
+  byte getMask(int x, int y) {
+    if (this.mask == null) {
+      return 0;
+    }
+    return this.mask[this.index(x, y)];
+  }
+
+  // EFFECT: sets the mask of the pixels from (left, top) to (right, bottom)
+  // (inclusive, clamped to the image) to the given value, starting an empty
+  // mask if none is in use
+  void markMask(int left, int top, int right, int bottom, byte value) {
+    if (this.mask == null) {
+      this.mask = new byte[this.argb.length];
+    }
+    for (int y = Math.max(0, top); y <= Math.min(this.height - 1, bottom); y++) {
+      for (int x = Math.max(0, left); x <= Math.min(this.rowWidths[y] - 1, right); x++) {
+        this.mask[this.index(x, y)] = value;
+      }
+    }
+  }
+
+  // EFFECT: sets the mask from an image the size of this one, in which red
+  // pixels mark an object to remove and green pixels a region to protect;
+  // any other color leaves its pixel unmasked
+  void markMask(PixelStore maskImage) {
+    if (maskImage.getWidth() != this.getWidth() || maskImage.height != this.height) {
+      throw new IllegalArgumentException("Mask must be the size of the image");
+    }
+    this.mask = new byte[this.argb.length];
+    for (int y = 0; y < this.height; y++) {
+      for (int x = 0; x < this.rowWidths[y]; x++) {
+        int color = maskImage.getArgb(x, y);
+        int red = (color >> 16) & 0xFF;
+        int green = (color >> 8) & 0xFF;
+        int blue = color & 0xFF;
+        if (red >= 128 && green < 128 && blue < 128) {
+          this.mask[this.index(x, y)] = REMOVE;
+        }
+        else if (green >= 128 && red < 128 && blue < 128) {
+          this.mask[this.index(x, y)] = PROTECT;
+        }
+      }
+    }
+  }
+
+  // EFFECT: stops using a mask
+  void clearMask() {
+    this.mask = null;
+  }
+
+  // Returns how many pixels of the image have the given mask value
+  int countMask(byte value) {
+    if (this.mask == null) {
+      return 0;
+    }
+    int count = 0;
+    for (int y = 0; y < this.height; y++) {
+      int start = this.index(0, y);
+      for (int i = start; i < start + this.rowWidths[y]; i++) {
+        if (this.mask[i] == value) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  // Returns the smallest box { left, top, right, bottom } (inclusive) around
+  // the pixels with the given mask value, or null if there are none
+  int[] maskBounds(byte value) {
+    if (this.mask == null) {
+      return null;
+    }
+    int[] bounds = null;
+    for (int y = 0; y < this.height; y++) {
+      for (int x = 0; x < this.rowWidths[y]; x++) {
+        if (this.mask[this.index(x, y)] == value) {
+          if (bounds == null) {
+            bounds = new int[] { x, y, x, y };
+          }
+          bounds[0] = Math.min(bounds[0], x);
+          bounds[2] = Math.max(bounds[2], x);
+          bounds[3] = y;
+        }
+      }
+    }
+    return bounds;
+  }
+
+  // EFFECT: swaps the rows and columns of this store, so that its
+  // horizontal seams become vertical seams that the row-major seam search
+  // and compaction handle as fast as any other. Every row must be the same
+  // width. The Sobel energy of a transposed image is the same at every
+  // pixel, so energies are carried over without being recomputed (every
+  // energy function is symmetric too, and only refreshes the planes it
+  // computes along rows). Tracked origins still describe the layout they
+  // were tracked in. The pixels are
+  // copied in square tiles so both the rows read and the rows written stay
+  // in cache.
+  void transpose() {
+    int width = this.getWidth();
+    int rows = this.height;
+    int[] argb = new int[width * rows];
+    float[] brightness = new float[width * rows];
+    double[] energy = new double[width * rows];
+    int[] origins = this.origins == null ? null : new int[width * rows];
+    byte[] mask = this.mask == null ? null : new byte[width * rows];
+    float[][] planes = null;
+    if (this.planes != null) {
+      planes = new float[this.planes.length][width * rows];
+    }
+    int tile = 32;
+    for (int top = 0; top < rows; top += tile) {
+      for (int left = 0; left < width; left += tile) {
+        for (int y = top; y < Math.min(rows, top + tile); y++) {
+          for (int x = left; x < Math.min(width, left + tile); x++) {
+            int from = this.index(x, y);
+            int to = x * rows + y;
+            argb[to] = this.argb[from];
+            brightness[to] = this.brightness[from];
+            energy[to] = this.energy[from];
+            if (origins != null) {
+              origins[to] = this.origins[from];
+            }
+            if (mask != null) {
+              mask[to] = this.mask[from];
+            }
+            if (planes != null) {
+              for (int p = 0; p < planes.length; p++) {
+                planes[p][to] = this.planes[p][from];
+              }
+            }
+          }
+        }
+      }
+    }
+    this.argb = argb;
+    this.brightness = brightness;
+    this.energy = energy;
+    this.origins = origins;
+    this.mask = mask;
+    this.planes = planes;
+    this.stride = rows;
+    this.height = width;
+    // like removeHoriSeam, leaves rows past the height with a width
+    this.rowWidths = new int[Math.max(width, this.rowWidths.length)];
+    Arrays.fill(this.rowWidths, rows);
+    if (this.energyFunction != null) {
+      this.energyFunction.refreshPlanes(this);
+    }
+  }
+
+  // Returns the average of two packed colors, channel by channel
+  int averageArgb(int color1, int color2) {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 8) {
+      int channel = (((color1 >>> shift) & 0xFF) + ((color2 >>> shift) & 0xFF)) / 2;
+      result |= channel << shift;
+    }
+    return result;
+  }
+
+  // EFFECT: removes the pixel at seam[y] from every row y, shifting the rest
+  // of the row left
+  void removeVertSeam(int[] seam) {
+    for (int y = 0; y < this.height; y++) {
+      this.movePixels(this.index(seam[y] + 1, y), this.index(seam[y], y),
+          this.rowWidths[y] - seam[y] - 1);
+      this.rowWidths[y]--;
+    }
+  }
+
+  // EFFECT: removes the pixel at seam[x] from every column x, shifting the rest
+  // of the column up
+  void removeHoriSeam(int[] seam) {
+    for (int x = 0; x < seam.length; x++) {
+      for (int y = seam[x]; y < this.height - 1; y++) {
+        int to = this.index(x, y);
+        this.movePixel(to + this.stride, to);
+      }
+    }
+    this.height--;
+  }
+
+  // EFFECT: removes several vertical seams that share no pixels, in one pass
+  // over each row
+  void removeVertSeams(ArrayList<int[]> seams) {
+    int[] removed = new int[seams.size()];
+    for (int y = 0; y < this.height; y++) {
+      for (int i = 0; i < removed.length; i++) {
+        removed[i] = seams.get(i)[y];
+      }
+      Arrays.sort(removed);
+
+      int to = removed[0];
+      for (int i = 0; i < removed.length; i++) {
+        int from = removed[i] + 1;
+        int end = i + 1 < removed.length ? removed[i + 1] : this.rowWidths[y];
+        this.movePixels(this.index(from, y), this.index(to, y), end - from);
+        to += end - from;
+      }
+      this.rowWidths[y] -= removed.length;
+    }
+  }
+
+  // EFFECT: removes several horizontal seams that share no pixels, in one
+  // pass over each column
+  void removeHoriSeams(ArrayList<int[]> seams) {
+    int[] removed = new int[seams.size()];
+    for (int x = 0; x < this.getWidth(); x++) {
+      for (int i = 0; i < removed.length; i++) {
+        removed[i] = seams.get(i)[x];
+      }
+      Arrays.sort(removed);
+
+      int to = removed[0];
+      for (int i = 0; i < removed.length; i++) {
+        int end = i + 1 < removed.length ? removed[i + 1] : this.height;
+        for (int from = removed[i] + 1; from < end; from++) {
+          this.movePixel(this.index(x, from), this.index(x, to));
+          to++;
+        }
+      }
+    }
+    this.height -= removed.length;
+  }
+
+  // EFFECT: inserts a new pixel after the pixel at seam[y] in every row y of
+  // every seam, colored as the average of that pixel and its right neighbor,
+  // in one rebuild of each row, with a copy of that pixel's energy function
+  // planes and mask. Seams are given in the current coordinates and may share
+  // pixels, in which case the pixel is repeated. The energy of the result
+  // must be recomputed, and origins are no longer tracked.
+  void insertVertSeams(ArrayList<int[]> seams) {
+    int width = this.getWidth();
+    int newStride = width + seams.size();
+    int[] newArgb = new int[newStride * this.height];
+    float[] newBrightness = new float[newStride * this.height];
+    float[][] newPlanes = this.planes == null ? null
+        : new float[this.planes.length][newStride * this.height];
+    byte[] newMask = this.mask == null ? null : new byte[newStride * this.height];
+    int[] inserted = new int[seams.size()];
+    for (int y = 0; y < this.height; y++) {
+      for (int i = 0; i < inserted.length; i++) {
+        inserted[i] = seams.get(i)[y];
+      }
+      Arrays.sort(inserted);
+
+      int to = y * newStride;
+      int next = 0;
+      for (int x = 0; x < width; x++) {
+        int from = this.index(x, y);
+        newArgb[to] = this.argb[from];
+        newBrightness[to] = this.brightness[from];
+        this.copyPlanes(newPlanes, from, to);
+        this.copyMask(newMask, from, to);
+        to++;
+        while (next < inserted.length && inserted[next] == x) {
+          int right = x + 1 < width ? from + 1 : from;
+          newArgb[to] = this.averageArgb(this.argb[from], this.argb[right]);
+          newBrightness[to] = PixelStore.brightnessOf(newArgb[to]);
+          this.copyPlanes(newPlanes, from, to);
+          this.copyMask(newMask, from, to);
+          to++;
+          next++;
+        }
+      }
+      this.rowWidths[y] = newStride;
+    }
+    this.argb = newArgb;
+    this.brightness = newBrightness;
+    this.energy = new double[newArgb.length];
+    this.planes = newPlanes;
+    this.mask = newMask;
+    this.stride = newStride;
+    this.origins = null;
+  }
+
+  // EFFECT: copies the energy function's planes at index from of this store
+  // to index to of the given planes, if there are any
+  void copyPlanes(float[][] planes, int from, int to) {
+    if (planes != null) {
+      for (int p = 0; p < planes.length; p++) {
+        planes[p][to] = this.planes[p][from];
+      }
+    }
+  }
+
+  // EFFECT: copies the mask at index from of this store to index to of the
+  // given mask, if there is one
+  void copyMask(byte[] mask, int from, int to) {
+    if (mask != null) {
+      mask[to] = this.mask[from];
+    }
+  }
+
+  // EFFECT: inserts a new pixel below the pixel at seam[x] in every column x
+  // of every seam, colored as the average of that pixel and the one below
+  // it, in one rebuild of each column. Seams are given in the current
+  // coordinates and may share pixels. The energy of the result must be
+  // recomputed, and origins are no longer tracked.
+  void insertHoriSeams(ArrayList<int[]> seams) {
+    int width = this.getWidth();
+    int newHeight = this.height + seams.size();
+    int[] newArgb = new int[this.stride * newHeight];
+    float[] newBrightness = new float[this.stride * newHeight];
+    float[][] newPlanes = this.planes == null ? null
+        : new float[this.planes.length][this.stride * newHeight];
+    byte[] newMask = this.mask == null ? null : new byte[this.stride * newHeight];
+    int[] inserted = new int[seams.size()];
+    for (int x = 0; x < width; x++) {
+      for (int i = 0; i < inserted.length; i++) {
+        inserted[i] = seams.get(i)[x];
+      }
+      Arrays.sort(inserted);
+
+      int to = x;
+      int next = 0;
+      for (int y = 0; y < this.height; y++) {
+        int from = this.index(x, y);
+        newArgb[to] = this.argb[from];
+        newBrightness[to] = this.brightness[from];
+        this.copyPlanes(newPlanes, from, to);
+        this.copyMask(newMask, from, to);
+        to += this.stride;
+        while (next < inserted.length && inserted[next] == y) {
+          int below = y + 1 < this.height ? from + this.stride : from;
+          newArgb[to] = this.averageArgb(this.argb[from], this.argb[below]);
+          newBrightness[to] = PixelStore.brightnessOf(newArgb[to]);
+          this.copyPlanes(newPlanes, from, to);
+          this.copyMask(newMask, from, to);
+          to += this.stride;
+          next++;
+        }
+      }
+    }
+    this.argb = newArgb;
+    this.brightness = newBrightness;
+    this.energy = new double[newArgb.length];
+    this.planes = newPlanes;
+    this.mask = newMask;
+    this.rowWidths = new int[newHeight];
+    Arrays.fill(this.rowWidths, width);
+    this.height = newHeight;
+    this.origins = null;
+  }
+
+  // EFFECT: undoes removeVertSeam(seam), putting a pixel of the given color
+  // back at seam[y] in every row y and shifting the rest of the row right.
+  // The energy near the seam must then be recomputed with
+  // recomputeEnergyNearRestoredVertSeam, and origins are no longer tracked.
+  // The restored pixel keeps the energy function planes and the mask of the
+  // pixel that moved right until SeamHistory sets back the ones it had.
+  void restoreVertSeam(int[] seam, int[] colors) {
+    for (int y = 0; y < this.height; y++) {
+      int at = this.index(seam[y], y);
+      this.movePixels(at, at + 1, this.rowWidths[y] - seam[y]);
+      this.argb[at] = colors[y];
+      this.brightness[at] = PixelStore.brightnessOf(colors[y]);
+      this.rowWidths[y]++;
+    }
+    this.origins = null;
+  }
+
+  // EFFECT: undoes removeHoriSeam(seam), putting a pixel of the given color
+  // back at seam[x] in every column x and shifting the rest of the column
+  // down. The energy near the seam must then be recomputed with
+  // recomputeEnergyNearRestoredHoriSeam, and origins are no longer tracked.
+  void restoreHoriSeam(int[] seam, int[] colors) {
+    for (int x = 0; x < seam.length; x++) {
+      for (int y = this.height; y > seam[x]; y--) {
+        int to = this.index(x, y);
+        this.movePixel(to - this.stride, to);
+      }
+      int at = this.index(x, seam[x]);
+      this.argb[at] = colors[x];
+      this.brightness[at] = PixelStore.brightnessOf(colors[x]);
+    }
+    // vertical seams removed since the row was taken out did not narrow it
+    this.rowWidths[this.height] = seam.length;
+    this.height++;
+    this.origins = null;
+  }
+
+  // EFFECT: after restoreVertSeam(seam), recomputes the energy of the pixels
+  // whose 3x3 neighborhood changed (the restored pixel and one more on each
+  // side of the seam's band in each row), and returns how many there were
+  int recomputeEnergyNearRestoredVertSeam(int[] seam) {
+    int[][] bands = this.bandsNear(seam, this.height, true);
+    return this.recomputeEnergyInBands(bands[0], bands[1], true);
+  }
+
+  // EFFECT: after restoreHoriSeam(seam), recomputes the energy of the pixels
+  // whose 3x3 neighborhood changed, and returns how many there were
+  int recomputeEnergyNearRestoredHoriSeam(int[] seam) {
+    int[][] bands = this.bandsNear(seam, seam.length, true);
+    return this.recomputeEnergyInBands(bands[0], bands[1], false);
+  }
+
+  // Returns a new image with the pixels of this store
+  BufferedImage toBufferedImage() {
+    BufferedImage image = new BufferedImage(this.getWidth(), this.height,
+        BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < this.height; y++) {
+      image.setRGB(0, y, this.rowWidths[y], 1, this.argb, this.index(0, y), this.stride);
+    }
+    return image;
+  }
+
+  // Draws every pixel of this store to the given image
+  void drawToImage(ComputedPixelImage image) {
+    for (int y = 0; y < this.height; y++) {
+      for (int x = 0; x < this.rowWidths[y]; x++) {
+        image.setPixel(x, y, this.getColor(x, y));
+      }
+    }
+  }
+}
+
+class ExamplesPixelStore {
+  PixelStore store;
+  Pixel redPixel;
+  Pixel greenPixel;
+  Pixel bluePixel;
+  Pixel whitePixel;
+
+  void init() {
+    this.redPixel = new Pixel(Color.RED);
+    this.greenPixel = new Pixel(Color.GREEN);
+    this.bluePixel = new Pixel(Color.BLUE);
+    this.whitePixel = new Pixel(Color.WHITE);
+
+    // a 3x3 image whose color at (x, y) is (x * 50, y * 50, 0)
+    this.store = new PixelStore(3, 3);
+    for (int y = 0; y < 3; y++) {
+      for (int x = 0; x < 3; x++) {
+        this.store.setArgb(x, y, new Color(x * 50, y * 50, 0).getRGB());
+      }
+    }
+  }
+
+  // Builds a connected grid of pixels with the same colors as this.store
+  ArrayList<ArrayList<IPixel>> gridOfStore() {
+    ArrayList<ArrayList<IPixel>> grid = new ArrayList<ArrayList<IPixel>>();
+    for (int y = 0; y < this.store.height; y++) {
+      ArrayList<IPixel> row = new ArrayList<IPixel>();
+      for (int x = 0; x < this.store.getRowWidth(y); x++) {
+        row.add(new Pixel(this.store.getColor(x, y)));
+      }
+      grid.add(row);
+    }
+    BorderPixel border = new BorderPixel();
+    for (int y = 0; y < grid.size(); y++) {
+      for (int x = 0; x < grid.get(y).size(); x++) {
+        grid.get(y).get(x).connectToNeighbors(x, y, grid.get(y).size(), grid.size(), grid, border);
+      }
+    }
+    return grid;
+  }
+
+  void testReadPixelsLayouts(Tester t) {
+    this.init();
+    java.util.Random random = new java.util.Random(23);
+    int[] types = new int[] { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+        BufferedImage.TYPE_BYTE_GRAY };
+    for (int type : types) {
+      BufferedImage image = new BufferedImage(9, 6, type);
+      for (int y = 0; y < 6; y++) {
+        for (int x = 0; x < 9; x++) {
+          image.setRGB(x, y, random.nextInt());
+        }
+      }
+      BufferedImage[] views = new BufferedImage[] { image, image.getSubimage(2, 1, 6, 4) };
+      for (BufferedImage view : views) {
+        PixelStore read = new PixelStore(view);
+        boolean same = true;
+        for (int y = 0; y < view.getHeight(); y++) {
+          for (int x = 0; x < view.getWidth(); x++) {
+            same = same && read.getArgb(x, y) == view.getRGB(x, y)
+                && read.getBrightness(x, y) == PixelStore.brightnessOf(view.getRGB(x, y));
+          }
+        }
+        t.checkExpect(same, true);
+      }
+    }
+  }
+
+  void testConstructors(Tester t) {
+    this.init();
+    PixelStore blank = new PixelStore(4, 2);
+    t.checkExpect(blank.getWidth(), 4);
+    t.checkExpect(blank.height, 2);
+    t.checkExpect(blank.getColor(3, 1), Color.BLACK);
+
+    ArrayList<ArrayList<IPixel>> grid = new ArrayList<ArrayList<IPixel>>();
+    ArrayList<IPixel> row0 = new ArrayList<IPixel>();
+    ArrayList<IPixel> row1 = new ArrayList<IPixel>();
+    row0.add(this.redPixel);
+    row0.add(this.greenPixel);
+    row1.add(this.bluePixel);
+    row1.add(this.whitePixel);
+    grid.add(row0);
+    grid.add(row1);
+
+    PixelStore fromGrid = new PixelStore(grid);
+    t.checkExpect(fromGrid.getWidth(), 2);
+    t.checkExpect(fromGrid.height, 2);
+    t.checkExpect(fromGrid.getColor(1, 0), Color.GREEN);
+    t.checkExpect(fromGrid.getColor(0, 1), Color.BLUE);
+
+    PixelStore fromFile = new PixelStore(new FromFileImage("src/Balloons.jpg"));
+    FromFileImage balloons = new FromFileImage("src/Balloons.jpg");
+    t.checkExpect(fromFile.getWidth(), (int) balloons.getWidth());
+    t.checkExpect(fromFile.height, (int) balloons.getHeight());
+    t.checkExpect(fromFile.getColor(10, 20), balloons.getColorAt(10, 20));
+
+    BufferedImage buffered = new BufferedImage(2, 1, BufferedImage.TYPE_INT_ARGB);
+    buffered.setRGB(1, 0, Color.ORANGE.getRGB());
+    PixelStore fromBuffered = new PixelStore(buffered);
+    t.checkExpect(fromBuffered.getWidth(), 2);
+    t.checkExpect(fromBuffered.getColor(1, 0), Color.ORANGE);
+    t.checkExpect(PixelStore.load("src/Balloons.jpg"), fromFile);
+    t.checkException(new IllegalArgumentException("Not an image: src/PixelStore.java"),
+        fromFile, "load", "src/PixelStore.java");
+    t.checkExpect(fromGrid.toBufferedImage().getRGB(0, 1), Color.BLUE.getRGB());
+    t.checkExpect(fromGrid.toBufferedImage().getWidth(), 2);
+
+    PixelStore copy = new PixelStore(fromGrid);
+    t.checkExpect(copy, fromGrid);
+    copy.removeVertSeam(new int[] { 0, 0 });
+    t.checkExpect(fromGrid.getWidth(), 2);
+    t.checkExpect(fromGrid.getColor(0, 0), Color.RED);
+  }
+
+  void testBrightness(Tester t) {
+    this.init();
+    PixelStore colors = new PixelStore(2, 1);
+    colors.setArgb(0, 0, Color.RED.getRGB());
+    colors.setArgb(1, 0, Color.WHITE.getRGB());
+    t.checkExpect(colors.getBrightness(0, 0), (double) (float) this.redPixel.getBrightness());
+    t.checkExpect(colors.getBrightness(1, 0), 1.0);
+    t.checkExpect(colors.getBrightness(-1, 0), 0.0);
+    t.checkExpect(colors.getBrightness(2, 0), 0.0);
+    t.checkExpect(colors.getBrightness(0, 1), 0.0);
+  }
+
+  void testEnergyMatchesPixels(Tester t) {
+    this.init();
+    ArrayList<ArrayList<IPixel>> grid = this.gridOfStore();
+    for (int y = 0; y < 3; y++) {
+      for (int x = 0; x < 3; x++) {
+        IPixel pixel = grid.get(y).get(x);
+        pixel.recomputeEnergy();
+        t.checkInexact(this.store.computeEnergy(x, y), pixel.getEnergy(), 0.0001);
+        t.checkInexact(this.store.getHorizEnergy(x, y), pixel.getHorizEnergy(), 0.0001);
+        t.checkInexact(this.store.getVertEnergy(x, y), pixel.getVertEnergy(), 0.0001);
+      }
+    }
+  }
+
+  void testRemoveVertSeam(Tester t) {
+    this.init();
+    this.store.removeVertSeam(new int[] { 1, 2, 0 });
+    t.checkExpect(this.store.getWidth(), 2);
+    t.checkExpect(this.store.getRowWidth(2), 2);
+    t.checkExpect(this.store.getColor(0, 0), new Color(0, 0, 0));
+    t.checkExpect(this.store.getColor(1, 0), new Color(100, 0, 0));
+    t.checkExpect(this.store.getColor(1, 1), new Color(50, 50, 0));
+    t.checkExpect(this.store.getColor(0, 2), new Color(50, 100, 0));
+    // the old last column is no longer a neighbor
+    t.checkExpect(this.store.getBrightness(2, 0), 0.0);
+    t.checkInexact(this.store.computeEnergy(1, 1), this.gridEnergy(1, 1), 0.0001);
+  }
+
+  void testRemoveHoriSeam(Tester t) {
+    this.init();
+    this.store.removeHoriSeam(new int[] { 1, 0, 2 });
+    t.checkExpect(this.store.height, 2);
+    t.checkExpect(this.store.getWidth(), 3);
+    t.checkExpect(this.store.getColor(0, 0), new Color(0, 0, 0));
+    t.checkExpect(this.store.getColor(0, 1), new Color(0, 100, 0));
+    t.checkExpect(this.store.getColor(1, 0), new Color(50, 50, 0));
+    t.checkExpect(this.store.getColor(2, 1), new Color(100, 50, 0));
+    t.checkExpect(this.store.getBrightness(0, 2), 0.0);
+    t.checkInexact(this.store.computeEnergy(1, 0), this.gridEnergy(1, 0), 0.0001);
+  }
+
+  // Returns the energy that a connected pixel grid gives the pixel at (x, y)
+  // of this.store
+  double gridEnergy(int x, int y) {
+    ArrayList<ArrayList<IPixel>> grid = this.gridOfStore();
+    IPixel pixel = grid.get(y).get(x);
+    pixel.recomputeEnergy();
+    return pixel.getEnergy();
+  }
+
+  // Builds a store of random colors
+  PixelStore randomStore(int width, int height, java.util.Random random) {
+    PixelStore result = new PixelStore(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        result.setArgb(x, y, random.nextInt());
+      }
+    }
+    return result;
+  }
+
+  // Builds a random connected seam of the given length across positions
+  // 0 to size - 1
+  int[] randomSeam(int length, int size, java.util.Random random) {
+    int[] seam = new int[length];
+    seam[0] = random.nextInt(size);
+    for (int i = 1; i < length; i++) {
+      seam[i] = Math.max(0, Math.min(size - 1, seam[i - 1] + random.nextInt(3) - 1));
+    }
+    return seam;
+  }
+
+  // Checks that the stored energy of every pixel matches a full recompute
+  void checkEnergyIsFresh(Tester t, PixelStore s) {
+    boolean fresh = true;
+    for (int y = 0; y < s.height; y++) {
+      for (int x = 0; x < s.getRowWidth(y); x++) {
+        fresh = fresh && s.getEnergy(x, y) == s.computeEnergy(x, y);
+      }
+    }
+    t.checkExpect(fresh, true);
+  }
+
+  void testIncrementalEnergyAfterSeveralSeams(Tester t) {
+    this.init();
+    PixelStore s = this.randomStore(50, 40, new java.util.Random(13));
+    s.updateAllEnergy();
+    SeamCostTable table = new SeamCostTable();
+    for (int i = 0; i < 3; i++) {
+      ArrayList<int[]> seams = table.findVertSeams(s.energy, s.stride, s.getWidth(), s.height,
+          6, 100.0);
+      s.removeVertSeams(seams);
+      int count = s.recomputeEnergyNearVertSeams(seams);
+      t.checkExpect(count <= 4 * s.height * seams.size(), true);
+      this.checkEnergyIsFresh(t, s);
+
+      ArrayList<int[]> rows = table.findHoriSeams(s.energy, s.stride, s.getWidth(), s.height,
+          5, 100.0);
+      s.removeHoriSeams(rows);
+      s.recomputeEnergyNearHoriSeams(rows);
+      this.checkEnergyIsFresh(t, s);
+    }
+  }
+
+  void testRowKernelMatchesScalar(Tester t) {
+    this.init();
+    PixelStore s = this.randomStore(17, 5, new java.util.Random(29));
+    boolean same = true;
+    for (int y = 0; y < 5; y++) {
+      for (int start = -1; start < 17; start += 3) {
+        java.util.Arrays.fill(s.energy, -1);
+        int count = s.recomputeEnergyInRow(y, start, start + 7);
+        same = same && count == Math.min(16, start + 7) - Math.max(0, start) + 1;
+        for (int x = 0; x < 17; x++) {
+          boolean inRange = x >= start && x <= start + 7;
+          same = same && (inRange ? s.getEnergy(x, y) == s.computeEnergy(x, y)
+              : s.getEnergy(x, y) == -1);
+        }
+      }
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(s.recomputeEnergyInRow(2, 20, 30), 0);
+  }
+
+  void testUpdateAllEnergy(Tester t) {
+    this.init();
+    t.checkExpect(this.store.getEnergy(1, 1), 0.0);
+    this.store.updateAllEnergy();
+    t.checkExpect(this.store.getEnergy(1, 1), this.store.computeEnergy(1, 1));
+    this.checkEnergyIsFresh(t, this.store);
+    t.checkExpect(this.store.recomputeEnergyInRow(0, -3, 7), 3);
+    t.checkExpect(this.store.recomputeEnergyInColumn(2, 1, 1), 1);
+  }
+
+  void testIncrementalEnergyAfterVertSeams(Tester t) {
+    this.init();
+    java.util.Random random = new java.util.Random(3);
+    PixelStore s = this.randomStore(12, 9, random);
+    s.updateAllEnergy();
+    for (int i = 0; i < 8; i++) {
+      int[] seam = this.randomSeam(s.height, s.getWidth(), random);
+      s.removeVertSeam(seam);
+      int count = s.recomputeEnergyNearVertSeam(seam);
+      t.checkExpect(count <= 4 * s.height, true);
+      this.checkEnergyIsFresh(t, s);
+    }
+  }
+
+  void testIncrementalEnergyAfterHoriSeams(Tester t) {
+    this.init();
+    java.util.Random random = new java.util.Random(5);
+    PixelStore s = this.randomStore(9, 12, random);
+    s.updateAllEnergy();
+    for (int i = 0; i < 8; i++) {
+      int[] seam = this.randomSeam(s.getWidth(), s.height, random);
+      s.removeHoriSeam(seam);
+      int count = s.recomputeEnergyNearHoriSeam(seam);
+      t.checkExpect(count <= 4 * s.getWidth(), true);
+      this.checkEnergyIsFresh(t, s);
+    }
+  }
+
+  void testRemoveSeveralSeams(Tester t) {
+    this.init();
+    PixelStore wide = new PixelStore(5, 2);
+    PixelStore oneByOne = new PixelStore(5, 2);
+    for (int y = 0; y < 2; y++) {
+      for (int x = 0; x < 5; x++) {
+        wide.setArgb(x, y, new Color(x * 50, y * 50, 0).getRGB());
+        oneByOne.setArgb(x, y, new Color(x * 50, y * 50, 0).getRGB());
+      }
+    }
+    ArrayList<int[]> seams = new ArrayList<int[]>();
+    seams.add(new int[] { 3, 4 });
+    seams.add(new int[] { 1, 0 });
+    wide.removeVertSeams(seams);
+    oneByOne.removeVertSeam(new int[] { 3, 4 });
+    oneByOne.removeVertSeam(new int[] { 1, 0 });
+    t.checkExpect(wide.getWidth(), 3);
+    for (int y = 0; y < 2; y++) {
+      for (int x = 0; x < 3; x++) {
+        t.checkExpect(wide.getArgb(x, y), oneByOne.getArgb(x, y));
+      }
+    }
+    t.checkExpect(wide.getColor(2, 0), new Color(200, 0, 0));
+    t.checkExpect(wide.getColor(0, 1), new Color(50, 50, 0));
+
+    PixelStore tall = new PixelStore(2, 5);
+    for (int y = 0; y < 5; y++) {
+      for (int x = 0; x < 2; x++) {
+        tall.setArgb(x, y, new Color(x * 50, y * 50, 0).getRGB());
+      }
+    }
+    ArrayList<int[]> rows = new ArrayList<int[]>();
+    rows.add(new int[] { 4, 2 });
+    rows.add(new int[] { 0, 1 });
+    tall.removeHoriSeams(rows);
+    t.checkExpect(tall.height, 3);
+    t.checkExpect(tall.getColor(0, 0), new Color(0, 50, 0));
+    t.checkExpect(tall.getColor(0, 2), new Color(0, 150, 0));
+    t.checkExpect(tall.getColor(1, 0), new Color(50, 0, 0));
+    t.checkExpect(tall.getColor(1, 2), new Color(50, 200, 0));
+  }
+
+  void testTrackOrigins(Tester t) {
+    this.init();
+    PixelStore s = new PixelStore(4, 3);
+    s.trackOrigins();
+    s.removeVertSeam(new int[] { 0, 1, 3 });
+    t.checkExpect(s.originX(0, 0), 1);
+    t.checkExpect(s.originX(1, 1), 2);
+    t.checkExpect(s.originX(2, 2), 2);
+    s.removeHoriSeam(new int[] { 0, 2, 1 });
+    t.checkExpect(s.originY(0, 0), 1);
+    t.checkExpect(s.originY(1, 1), 1);
+    t.checkExpect(s.originY(1, 0), 0);
+    t.checkExpect(s.originX(1, 0), 2);
+    t.checkExpect(new PixelStore(s).origins, s.origins);
+  }
+
+  void testTranspose(Tester t) {
+    this.init();
+    PixelStore s = this.randomStore(7, 5, new java.util.Random(41));
+    s.updateAllEnergy();
+    s.removeVertSeam(new int[] { 6, 5, 5, 4, 3 });
+    s.recomputeEnergyNearVertSeam(new int[] { 6, 5, 5, 4, 3 });
+    PixelStore turned = new PixelStore(s);
+    turned.trackOrigins();
+    turned.transpose();
+    t.checkExpect(turned.getWidth(), 5);
+    t.checkExpect(turned.height, 6);
+    t.checkExpect(turned.getRowWidth(5), 5);
+    boolean same = true;
+    for (int y = 0; y < 5; y++) {
+      for (int x = 0; x < 6; x++) {
+        same = same && turned.getArgb(y, x) == s.getArgb(x, y)
+            && turned.getBrightness(y, x) == s.getBrightness(x, y)
+            && turned.getEnergy(y, x) == s.getEnergy(x, y)
+            && turned.getEnergy(y, x) == turned.computeEnergy(y, x)
+            && turned.originX(y, x) == x && turned.originY(y, x) == y;
+      }
+    }
+    t.checkExpect(same, true);
+
+    // a horizontal seam of the store is a vertical seam of its transpose
+    int[] seam = new int[] { 1, 2, 2, 3, 3, 2 };
+    s.removeHoriSeam(seam);
+    s.recomputeEnergyNearHoriSeam(seam);
+    turned.removeVertSeam(seam);
+    turned.recomputeEnergyNearVertSeam(seam);
+    t.checkExpect(turned.originY(2, 3), 2);
+    t.checkExpect(turned.originY(3, 3), 4);
+    turned.transpose();
+    PixelStore compact = new PixelStore(6, 4);
+    for (int y = 0; y < 4; y++) {
+      for (int x = 0; x < 6; x++) {
+        compact.argb[compact.index(x, y)] = s.getArgb(x, y);
+        compact.brightness[compact.index(x, y)] = (float) s.getBrightness(x, y);
+        compact.energy[compact.index(x, y)] = s.getEnergy(x, y);
+      }
+    }
+    t.checkExpect(turned.argb, compact.argb);
+    t.checkExpect(turned.brightness, compact.brightness);
+    t.checkExpect(turned.energy, compact.energy);
+    t.checkExpect(turned.height, 4);
+    t.checkExpect(turned.getRowWidth(3), 6);
+  }
+
+  void testInsertSeams(Tester t) {
+    this.init();
+    ArrayList<int[]> seams = new ArrayList<int[]>();
+    seams.add(new int[] { 2, 0, 1 });
+    seams.add(new int[] { 0, 0, 2 });
+    this.store.insertVertSeams(seams);
+    t.checkExpect(this.store.getWidth(), 5);
+    t.checkExpect(this.store.getRowWidth(2), 5);
+    t.checkExpect(this.store.getColor(0, 0), new Color(0, 0, 0));
+    t.checkExpect(this.store.getColor(1, 0), new Color(25, 0, 0));
+    t.checkExpect(this.store.getColor(3, 0), new Color(100, 0, 0));
+    t.checkExpect(this.store.getColor(4, 0), new Color(100, 0, 0));
+    t.checkExpect(this.store.getColor(1, 1), new Color(25, 50, 0));
+    t.checkExpect(this.store.getColor(2, 1), new Color(25, 50, 0));
+    t.checkExpect(this.store.getColor(3, 1), new Color(50, 50, 0));
+    t.checkExpect(this.store.getColor(2, 2), new Color(75, 100, 0));
+    t.checkExpect(this.store.getColor(4, 2), new Color(100, 100, 0));
+    t.checkExpect(this.store.getBrightness(1, 0) == PixelStore.brightnessOf(0xFF190000), true);
+
+    ArrayList<int[]> rows = new ArrayList<int[]>();
+    rows.add(new int[] { 2, 2, 0, 1, 2 });
+    this.store.insertHoriSeams(rows);
+    t.checkExpect(this.store.height, 4);
+    t.checkExpect(this.store.getRowWidth(3), 5);
+    t.checkExpect(this.store.getColor(0, 3), new Color(0, 100, 0));
+    t.checkExpect(this.store.getColor(2, 1), new Color(37, 25, 0));
+    t.checkExpect(this.store.getColor(2, 2), new Color(25, 50, 0));
+    this.store.updateAllEnergy();
+    this.checkEnergyIsFresh(t, this.store);
+  }
+
+  // Returns the colors and energies of the pixels of the store, row by row,
+  // without the unused ends of the rows
+  ArrayList<Double> visiblePixels(PixelStore s) {
+    ArrayList<Double> result = new ArrayList<Double>();
+    for (int y = 0; y < s.height; y++) {
+      for (int x = 0; x < s.getRowWidth(y); x++) {
+        result.add((double) s.getArgb(x, y));
+        result.add(s.getEnergy(x, y));
+      }
+    }
+    return result;
+  }
+
+  void testRestoreSeams(Tester t) {
+    this.init();
+    java.util.Random random = new java.util.Random(41);
+    PixelStore s = this.randomStore(12, 9, random);
+    s.updateAllEnergy();
+    ArrayList<Double> before = this.visiblePixels(s);
+
+    int[] column = this.randomSeam(9, 12, random);
+    int[] columnColors = new int[9];
+    for (int y = 0; y < 9; y++) {
+      columnColors[y] = s.getArgb(column[y], y);
+    }
+    s.removeVertSeam(column);
+    s.recomputeEnergyNearVertSeam(column);
+    ArrayList<Double> narrower = this.visiblePixels(s);
+
+    int[] row = this.randomSeam(11, 9, random);
+    int[] rowColors = new int[11];
+    for (int x = 0; x < 11; x++) {
+      rowColors[x] = s.getArgb(x, row[x]);
+    }
+    s.removeHoriSeam(row);
+    s.recomputeEnergyNearHoriSeam(row);
+
+    s.restoreHoriSeam(row, rowColors);
+    int count = s.recomputeEnergyNearRestoredHoriSeam(row);
+    t.checkExpect(count <= 5 * 11, true);
+    t.checkExpect(s.height, 9);
+    t.checkExpect(s.getRowWidth(8), 11);
+    t.checkExpect(this.visiblePixels(s), narrower);
+
+    s.restoreVertSeam(column, columnColors);
+    s.recomputeEnergyNearRestoredVertSeam(column);
+    t.checkExpect(s.getWidth(), 12);
+    t.checkExpect(this.visiblePixels(s), before);
+    t.checkExpect(s.getBrightness(column[4], 4) == PixelStore.brightnessOf(columnColors[4]), true);
+  }
+
+  void testMask(Tester t) {
+    this.init();
+    PixelStore s = this.randomStore(6, 5, new java.util.Random(3));
+    t.checkExpect(s.getMask(2, 2), (byte) 0);
+    t.checkExpect(s.maskBounds(PixelStore.REMOVE), null);
+    s.markMask(2, 1, 3, 3, PixelStore.REMOVE);
+    s.markMask(5, -1, 9, 0, PixelStore.PROTECT);
+    t.checkExpect(s.countMask(PixelStore.REMOVE), 6);
+    t.checkExpect(s.countMask(PixelStore.PROTECT), 1);
+    t.checkExpect(s.maskBounds(PixelStore.REMOVE), new int[] { 2, 1, 3, 3 });
+    t.checkExpect(new PixelStore(s).mask, s.mask);
+
+    // the mask moves along with its pixels
+    s.removeVertSeam(new int[] { 1, 2, 2, 2, 1 });
+    t.checkExpect(s.countMask(PixelStore.REMOVE), 3);
+    t.checkExpect(s.maskBounds(PixelStore.REMOVE), new int[] { 2, 1, 2, 3 });
+    t.checkExpect(s.getMask(1, 1), (byte) 0);
+    t.checkExpect(s.getMask(4, 0), PixelStore.PROTECT);
+    s.removeHoriSeam(new int[] { 0, 1, 2, 4, 4 });
+    t.checkExpect(s.countMask(PixelStore.REMOVE), 2);
+    t.checkExpect(s.maskBounds(PixelStore.REMOVE), new int[] { 2, 1, 2, 2 });
+    s.transpose();
+    t.checkExpect(s.maskBounds(PixelStore.REMOVE), new int[] { 1, 2, 2, 2 });
+    t.checkExpect(s.getMask(0, 4), PixelStore.PROTECT);
+    s.transpose();
+
+    // an inserted pixel copies the mask of the pixel it was inserted after
+    ArrayList<int[]> seams = new ArrayList<int[]>();
+    seams.add(new int[] { 2, 2, 2, 2 });
+    s.insertVertSeams(seams);
+    t.checkExpect(s.countMask(PixelStore.REMOVE), 4);
+    t.checkExpect(s.getMask(3, 1), PixelStore.REMOVE);
+    ArrayList<int[]> rows = new ArrayList<int[]>();
+    rows.add(new int[] { 0, 0, 0, 0, 0, 0 });
+    s.insertHoriSeams(rows);
+    t.checkExpect(s.countMask(PixelStore.PROTECT), 2);
+    s.clearMask();
+    t.checkExpect(s.countMask(PixelStore.REMOVE), 0);
+
+    PixelStore maskImage = new PixelStore(3, 2);
+    maskImage.setArgb(0, 0, 0xFFE01010);
+    maskImage.setArgb(2, 1, 0xFF10E010);
+    maskImage.setArgb(1, 1, 0xFFFFFFFF);
+    PixelStore image = new PixelStore(3, 2);
+    image.markMask(maskImage);
+    t.checkExpect(image.mask, new byte[] { -1, 0, 0, 0, 0, 1 });
+    t.checkException(new IllegalArgumentException("Mask must be the size of the image"),
+        s, "markMask", maskImage);
+  }
+
+  void testDrawToImage(Tester t) {
+    this.init();
+    ComputedPixelImage image = new ComputedPixelImage(3, 3);
+    this.store.drawToImage(image);
+    t.checkExpect(image.getColorAt(0, 0), new Color(0, 0, 0));
+    t.checkExpect(image.getColorAt(2, 1), new Color(100, 50, 0));
+    t.checkExpect(this.store.energyColor(0), new Color(0, 0, 0));
+  }
+}
@@ -0,0 +1,386 @@
+import java.util.ArrayList;
+import tester.*;
+
+// Shrinks the image in a PixelStore to a target size without animating it.
+// Each pass solves the seam costs once and takes several seams that neither
+// share nor cross pixels out of that one solve, then removes them all in a
+// single compaction of the rows (or columns).
+class Retargeter {
+  // The pixels being carved
+  PixelStore store;
+  // Cost table reused by every pass
+  SeamCostTable costTable;
+  // Most seams taken out of one solve
+  int seamsPerPass;
+  // Seams are only taken while they cost at most (1 + costSlack) times the
+  // minimum seam of the pass
+  double costSlack;
+  // Computes whole energy maps on several threads, or null to compute them
+  // on the calling thread
+  ParallelEnergy parallelEnergy;
+  // Order of removals: "verticalFirst" removes every column before any row,
+  // "greedy" removes seams in whichever direction is cheaper at each pass,
+  // "optimal" follows the transport map of a SeamOrder
+  String orderMode;
+  // Chooses the direction of each pass when orderMode is not
+  // "verticalFirst"
+  SeamOrder order;
+  // How runs of horizontal seams are removed: "transposed" turns the store
+  // on its side once and removes them as vertical seams, "inPlace" removes
+  // them down the columns of the store as it is
+  String horizontalMode;
+  // Number of solves done by the last carve
+  int passes;
+
+  // Creates a retargeter for the store that takes up to 16 seams per pass
+  Retargeter(PixelStore store) {
+    this(store, 16, 1.0, null);
+  }
+
+  // Creates a retargeter for the store with the given seams per pass, cost
+  // slack and parallel energy pass (which may be null)
+  Retargeter(PixelStore store, int seamsPerPass, double costSlack,
+      ParallelEnergy parallelEnergy) {
+    if (seamsPerPass < 1) {
+      throw new IllegalArgumentException("Must take at least one seam per pass");
+    }
+    this.store = store;
+    this.costTable = new SeamCostTable();
+    this.seamsPerPass = seamsPerPass;
+    this.costSlack = costSlack;
+    this.parallelEnergy = parallelEnergy;
+    this.orderMode = "verticalFirst";
+    this.order = new SeamOrder();
+    this.horizontalMode = "transposed";
+    this.passes = 0;
+  }
+
+  // EFFECT: removes vertical and horizontal seams, in the order given by
+  // orderMode, until the image is targetWidth by targetHeight. The store's
+  // energy must be up to date.
+  void carveTo(int targetWidth, int targetHeight) {
+    if (targetWidth < 1 || targetHeight < 1) {
+      throw new IllegalArgumentException("Target size must be at least 1 by 1");
+    }
+    if (targetWidth > this.store.getWidth() || targetHeight > this.store.height) {
+      throw new IllegalArgumentException("Cannot carve to a size larger than the image");
+    }
+
+    this.passes = 0;
+    if (this.orderMode.equals("optimal")) {
+      ArrayList<String> path = this.order.optimalOrder(this.store,
+          this.store.getWidth() - targetWidth, this.store.height - targetHeight);
+      for (String direction : path) {
+        if (direction.equals("vertical")) {
+          this.removeVertSeams(1);
+        }
+        else {
+          this.removeHoriSeams(1);
+        }
+      }
+      return;
+    }
+    while (this.orderMode.equals("greedy") && this.store.getWidth() > targetWidth
+        && this.store.height > targetHeight) {
+      if (this.order.cheaperDirection(this.store.energy, this.store.stride,
+          this.store.getWidth(), this.store.height).equals("vertical")) {
+        this.removeVertSeams(this.store.getWidth() - targetWidth);
+      }
+      else {
+        this.removeHoriSeams(this.store.height - targetHeight);
+      }
+    }
+    while (this.store.getWidth() > targetWidth) {
+      this.removeVertSeams(this.store.getWidth() - targetWidth);
+    }
+    if (this.horizontalMode.equals("transposed") && this.store.height > targetHeight) {
+      this.store.transpose();
+      while (this.store.getWidth() > targetHeight) {
+        this.removeVertSeams(this.store.getWidth() - targetHeight);
+      }
+      this.store.transpose();
+    }
+    while (this.store.height > targetHeight) {
+      this.removeHoriSeams(this.store.height - targetHeight);
+    }
+  }
+
+  // EFFECT: inserts vertical seams, then horizontal seams, until the image
+  // is targetWidth by targetHeight. Each round finds the seams that would be
+  // removed next on a copy of the image, maps them back to the image's own
+  // coordinates and duplicates them all in one rebuild of the rows (or
+  // columns). A round adds at most half the current width (or height), so
+  // that enlarging by more does not stretch the same seams over and over.
+  void enlargeTo(int targetWidth, int targetHeight) {
+    if (targetWidth < this.store.getWidth() || targetHeight < this.store.height) {
+      throw new IllegalArgumentException("Cannot enlarge to a size smaller than the image");
+    }
+
+    this.passes = 0;
+    while (this.store.getWidth() < targetWidth) {
+      int count = Math.min(targetWidth - this.store.getWidth(),
+          Math.max(1, this.store.getWidth() / 2));
+      this.store.insertVertSeams(this.seamsToInsert(count, "vertical"));
+      this.refreshEnergy(this.store);
+    }
+    while (this.store.height < targetHeight) {
+      int count = Math.min(targetHeight - this.store.height, Math.max(1, this.store.height / 2));
+      this.store.insertHoriSeams(this.seamsToInsert(count, "horizontal"));
+      this.refreshEnergy(this.store);
+    }
+  }
+
+  // EFFECT: carves the image down in each direction where it is larger than
+  // the target, then enlarges it in each direction where it is smaller
+  void resizeTo(int targetWidth, int targetHeight) {
+    this.carveTo(Math.min(targetWidth, this.store.getWidth()),
+        Math.min(targetHeight, this.store.height));
+    int carvePasses = this.passes;
+    this.enlargeTo(targetWidth, targetHeight);
+    this.passes += carvePasses;
+  }
+
+  // Returns the first count seams in the given direction that carving would
+  // remove from the store, in the store's coordinates
+  ArrayList<int[]> seamsToInsert(int count, String direction) {
+    PixelStore copy = new PixelStore(this.store);
+    copy.trackOrigins();
+    String carved = direction;
+    if (direction.equals("horizontal") && this.horizontalMode.equals("transposed")) {
+      copy.transpose();
+      carved = "vertical";
+    }
+    ArrayList<int[]> found = new ArrayList<int[]>();
+    while (found.size() < count) {
+      ArrayList<int[]> seams = this.findSeams(copy, count - found.size(), carved);
+      for (int[] seam : seams) {
+        int[] original = new int[seam.length];
+        for (int i = 0; i < seam.length; i++) {
+          if (direction.equals("vertical")) {
+            original[i] = copy.originX(seam[i], i);
+          }
+          else if (carved.equals("vertical")) {
+            original[i] = copy.originY(seam[i], i);
+          }
+          else {
+            original[i] = copy.originY(i, seam[i]);
+          }
+        }
+        found.add(original);
+      }
+      this.removeSeams(copy, seams, carved);
+    }
+    return found;
+  }
+
+  // EFFECT: removes up to max vertical seams found by one solve
+  void removeVertSeams(int max) {
+    this.removeSeams(this.store, this.findSeams(this.store, max, "vertical"), "vertical");
+  }
+
+  // EFFECT: removes up to max horizontal seams found by one solve
+  void removeHoriSeams(int max) {
+    this.removeSeams(this.store, this.findSeams(this.store, max, "horizontal"), "horizontal");
+  }
+
+  // Returns up to max seams in the given direction that neither share nor
+  // cross pixels, found by one solve of the target's seam costs (biased by
+  // its mask, if it has one)
+  ArrayList<int[]> findSeams(PixelStore target, int max, String direction) {
+    this.passes++;
+    this.costTable.mask = target.mask;
+    if (direction.equals("vertical")) {
+      return this.costTable.findVertSeams(target.energy, target.stride, target.getWidth(),
+          target.height, Math.min(max, this.seamsPerPass), this.costSlack);
+    }
+    return this.costTable.findHoriSeams(target.energy, target.stride, target.getWidth(),
+        target.height, Math.min(max, this.seamsPerPass), this.costSlack);
+  }
+
+  // EFFECT: removes the seams in the given direction from the target and
+  // brings its energy up to date near them
+  void removeSeams(PixelStore target, ArrayList<int[]> seams, String direction) {
+    if (seams.size() == 1 && direction.equals("vertical")) {
+      target.removeVertSeam(seams.get(0));
+      target.recomputeEnergyNearVertSeam(seams.get(0));
+    }
+    else if (seams.size() == 1) {
+      target.removeHoriSeam(seams.get(0));
+      target.recomputeEnergyNearHoriSeam(seams.get(0));
+    }
+    else if (direction.equals("vertical")) {
+      target.removeVertSeams(seams);
+      target.recomputeEnergyNearVertSeams(seams);
+    }
+    else {
+      target.removeHoriSeams(seams);
+      target.recomputeEnergyNearHoriSeams(seams);
+    }
+  }
+
+  // EFFECT: recomputes the energy of the whole store, on several threads if
+  // possible
+  void refreshEnergy(PixelStore target) {
+    if (this.parallelEnergy != null) {
+      this.parallelEnergy.updateAllEnergy(target);
+    }
+    else {
+      target.updateAllEnergy();
+    }
+  }
+}
+
+class ExamplesRetargeter {
+  PixelStore store;
+
+  void init() {
+    java.util.Random random = new java.util.Random(31);
+    this.store = new PixelStore(48, 30);
+    for (int y = 0; y < 30; y++) {
+      for (int x = 0; x < 48; x++) {
+        this.store.setArgb(x, y, random.nextInt(3) * 0x7F7F7F);
+      }
+    }
+    this.store.updateAllEnergy();
+  }
+
+  void testCarveToSize(Tester t) {
+    this.init();
+    Retargeter retargeter = new Retargeter(this.store, 8, 1.0, null);
+    retargeter.carveTo(30, 21);
+    t.checkExpect(this.store.getWidth(), 30);
+    t.checkExpect(this.store.getRowWidth(29), 30);
+    t.checkExpect(this.store.height, 21);
+    t.checkExpect(retargeter.passes < 18 + 9, true);
+    t.checkExpect(this.store.getEnergy(10, 10), this.store.computeEnergy(10, 10));
+
+    retargeter.carveTo(30, 21);
+    t.checkExpect(retargeter.passes, 0);
+  }
+
+  void testCarveToErrors(Tester t) {
+    this.init();
+    Retargeter retargeter = new Retargeter(this.store);
+    t.checkException(new IllegalArgumentException("Target size must be at least 1 by 1"),
+        retargeter, "carveTo", 0, 5);
+    t.checkException(new IllegalArgumentException("Cannot carve to a size larger than the image"),
+        retargeter, "carveTo", 49, 5);
+    t.checkConstructorException(
+        new IllegalArgumentException("Must take at least one seam per pass"), "Retargeter",
+        this.store, 0, 1.0, null);
+  }
+
+  void testOrderModes(Tester t) {
+    this.init();
+    PixelStore optimalStore = new PixelStore(this.store);
+    PixelStore greedyStore = new PixelStore(this.store);
+
+    Retargeter optimal = new Retargeter(optimalStore, 1, 0.0, null);
+    optimal.orderMode = "optimal";
+    optimal.carveTo(44, 27);
+    t.checkExpect(optimalStore.getWidth(), 44);
+    t.checkExpect(optimalStore.height, 27);
+    t.checkExpect(optimal.passes, 7);
+
+    // following the optimal order costs what its transport map says
+    SeamOrder replay = new SeamOrder();
+    double total = 0;
+    PixelStore replayed = new PixelStore(this.store);
+    for (String direction : new SeamOrder().optimalOrder(this.store, 4, 3)) {
+      if (direction.equals("vertical")) {
+        total += replay.removeVertSeam(replayed);
+      }
+      else {
+        total += replay.removeHoriSeam(replayed);
+      }
+    }
+    t.checkExpect(total, optimal.order.transport[3 * 5 + 4]);
+
+    Retargeter greedy = new Retargeter(greedyStore, 4, 1.0, null);
+    greedy.orderMode = "greedy";
+    greedy.carveTo(40, 22);
+    t.checkExpect(greedyStore.getWidth(), 40);
+    t.checkExpect(greedyStore.height, 22);
+
+    PixelStore again = new PixelStore(this.store);
+    Retargeter greedyAgain = new Retargeter(again, 4, 1.0, null);
+    greedyAgain.orderMode = "greedy";
+    greedyAgain.carveTo(40, 22);
+    t.checkExpect(again.argb, greedyStore.argb);
+  }
+
+  void testEnlargeTo(Tester t) {
+    this.init();
+    PixelStore original = new PixelStore(this.store);
+    Retargeter retargeter = new Retargeter(this.store, 8, 1.0, null);
+    retargeter.enlargeTo(72, 40);
+    t.checkExpect(this.store.getWidth(), 72);
+    t.checkExpect(this.store.getRowWidth(39), 72);
+    t.checkExpect(this.store.height, 40);
+    t.checkExpect(this.store.getEnergy(50, 33), this.store.computeEnergy(50, 33));
+
+    // every original pixel is still there, in order, in each row
+    PixelStore wider = new PixelStore(original);
+    new Retargeter(wider, 8, 1.0, null).enlargeTo(60, 30);
+    boolean kept = true;
+    for (int y = 0; y < 30; y++) {
+      int x = 0;
+      for (int wideX = 0; wideX < 60 && x < 48; wideX++) {
+        if (wider.getArgb(wideX, y) == original.getArgb(x, y)) {
+          x++;
+        }
+      }
+      kept = kept && x == 48;
+    }
+    t.checkExpect(kept, true);
+
+    // the seams inserted are the ones carving would remove first
+    PixelStore copy = new PixelStore(original);
+    ArrayList<int[]> first = new Retargeter(copy, 1, 0.0, null).seamsToInsert(1, "vertical");
+    t.checkExpect(first.get(0), new SeamCostTable().findVertSeam(original.energy,
+        original.stride, 48, 30));
+    t.checkException(new IllegalArgumentException("Cannot enlarge to a size smaller than the image"),
+        retargeter, "enlargeTo", 71, 40);
+  }
+
+  void testResizeTo(Tester t) {
+    this.init();
+    Retargeter retargeter = new Retargeter(this.store, 8, 1.0, null);
+    retargeter.resizeTo(40, 36);
+    t.checkExpect(this.store.getWidth(), 40);
+    t.checkExpect(this.store.height, 36);
+    t.checkExpect(retargeter.passes > 0, true);
+  }
+
+  void testOneSeamPerPassMatchesSeamCarver(Tester t) {
+    this.init();
+    SeamCarver carver = new SeamCarver("src/Balloons.jpg", "flat");
+    carver.costMode = "array";
+    PixelStore copy = new PixelStore(carver.store.getWidth(), carver.store.height);
+    for (int y = 0; y < copy.height; y++) {
+      for (int x = 0; x < copy.getWidth(); x++) {
+        copy.setArgb(x, y, carver.store.getArgb(x, y));
+      }
+    }
+    copy.updateAllEnergy();
+
+    for (int i = 0; i < 6; i++) {
+      carver.onTick();
+      carver.onTick();
+    }
+    carver.directionToCarve = "horizontal";
+    for (int i = 0; i < 4; i++) {
+      carver.onTick();
+      carver.onTick();
+    }
+    new Retargeter(copy, 1, 0.0, null).carveTo(copy.getWidth() - 6, copy.height - 4);
+
+    boolean same = copy.getWidth() == carver.width && copy.height == carver.height;
+    for (int y = 0; same && y < copy.height; y++) {
+      for (int x = 0; x < copy.getWidth(); x++) {
+        same = same && copy.getArgb(x, y) == carver.store.getArgb(x, y);
+      }
+    }
+    t.checkExpect(same, true);
+  }
+}
@@ -0,0 +1,268 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import javalib.worldimages.*;
+import tester.*;
+
+// A persistent picture of a PixelStore: one BufferedImage whose packed ARGB
+// ints are written directly, row by row. After a seam is removed only the
+// part of each row (or column) from the seam onward is drawn again, and each
+// row remembers which of its pixels changed, so that copying the picture
+// into a frame for the world touches only those pixels.
+class SceneRaster {
+  // The picture, TYPE_INT_ARGB, at least as large as the store
+  BufferedImage image;
+  // The picture's own pixels, row by row, with a stride of its width
+  int[] pixels;
+  // Width of the picture
+  int stride;
+  // What is drawn: "normal" for the colors, "byEnergy" for the energy
+  String visualMode;
+  // First and last changed column of each row since the last flush, with
+  // first greater than last for rows that did not change
+  int[] dirtyLow;
+  int[] dirtyHigh;
+  // Number of pixels copied into a frame by the last flush
+  int flushed;
+
+  // Creates an empty picture of the given size
+  SceneRaster(int width, int height) {
+    this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    this.pixels = ((DataBufferInt) this.image.getRaster().getDataBuffer()).getData();
+    this.stride = width;
+    this.visualMode = "normal";
+    this.dirtyLow = new int[height];
+    this.dirtyHigh = new int[height];
+    this.markClean();
+  }
+
+  // EFFECT: forgets which pixels changed
+  void markClean() {
+    Arrays.fill(this.dirtyLow, this.stride);
+    Arrays.fill(this.dirtyHigh, -1);
+  }
+
+  // EFFECT: records that the pixels of row y from x = low to x = high
+  // changed
+  void markDirty(int y, int low, int high) {
+    this.dirtyLow[y] = Math.min(this.dirtyLow[y], Math.max(0, low));
+    this.dirtyHigh[y] = Math.max(this.dirtyHigh[y], Math.min(this.stride - 1, high));
+  }
+
+  // Returns the packed color shown for the pixel at (x, y) of the store
+  int argbOf(PixelStore store, int x, int y) {
+    if (this.visualMode.equals("byEnergy")) {
+      return store.energyArgb(store.getEnergy(x, y));
+    }
+    return store.getArgb(x, y);
+  }
+
+  // EFFECT: draws the pixels of row y of the store from x = from to the end
+  // of the picture, clearing those past the end of the row
+  void drawRow(PixelStore store, int y, int from) {
+    int start = Math.max(0, from);
+    int out = y * this.stride;
+    int width = store.getRowWidth(y);
+    if (this.visualMode.equals("normal") && start < width) {
+      System.arraycopy(store.argb, store.index(start, y), this.pixels, out + start,
+          width - start);
+    }
+    else {
+      for (int x = start; x < width; x++) {
+        this.pixels[out + x] = this.argbOf(store, x, y);
+      }
+    }
+    Arrays.fill(this.pixels, out + Math.max(start, width), out + this.stride, 0);
+    this.markDirty(y, start, this.stride - 1);
+  }
+
+  // EFFECT: draws the pixels of column x of the store from y = from to the
+  // bottom of the picture, clearing those below the last row
+  void drawColumn(PixelStore store, int x, int from) {
+    for (int y = Math.max(0, from); y < this.pixels.length / this.stride; y++) {
+      if (y < store.height && x < store.getRowWidth(y)) {
+        this.pixels[y * this.stride + x] = this.argbOf(store, x, y);
+      }
+      else {
+        this.pixels[y * this.stride + x] = 0;
+      }
+      this.markDirty(y, x, x);
+    }
+  }
+
+  // EFFECT: draws the whole store in the given visual mode, making the
+  // picture larger first if the store has outgrown it
+  void drawAll(PixelStore store, String visualMode) {
+    if (store.getWidth() > this.stride || store.height > this.dirtyLow.length) {
+      SceneRaster larger = new SceneRaster(Math.max(store.getWidth(), this.stride),
+          Math.max(store.height, this.dirtyLow.length));
+      this.image = larger.image;
+      this.pixels = larger.pixels;
+      this.stride = larger.stride;
+      this.dirtyLow = larger.dirtyLow;
+      this.dirtyHigh = larger.dirtyHigh;
+    }
+    this.visualMode = visualMode;
+    for (int y = 0; y < this.dirtyLow.length; y++) {
+      if (y < store.height) {
+        this.drawRow(store, y, 0);
+      }
+      else {
+        Arrays.fill(this.pixels, y * this.stride, (y + 1) * this.stride, 0);
+        this.markDirty(y, 0, this.stride - 1);
+      }
+    }
+  }
+
+  // EFFECT: after store.removeVertSeam(seam) and its energy update, draws
+  // every row again from just left of where the seam (or, for the energy,
+  // its neighbors in the rows above and below) was. Returns the number of
+  // pixels drawn.
+  int vertSeamRemoved(PixelStore store, int[] seam) {
+    int drawn = 0;
+    for (int y = 0; y < seam.length; y++) {
+      int low = seam[y];
+      if (y > 0) {
+        low = Math.min(low, seam[y - 1]);
+      }
+      if (y < seam.length - 1) {
+        low = Math.min(low, seam[y + 1]);
+      }
+      this.drawRow(store, y, low - 1);
+      drawn += this.stride - Math.max(0, low - 1);
+    }
+    return drawn;
+  }
+
+  // EFFECT: after store.removeHoriSeam(seam) and its energy update, draws
+  // every column again from just above where the seam (or, for the energy,
+  // its neighbors in the columns left and right) was. Returns the number of
+  // pixels drawn.
+  int horiSeamRemoved(PixelStore store, int[] seam) {
+    int drawn = 0;
+    for (int x = 0; x < seam.length; x++) {
+      int low = seam[x];
+      if (x > 0) {
+        low = Math.min(low, seam[x - 1]);
+      }
+      if (x < seam.length - 1) {
+        low = Math.min(low, seam[x + 1]);
+      }
+      this.drawColumn(store, x, low - 1);
+      drawn += this.dirtyLow.length - Math.max(0, low - 1);
+    }
+    return drawn;
+  }
+
+  // EFFECT: paints the given positions red; they are drawn over again when
+  // the seam is removed
+  void paintRed(ArrayList<Posn> seam) {
+    for (Posn posn : seam) {
+      this.pixels[posn.y * this.stride + posn.x] = Color.RED.getRGB();
+      this.markDirty(posn.y, posn.x, posn.x);
+    }
+  }
+
+  // EFFECT: copies the pixels that changed since the last flush into the
+  // frame, which must be the size of this picture, and forgets them
+  void flushTo(ComputedPixelImage frame) {
+    int copied = 0;
+    for (int y = 0; y < this.dirtyLow.length; y++) {
+      int out = y * this.stride;
+      for (int x = this.dirtyLow[y]; x <= this.dirtyHigh[y]; x++) {
+        frame.setColorAt(x, y, new Color(this.pixels[out + x], true));
+      }
+      copied += Math.max(0, this.dirtyHigh[y] - this.dirtyLow[y] + 1);
+    }
+    this.markClean();
+    this.flushed = copied;
+  }
+}
+
+class ExamplesSceneRaster {
+  PixelStore store;
+  SceneRaster raster;
+
+  void init() {
+    java.util.Random random = new java.util.Random(11);
+    this.store = new PixelStore(9, 6);
+    for (int y = 0; y < 6; y++) {
+      for (int x = 0; x < 9; x++) {
+        this.store.setArgb(x, y, 0xFF000000 | random.nextInt(0x1000000));
+      }
+    }
+    this.store.updateAllEnergy();
+    this.raster = new SceneRaster(9, 6);
+  }
+
+  // Returns the picture a fresh raster draws of the store
+  int[] freshPixels(String visualMode) {
+    SceneRaster fresh = new SceneRaster(this.raster.stride, this.raster.dirtyLow.length);
+    fresh.drawAll(this.store, visualMode);
+    return fresh.pixels;
+  }
+
+  void testDrawAll(Tester t) {
+    this.init();
+    this.raster.drawAll(this.store, "normal");
+    t.checkExpect(this.raster.image.getRGB(4, 2), this.store.getArgb(4, 2));
+    t.checkExpect(this.raster.dirtyLow[5], 0);
+    t.checkExpect(this.raster.dirtyHigh[5], 8);
+    this.raster.drawAll(this.store, "byEnergy");
+    t.checkExpect(this.raster.image.getRGB(4, 2),
+        this.store.energyColor(this.store.getEnergy(4, 2)).getRGB());
+
+    PixelStore wider = new PixelStore(12, 3);
+    this.raster.drawAll(wider, "normal");
+    t.checkExpect(this.raster.stride, 12);
+    t.checkExpect(this.raster.dirtyLow.length, 6);
+    t.checkExpect(this.raster.image.getRGB(11, 5), 0);
+  }
+
+  void testSeamRemovedMatchesFreshDraw(Tester t) {
+    this.init();
+    String[] modes = new String[] { "normal", "byEnergy" };
+    for (String mode : modes) {
+      this.init();
+      this.raster.drawAll(this.store, mode);
+      int[] vertSeam = new int[] { 3, 4, 4, 5, 4, 3 };
+      this.store.removeVertSeam(vertSeam);
+      this.store.recomputeEnergyNearVertSeam(vertSeam);
+      this.raster.markClean();
+      t.checkExpect(this.raster.vertSeamRemoved(this.store, vertSeam), 40);
+      t.checkExpect(this.raster.pixels, this.freshPixels(mode));
+      t.checkExpect(this.raster.dirtyLow[0], 2);
+      t.checkExpect(this.raster.dirtyLow[3], 3);
+
+      int[] horiSeam = new int[] { 2, 1, 1, 2, 3, 3, 2, 2 };
+      this.store.removeHoriSeam(horiSeam);
+      this.store.recomputeEnergyNearHoriSeam(horiSeam);
+      this.raster.horiSeamRemoved(this.store, horiSeam);
+      t.checkExpect(this.raster.pixels, this.freshPixels(mode));
+    }
+  }
+
+  void testPaintAndFlush(Tester t) {
+    this.init();
+    this.raster.drawAll(this.store, "normal");
+    ComputedPixelImage frame = new ComputedPixelImage(9, 6);
+    this.raster.flushTo(frame);
+    t.checkExpect(this.raster.flushed, 54);
+    t.checkExpect(frame.getColorAt(7, 4), this.store.getColor(7, 4));
+    t.checkExpect(this.raster.dirtyHigh[4], -1);
+
+    ArrayList<Posn> seam = new ArrayList<Posn>();
+    seam.add(new Posn(2, 0));
+    seam.add(new Posn(3, 1));
+    this.raster.paintRed(seam);
+    t.checkExpect(this.raster.dirtyLow[1], 3);
+    t.checkExpect(this.raster.dirtyHigh[1], 3);
+    t.checkExpect(this.raster.dirtyHigh[2], -1);
+    this.raster.flushTo(frame);
+    t.checkExpect(this.raster.flushed, 2);
+    t.checkExpect(frame.getColorAt(3, 1), Color.RED);
+    t.checkExpect(frame.getColorAt(4, 1), this.store.getColor(4, 1));
+  }
+}
@@ -0,0 +1,47 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import tester.*;
+
+// Scratch directories for files that only live as long as one run or one
+// test: made fresh under the system's temporary directory, and deleted
+// afterwards with everything written into them.
+class ScratchFiles {
+  // Returns a new, empty directory whose name starts with the given prefix
+  static File newDirectory(String prefix) {
+    try {
+      return java.nio.file.Files.createTempDirectory(prefix).toFile();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // EFFECT: deletes the file, or the directory and everything in it
+  static void deleteTree(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        ScratchFiles.deleteTree(child);
+      }
+    }
+    file.delete();
+  }
+}
+
+class ExamplesScratchFiles {
+  void testNewAndDelete(Tester t) throws IOException {
+    File dir = ScratchFiles.newDirectory("scratch");
+    t.checkExpect(dir.isDirectory(), true);
+    t.checkExpect(dir.getName().startsWith("scratch"), true);
+    t.checkExpect(dir.list().length, 0);
+    File nested = new File(dir, "a/b");
+    nested.mkdirs();
+    new File(nested, "c.txt").createNewFile();
+    new File(dir, "d.txt").createNewFile();
+    ScratchFiles.deleteTree(dir);
+    t.checkExpect(dir.exists(), false);
+    ScratchFiles.deleteTree(dir);
+    t.checkExpect(dir.exists(), false);
+  }
+}
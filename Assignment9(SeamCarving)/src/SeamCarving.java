@@ -1,6 +1,10 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import tester.*;
 import javalib.impworld.*;
 import javalib.worldimages.*;
@@ -125,7 +129,9 @@ class Pixel implements IPixel {
 
   // Recomputes the energy value and stores it
   public void recomputeEnergy() {
-    this.energy = Math.sqrt(Math.pow(this.getHorizEnergy(), 2) + Math.pow(this.getVertEnergy(), 2));
+    double horiz = this.getHorizEnergy();
+    double vert = this.getVertEnergy();
+    this.energy = Math.sqrt(horiz * horiz + vert * vert);
   }
 
   // Returns the energy as a grayscale color for visualization
@@ -619,10 +625,8 @@ class SeamInfo {
     String middleKey = y + "," + (x - 1);
     middleCost = seamCostMemo.getOrDefault(middleKey, Double.MAX_VALUE);
 
-    if (y < width - 1) {
-      String bottomKey = (y + 1) + "," + (x - 1);
-      bottomCost = seamCostMemo.getOrDefault(bottomKey, Double.MAX_VALUE);
-    }
+    String bottomKey = (y + 1) + "," + (x - 1);
+    bottomCost = seamCostMemo.getOrDefault(bottomKey, Double.MAX_VALUE);
 
     int nextY = y;
     if (topCost < middleCost && topCost < bottomCost) {
@@ -892,12 +896,73 @@ class SeamCarver extends World {
   ArrayList<Posn> seam;
   // Represent the location of seams to be removed
   ArrayList<Integer> seamLocation;
+  // How pixels are stored: "graph" for linked IPixels, "flat" for a PixelStore
+  String storeMode;
+  // Flat pixel store, used instead of the grid when storeMode is "flat"
+  PixelStore store;
+  // How seam costs are computed: "memo" for the memoized recursion in
+  // SeamInfo, "array" for the bottom-up SeamCostTable, "incremental" for a
+  // SeamCostTable that only solves again what the last removal changed
+  // (flat store only), "parallel" for a SeamCostTable that solves each line
+  // in chunks on the parallelEnergy pool, "pyramid" for a coarse-to-fine
+  // SeamPyramid search
+  String costMode;
+  // Cost table used when costMode is "array"
+  SeamCostTable costTable;
+  // Coarse-to-fine seam search used when costMode is "pyramid"
+  SeamPyramid pyramid;
+  // How seams are scored: "backward" sums the energy of the pixels removed,
+  // "forward" sums the brightness differences the removal creates (always
+  // solved with the cost table)
+  String energyMode;
+  // Picks the cheaper direction at each seam in "both" mode
+  SeamOrder seamOrder;
+  // Direction of the seam painted red: "vertical" or "horizontal"
+  String paintedDirection;
+  // Computes whole energy maps on several threads, or null to compute them
+  // on the world's thread
+  ParallelEnergy parallelEnergy;
+  // Persistent picture of the flat store, drawn again only from each
+  // removed seam onward, or null to draw every pixel of every frame
+  SceneRaster raster;
+  // Frame shown by the world when raster is not null, updated from it with
+  // only the pixels that changed
+  ComputedPixelImage frame;
+  // Times the phases of each tick and frame for Flight Recorder and, when
+  // counting, for in-process totals
+  PhaseTimer timer;
+  // Seams removed from the flat store, which undoSeam puts back and
+  // redoSeam takes out again (seams removed from a graph of pixels are not
+  // recorded)
+  SeamHistory history;
+  // Finds each next seam off the world's thread while the last one is
+  // shown, or null to find seams on the world's thread
+  ExecutorService searcher;
+  // Search for the next seam running on the searcher, or null
+  Future<FoundSeam> pendingSeam;
+  // How the energy of a pixel is computed: "sobel" for the Sobel gradient
+  // of brightness, or "channels", "entropy" or "saliency" for an
+  // EnergyFunction of the flat store
+  String energyModel;
 
   // Creates a new seam carver from an image file
   SeamCarver(String fileName) {
-    FromFileImage image = new FromFileImage(fileName);
-    this.width = (int) image.getWidth();
-    this.height = (int) image.getHeight();
+    this(fileName, "graph");
+  }
+
+  // Creates a new seam carver from an image file, storing its pixels as
+  // described by storeMode
+  SeamCarver(String fileName, String storeMode) {
+    this(fileName, storeMode, 1);
+  }
+
+  // Creates a new seam carver from an image file, storing its pixels as
+  // described by storeMode and computing whole energy maps on the given
+  // number of threads
+  SeamCarver(String fileName, String storeMode, int parallelism) {
+    PixelStore image = PixelStore.load(fileName);
+    this.width = image.getWidth();
+    this.height = image.height;
     this.grid = new ArrayList<ArrayList<IPixel>>();
     this.energyMemo = new HashMap<String, Double>();
     this.seamCostMemo = new HashMap<String, Double>();
@@ -909,53 +974,51 @@ class SeamCarver extends World {
     this.paintedSeam = false;
     this.seam = new ArrayList<Posn>();
     this.seamLocation = new ArrayList<Integer>();
-
-    this.initRows(0, image);
-    this.connectAllRows(0);
-  }
-
-  // Initialize all rows of pixels
-  public void initRows(int y, FromFileImage image) {
-    if (y >= this.height) {
-      return;
+    this.storeMode = storeMode;
+    this.costMode = "memo";
+    this.costTable = new SeamCostTable();
+    this.pyramid = new SeamPyramid(4);
+    this.seamOrder = new SeamOrder();
+    this.paintedDirection = "vertical";
+    this.energyMode = "backward";
+    this.timer = new PhaseTimer();
+    this.history = new SeamHistory();
+    this.energyModel = "sobel";
+    if (parallelism > 1) {
+      this.parallelEnergy = new ParallelEnergy(parallelism);
+    }
+
+    if (this.storeMode.equals("flat")) {
+      this.store = image;
+      this.recomputeAllEnergy();
     }
-
-    ArrayList<IPixel> row = new ArrayList<IPixel>();
-    this.initRow(0, y, row, image);
-    this.grid.add(row);
-
-    this.initRows(y + 1, image);
-  }
-
-  // Initialize pixels in a single row
-  public void initRow(int x, int y, ArrayList<IPixel> row, FromFileImage image) {
-    if (x >= this.width) {
-      return;
+    else {
+      this.initRows(image);
+      this.connectAllRows();
     }
-
-    IPixel pixel = new Pixel(Color.BLACK);
-    row.add(pixel.initPixelAt(x, y, image));
-    this.initRow(x + 1, y, row, image);
   }
 
-  // Connect all rows of pixels
-  public void connectAllRows(int y) {
-    if (y >= this.height) {
-      return;
+  // Initialize all rows of pixels from the colors of a decoded image, a
+  // row at a time (wide images would overflow the stack if each pixel were
+  // a recursive call)
+  public void initRows(PixelStore image) {
+    for (int y = 0; y < this.height; y++) {
+      ArrayList<IPixel> row = new ArrayList<IPixel>(this.width);
+      for (int x = 0; x < this.width; x++) {
+        row.add(new Pixel(image.getColor(x, y)));
+      }
+      this.grid.add(row);
     }
-
-    this.connectRowPixels(0, y);
-    this.connectAllRows(y + 1);
   }
 
-  // Connect pixels in a single row
-  public void connectRowPixels(int x, int y) {
-    if (x >= this.width) {
-      return;
+  // Connect all rows of pixels
+  public void connectAllRows() {
+    for (int y = 0; y < this.height; y++) {
+      ArrayList<IPixel> row = this.grid.get(y);
+      for (int x = 0; x < this.width; x++) {
+        row.get(x).connectToNeighbors(x, y, this.width, this.height, this.grid, this.border);
+      }
     }
-
-    this.getPixelAt(y, x).connectToNeighbors(x, y, this.width, this.height, this.grid, this.border);
-    this.connectRowPixels(x + 1, y);
   }
 
   // Get a pixel at the given coordinates
@@ -970,37 +1033,122 @@ class SeamCarver extends World {
   public double getEnergy(int y, int x) {
     String key = y + "," + x;
     if (!this.energyMemo.containsKey(key)) {
-      this.energyMemo.put(key, this.getPixelAt(y, x).getEnergy());
+      if (this.storeMode.equals("flat")) {
+        this.energyMemo.put(key, this.store.getEnergy(x, y));
+      }
+      else {
+        this.energyMemo.put(key, this.getPixelAt(y, x).getEnergy());
+      }
     }
     return this.energyMemo.get(key);
   }
 
-  // Update all energy values in the memo
+  // Recompute the energy of every pixel, on several threads if possible
+  public void recomputeAllEnergy() {
+    if (this.storeMode.equals("flat") && this.parallelEnergy != null) {
+      this.parallelEnergy.updateAllEnergy(this.store);
+    }
+    else if (this.storeMode.equals("flat")) {
+      this.store.updateAllEnergy();
+    }
+    else if (this.parallelEnergy != null) {
+      this.parallelEnergy.recomputeGridEnergy(this.grid);
+    }
+    else {
+      for (ArrayList<IPixel> row : this.grid) {
+        for (IPixel pixel : row) {
+          pixel.recomputeEnergy();
+        }
+      }
+    }
+  }
+
+  // Update all energy values in the memo. The flat store keeps its energy
+  // plane up to date after every removal, so only the memo is refilled.
   public void updateAllEnergy() {
+    if (!this.storeMode.equals("flat")) {
+      this.recomputeAllEnergy();
+    }
     for (int y = 0; y < this.height; y++) {
       for (int x = 0; x < this.width; x++) {
-        this.getPixelAt(y, x).recomputeEnergy();
         this.getEnergy(y, x);
       }
     }
   }
 
+  // EFFECT: removes the seam from the flat store in the given direction and
+  // records it for undo, then recomputes the energy near it and draws it
+  // into the raster, timing "remove", "energy" and "redraw" apart
+  void removeFlatSeam(int[] seam, String direction) {
+    PhaseStart start = this.timer.start();
+    this.history.record(this.store, seam, direction);
+    int recomputed;
+    if (direction.equals("vertical")) {
+      this.store.removeVertSeam(seam);
+      this.costTable.vertSeamRemoved(seam, this.store.stride);
+      this.timer.end("remove", start, this.width, this.height, 0);
+      start = this.timer.start();
+      recomputed = this.store.recomputeEnergyNearVertSeam(seam);
+    }
+    else {
+      this.store.removeHoriSeam(seam);
+      this.costTable.horiSeamRemoved(seam, this.store.stride);
+      this.timer.end("remove", start, this.width, this.height, 0);
+      start = this.timer.start();
+      recomputed = this.store.recomputeEnergyNearHoriSeam(seam);
+    }
+    this.timer.end("energy", start, this.width, this.height, recomputed);
+    if (this.raster != null) {
+      start = this.timer.start();
+      int drawn;
+      if (direction.equals("vertical")) {
+        drawn = this.raster.vertSeamRemoved(this.store, seam);
+      }
+      else {
+        drawn = this.raster.horiSeamRemoved(this.store, seam);
+      }
+      this.timer.end("redraw", start, this.width, this.height, drawn);
+    }
+  }
+
   // Find and remove a vertical seam
   public void findAndRemoveVertSeam() {
     if (this.paintedSeam) {
-      this.seamInfo.removeVertSeam(this.seamLocation, this.grid, this.height, this.width,
-          this.border);
+      if (this.storeMode.equals("flat")) {
+        this.removeFlatSeam(this.seamArray(), "vertical");
+      }
+      else {
+        PhaseStart start = this.timer.start();
+        this.seamInfo.removeVertSeam(this.seamLocation, this.grid, this.height, this.width,
+            this.border);
+        this.timer.end("remove", start, this.width, this.height, 0);
+      }
       this.width--;
       this.energyMemo.clear();
       this.seamCostMemo.clear();
       this.seam.clear();
     }
+    else if (!this.costMode.equals("memo") || this.energyMode.equals("forward")) {
+      PhaseStart start = this.timer.start();
+      int[] found = this.findVertSeamInArray();
+      this.timer.end("seamCosts", start, this.width, this.height, this.cellsSolved());
+      this.seamLocation = this.seamListOf(found);
+      for (int i = 0; i < this.height; i += 1) {
+        this.seam.add(new Posn(this.seamLocation.get(i), i));
+      }
+    }
     else {
+      PhaseStart start = this.timer.start();
       this.updateAllEnergy();
+      this.timer.end("energy", start, this.width, this.height, this.width * this.height);
+      start = this.timer.start();
       this.seamInfo.calculateAllVertSeamCosts(this.height, this.width, this.seamCostMemo,
           this.energyMemo);
+      this.timer.end("seamCosts", start, this.width, this.height, this.width * this.height);
+      start = this.timer.start();
       int minCol = this.seamInfo.findMinBottomColVert(this.width, this.height, this.seamCostMemo);
       this.seamLocation = this.seamInfo.traceVertSeam(minCol, this.height, this.seamCostMemo);
+      this.timer.end("trace", start, this.width, this.height, this.height);
       for (int i = 0; i < this.height; i += 1) {
         this.seam.add(new Posn(this.seamLocation.get(i), i));
       }
@@ -1010,26 +1158,579 @@ class SeamCarver extends World {
   // Find and remove a horizontal seam
   public void findAndRemoveHoriSeam() {
     if (this.paintedSeam) {
-      this.seamInfo.removeHoriSeam(this.seamLocation, this.grid, this.height, this.width,
-          this.border);
+      if (this.storeMode.equals("flat")) {
+        this.removeFlatSeam(this.seamArray(), "horizontal");
+      }
+      else {
+        PhaseStart start = this.timer.start();
+        this.seamInfo.removeHoriSeam(this.seamLocation, this.grid, this.height, this.width,
+            this.border);
+        this.timer.end("remove", start, this.width, this.height, 0);
+      }
       this.height--;
       this.energyMemo.clear();
       this.seamCostMemo.clear();
       this.seam.clear();
     }
+    else if (!this.costMode.equals("memo") || this.energyMode.equals("forward")) {
+      PhaseStart start = this.timer.start();
+      int[] found = this.findHoriSeamInArray();
+      this.timer.end("seamCosts", start, this.width, this.height, this.cellsSolved());
+      this.seamLocation = this.seamListOf(found);
+      for (int i = 0; i < this.width; i += 1) {
+        this.seam.add(new Posn(i, this.seamLocation.get(i)));
+      }
+    }
     else {
+      PhaseStart start = this.timer.start();
       this.updateAllEnergy();
+      this.timer.end("energy", start, this.width, this.height, this.width * this.height);
+      start = this.timer.start();
       this.seamCostMemo.clear();
       this.seamInfo.calculateAllHoriSeamCosts(this.height, this.width, this.seamCostMemo,
           this.energyMemo);
+      this.timer.end("seamCosts", start, this.width, this.height, this.width * this.height);
+      start = this.timer.start();
       int minRow = this.seamInfo.findMinRightRowHori(this.width, this.height, this.seamCostMemo);
       this.seamLocation = this.seamInfo.traceHoriSeam(minRow, this.width, this.seamCostMemo);
+      this.timer.end("trace", start, this.width, this.height, this.width);
       for (int i = 0; i < this.width; i += 1) {
         this.seam.add(new Posn(i, this.seamLocation.get(i)));
       }
     }
   }
 
+  // Computes the energy of every pixel of the grid into a plane, row by row,
+  // with a stride of this.width
+  public double[] energyPlane() {
+    PhaseStart start = this.timer.start();
+    this.recomputeAllEnergy();
+    this.timer.end("energy", start, this.width, this.height, this.width * this.height);
+    double[] plane = new double[this.width * this.height];
+    for (int y = 0; y < this.height; y++) {
+      for (int x = 0; x < this.width; x++) {
+        plane[y * this.width + x] = this.getPixelAt(y, x).getEnergy();
+      }
+    }
+    return plane;
+  }
+
+  // Returns the brightness of every pixel of the grid in a plane, row by
+  // row, with a stride of this.width
+  public float[] brightnessPlane() {
+    float[] plane = new float[this.width * this.height];
+    for (int y = 0; y < this.height; y++) {
+      for (int x = 0; x < this.width; x++) {
+        plane[y * this.width + x] = (float) this.getPixelAt(y, x).getBrightness();
+      }
+    }
+    return plane;
+  }
+
+  // Finds the minimum vertical seam with the cost table, reading the flat
+  // store's planes (and mask) directly when there is one. The coarse seam
+  // pyramid does not read masks, so a masked store is solved in full.
+  public int[] findVertSeamInArray() {
+    this.costTable.mask = this.storeMask();
+    if (this.energyMode.equals("forward") && this.storeMode.equals("flat")) {
+      return this.costTable.findVertSeamForward(this.store.brightness, this.store.stride,
+          this.width, this.height);
+    }
+    if (this.energyMode.equals("forward")) {
+      return this.costTable.findVertSeamForward(this.brightnessPlane(), this.width, this.width,
+          this.height);
+    }
+
+    double[] energy;
+    int stride;
+    if (this.storeMode.equals("flat")) {
+      energy = this.store.energy;
+      stride = this.store.stride;
+    }
+    else {
+      energy = this.energyPlane();
+      stride = this.width;
+    }
+
+    if (this.costMode.equals("pyramid") && this.costTable.mask == null) {
+      return this.pyramid.findVertSeam(energy, stride, this.width, this.height);
+    }
+    if (this.storeMode.equals("flat") && this.costMode.equals("incremental")) {
+      return this.costTable.findVertSeamIncremental(energy, stride, this.width, this.height);
+    }
+    if (this.costMode.equals("parallel") && this.parallelEnergy != null) {
+      return this.costTable.findVertSeamParallel(energy, stride, this.width, this.height,
+          this.parallelEnergy.pool, this.parallelEnergy.parallelism);
+    }
+    return this.costTable.findVertSeam(energy, stride, this.width, this.height);
+  }
+
+  // Finds the minimum horizontal seam with the cost table, reading the flat
+  // store's planes (and mask) directly when there is one
+  public int[] findHoriSeamInArray() {
+    this.costTable.mask = this.storeMask();
+    if (this.energyMode.equals("forward") && this.storeMode.equals("flat")) {
+      return this.costTable.findHoriSeamForward(this.store.brightness, this.store.stride,
+          this.width, this.height);
+    }
+    if (this.energyMode.equals("forward")) {
+      return this.costTable.findHoriSeamForward(this.brightnessPlane(), this.width, this.width,
+          this.height);
+    }
+
+    double[] energy;
+    int stride;
+    if (this.storeMode.equals("flat")) {
+      energy = this.store.energy;
+      stride = this.store.stride;
+    }
+    else {
+      energy = this.energyPlane();
+      stride = this.width;
+    }
+
+    if (this.costMode.equals("pyramid") && this.costTable.mask == null) {
+      return this.pyramid.findHoriSeam(energy, stride, this.width, this.height);
+    }
+    if (this.storeMode.equals("flat") && this.costMode.equals("incremental")) {
+      return this.costTable.findHoriSeamIncremental(energy, stride, this.width, this.height);
+    }
+    if (this.costMode.equals("parallel") && this.parallelEnergy != null) {
+      return this.costTable.findHoriSeamParallel(energy, stride, this.width, this.height,
+          this.parallelEnergy.pool, this.parallelEnergy.parallelism);
+    }
+    return this.costTable.findHoriSeam(energy, stride, this.width, this.height);
+  }
+
+  // Returns the flat store's mask, or null if there is none
+  byte[] storeMask() {
+    if (this.storeMode.equals("flat")) {
+      return this.store.mask;
+    }
+    return null;
+  }
+
+  // Returns the number of seam cost cells the last seam search filled in
+  public int cellsSolved() {
+    if (this.costMode.equals("pyramid") && this.energyMode.equals("backward")) {
+      return this.pyramid.cellsSolved;
+    }
+    return this.costTable.cellsSolved;
+  }
+
+  // Returns the direction, "vertical" or "horizontal", whose cheapest seam
+  // costs less right now (horizontal when they cost the same)
+  public String cheaperDirection() {
+    if (this.storeMode.equals("flat")) {
+      this.seamOrder.verticalTable.mask = this.store.mask;
+      this.seamOrder.horizontalTable.mask = this.store.mask;
+      return this.seamOrder.cheaperDirection(this.store.energy, this.store.stride, this.width,
+          this.height);
+    }
+    return this.seamOrder.cheaperDirection(this.energyPlane(), this.width, this.width,
+        this.height);
+  }
+
+  // Converts a seam found by the cost table to a seam location list
+  public ArrayList<Integer> seamListOf(int[] seam) {
+    ArrayList<Integer> result = new ArrayList<Integer>();
+    for (int pos : seam) {
+      result.add(pos);
+    }
+    return result;
+  }
+
+  // Returns the location of the current seam as an array
+  public int[] seamArray() {
+    int[] result = new int[this.seamLocation.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = this.seamLocation.get(i);
+    }
+    return result;
+  }
+
+  // Shrinks the image to targetWidth by targetHeight at once, removing every
+  // column before any row
+  public void carveTo(int targetWidth, int targetHeight) {
+    this.carveTo(targetWidth, targetHeight, "verticalFirst");
+  }
+
+  // Shrinks the image to targetWidth by targetHeight at once, taking
+  // several seams out of each seam cost solve, in the order given by
+  // orderMode (see Retargeter). A graph of pixels is moved into a flat store
+  // first.
+  public void carveTo(int targetWidth, int targetHeight, String orderMode) {
+    this.waitForSearcher();
+    this.useFlatStore();
+    Retargeter retargeter = new Retargeter(this.store, 16, 1.0, this.parallelEnergy);
+    retargeter.orderMode = orderMode;
+    retargeter.carveTo(targetWidth, targetHeight);
+    this.resized();
+  }
+
+  // Widens the image to targetWidth and heightens it to targetHeight by
+  // inserting copies of its cheapest seams
+  public void enlargeTo(int targetWidth, int targetHeight) {
+    this.waitForSearcher();
+    this.useFlatStore();
+    new Retargeter(this.store, 16, 1.0, this.parallelEnergy).enlargeTo(targetWidth,
+        targetHeight);
+    this.resized();
+  }
+
+  // EFFECT: moves a graph of pixels into a flat store
+  public void useFlatStore() {
+    if (!this.storeMode.equals("flat")) {
+      this.store = new PixelStore(this.grid);
+      this.storeMode = "flat";
+      this.grid.clear();
+      this.recomputeAllEnergy();
+    }
+  }
+
+  // EFFECT: catches up with a store that changed size outside of onTick
+  public void resized() {
+    this.width = this.store.getWidth();
+    this.height = this.store.height;
+    this.energyMemo.clear();
+    this.seamCostMemo.clear();
+    this.seam.clear();
+    this.seamLocation = new ArrayList<Integer>();
+    this.paintedSeam = false;
+    this.costTable.reset();
+    this.history.clear();
+    if (this.raster != null) {
+      this.raster.drawAll(this.store, this.visualMode);
+    }
+  }
+
+  // EFFECT: puts the last removed seam back into the flat store, dropping
+  // any seam painted for removal
+  public void undoSeam() {
+    this.waitForSearcher();
+    if (!this.history.canUndo()) {
+      return;
+    }
+    this.dropPaintedSeam();
+    SeamRecord last = this.history.undo(this.store);
+    this.costTable.reset();
+    this.seamChanged(last);
+  }
+
+  // EFFECT: takes the last undone seam out of the flat store again, dropping
+  // any seam painted for removal
+  public void redoSeam() {
+    this.waitForSearcher();
+    if (!this.history.canRedo()) {
+      return;
+    }
+    this.dropPaintedSeam();
+    SeamRecord next = this.history.redo(this.store);
+    if (next.direction.equals("vertical")) {
+      this.costTable.vertSeamRemoved(next.seam, this.store.stride);
+    }
+    else {
+      this.costTable.horiSeamRemoved(next.seam, this.store.stride);
+    }
+    this.seamChanged(next);
+  }
+
+  // EFFECT: undoes or redoes seams until the given number of the recorded
+  // seams are removed, as a slider over the carve history would
+  public void scrubTo(int removed) {
+    int target = Math.max(0, Math.min(this.history.records.size(), removed));
+    while (this.history.position > target) {
+      this.undoSeam();
+    }
+    while (this.history.position < target) {
+      this.redoSeam();
+    }
+  }
+
+  // EFFECT: forgets a seam found but not yet removed, drawing over it if it
+  // was painted into the raster
+  void dropPaintedSeam() {
+    if (this.paintedSeam && this.raster != null) {
+      this.raster.drawAll(this.store, this.visualMode);
+    }
+    this.paintedSeam = false;
+    this.seam.clear();
+    this.seamLocation = new ArrayList<Integer>();
+  }
+
+  // EFFECT: catches up with a seam of the history that was put back or
+  // taken out again
+  void seamChanged(SeamRecord record) {
+    this.width = this.store.getWidth();
+    this.height = this.store.height;
+    this.energyMemo.clear();
+    this.seamCostMemo.clear();
+    if (this.raster == null) {
+      return;
+    }
+    if (this.width > this.raster.stride || this.height > this.raster.dirtyLow.length) {
+      this.raster.drawAll(this.store, this.visualMode);
+    }
+    else if (record.direction.equals("vertical")) {
+      this.raster.vertSeamRemoved(this.store, record.seam);
+    }
+    else {
+      this.raster.horiSeamRemoved(this.store, record.seam);
+    }
+  }
+
+  // EFFECT: draws frames from a persistent raster of a flat store from now
+  // on, moving a graph of pixels into a flat store first
+  public void useRaster() {
+    this.useFlatStore();
+    this.raster = new SceneRaster(this.width, this.height);
+    this.raster.drawAll(this.store, this.visualMode);
+    this.frame = new ComputedPixelImage(this.width, this.height);
+  }
+
+  // EFFECT: computes energy as the given model does from now on: "sobel",
+  // "channels" or "entropy", moving a graph of pixels into a flat store
+  // first
+  public void useEnergyModel(String model) {
+    if (model.equals("sobel")) {
+      this.useEnergyFunction(model, null);
+    }
+    else if (model.equals("channels")) {
+      this.useEnergyFunction(model, new ChannelGradientEnergy());
+    }
+    else if (model.equals("entropy")) {
+      this.useEnergyFunction(model, new EntropyEnergy());
+    }
+    else {
+      throw new IllegalArgumentException("Unknown energy model: " + model);
+    }
+  }
+
+  // EFFECT: computes energy from the saliency map in the given image file,
+  // which must be the size of the image now, from now on
+  public void useSaliency(String mapFile) {
+    this.useEnergyFunction("saliency", new SaliencyEnergy(PixelStore.load(mapFile)));
+  }
+
+  // EFFECT: computes the flat store's energy with the function (the Sobel
+  // gradient of brightness when it is null) under the given model name, and
+  // forgets any seam found with the old energy
+  void useEnergyFunction(String model, EnergyFunction function) {
+    this.waitForSearcher();
+    this.useFlatStore();
+    this.store.useEnergy(function);
+    this.energyModel = model;
+    this.energyMemo.clear();
+    this.seamCostMemo.clear();
+    this.dropPaintedSeam();
+    this.costTable.reset();
+    if (this.raster != null) {
+      this.raster.drawAll(this.store, this.visualMode);
+    }
+  }
+
+  // EFFECT: masks the image with the given mask image from now on (see
+  // PixelStore.markMask), moving a graph of pixels into a flat store first
+  public void useMask(String maskFile) {
+    this.waitForSearcher();
+    this.useFlatStore();
+    this.store.markMask(PixelStore.load(maskFile));
+    this.maskChanged();
+  }
+
+  // EFFECT: gives the pixels from (left, top) to (right, bottom) the mask
+  // value PixelStore.PROTECT or PixelStore.REMOVE, or 0 to unmask them,
+  // moving a graph of pixels into a flat store first
+  public void markMask(int left, int top, int right, int bottom, byte value) {
+    this.waitForSearcher();
+    this.useFlatStore();
+    this.store.markMask(left, top, right, bottom, value);
+    this.maskChanged();
+  }
+
+  // EFFECT: stops masking the image
+  public void clearMask() {
+    this.waitForSearcher();
+    if (this.storeMask() != null) {
+      this.store.clearMask();
+      this.maskChanged();
+    }
+  }
+
+  // EFFECT: forgets any seam found or costs kept with the old mask
+  void maskChanged() {
+    this.dropPaintedSeam();
+    this.costTable.reset();
+  }
+
+  // EFFECT: carves seams through the object marked PixelStore.REMOVE until
+  // none of it is left, and returns how many seams were removed. The seams
+  // run the long way across the object's bounding box, so that each one
+  // takes a pixel out of its narrow side: vertical seams for an object no
+  // wider than it is tall, horizontal seams otherwise. The mask biases every
+  // cell as the seam costs are solved, so the seams are found like any
+  // other, recorded in the history (the object can be undone back in), and
+  // stop early if the cheapest seam no longer crosses the object or the
+  // image is down to one column (or row).
+  public int removeObject() {
+    this.waitForSearcher();
+    int[] bounds = null;
+    if (this.storeMask() != null) {
+      bounds = this.store.maskBounds(PixelStore.REMOVE);
+    }
+    if (bounds == null) {
+      throw new IllegalStateException("No object to remove");
+    }
+    this.dropPaintedSeam();
+    boolean vertical = bounds[2] - bounds[0] <= bounds[3] - bounds[1];
+    int remaining = this.store.countMask(PixelStore.REMOVE);
+    int removed = 0;
+    while (remaining > 0 && (vertical ? this.width : this.height) > 1) {
+      PhaseStart start = this.timer.start();
+      int[] seam;
+      if (vertical) {
+        seam = this.findVertSeamInArray();
+      }
+      else {
+        seam = this.findHoriSeamInArray();
+      }
+      this.timer.end("seamCosts", start, this.width, this.height, this.cellsSolved());
+
+      int crossed = 0;
+      for (int i = 0; i < seam.length; i++) {
+        if (vertical && this.store.getMask(seam[i], i) == PixelStore.REMOVE
+            || !vertical && this.store.getMask(i, seam[i]) == PixelStore.REMOVE) {
+          crossed++;
+        }
+      }
+      if (crossed == 0) {
+        break;
+      }
+
+      if (vertical) {
+        this.removeFlatSeam(seam, "vertical");
+        this.width--;
+      }
+      else {
+        this.removeFlatSeam(seam, "horizontal");
+        this.height--;
+      }
+      remaining -= crossed;
+      removed++;
+    }
+    this.energyMemo.clear();
+    this.seamCostMemo.clear();
+    return removed;
+  }
+
+  // EFFECT: finds each next seam on a searcher thread from now on, moving a
+  // graph of pixels into a flat store first. Seams are found with the cost
+  // table whatever the cost mode.
+  public void useBackgroundSearch() {
+    this.useFlatStore();
+    if (this.searcher == null) {
+      this.searcher = Executors.newSingleThreadExecutor(new SearchThreads());
+    }
+  }
+
+  // EFFECT: goes back to finding seams on the world's thread, once the
+  // searcher is idle
+  public void stopBackgroundSearch() {
+    if (this.searcher != null) {
+      this.waitForSearcher();
+      this.searcher.shutdown();
+      this.searcher = null;
+    }
+  }
+
+  // EFFECT: starts looking for the next seam on the searcher
+  void startSearch() {
+    this.pendingSeam = this.searcher.submit(new SeamSearch(this, this.directionToCarve));
+  }
+
+  // EFFECT: drops the pending search, if any. A search that has started
+  // runs to the end on the searcher, and its seam is thrown away.
+  void cancelSearch() {
+    if (this.pendingSeam != null) {
+      this.pendingSeam.cancel(false);
+      this.pendingSeam = null;
+    }
+  }
+
+  // EFFECT: drops the pending search and waits until the searcher is idle,
+  // so that the store and cost table can be changed
+  void waitForSearcher() {
+    this.cancelSearch();
+    if (this.searcher == null) {
+      return;
+    }
+    try {
+      this.searcher.submit(new SearchBarrier()).get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  // EFFECT: takes the seam the searcher found, which must be done, and
+  // paints it
+  void paintFoundSeam() {
+    FoundSeam found;
+    try {
+      found = this.pendingSeam.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    catch (ExecutionException e) {
+      this.pendingSeam = null;
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+    this.pendingSeam = null;
+    this.paintedDirection = found.direction;
+    this.seamLocation = this.seamListOf(found.seam);
+    this.seam.clear();
+    for (int i = 0; i < found.seam.length; i++) {
+      if (found.direction.equals("horizontal")) {
+        this.seam.add(new Posn(i, found.seam[i]));
+      }
+      else {
+        this.seam.add(new Posn(found.seam[i], i));
+      }
+    }
+    this.paintedSeam = true;
+  }
+
+  // Process one tick with a searcher: remove the painted seam and start
+  // looking for the next one, or paint the next seam once the searcher has
+  // found it. The world's thread never waits for the search, so a tick
+  // takes about as long as removing one seam whatever the image's size.
+  void tickInBackground() {
+    if (this.paintedSeam) {
+      if (this.paintedDirection.equals("horizontal")) {
+        this.findAndRemoveHoriSeam();
+      }
+      else {
+        this.findAndRemoveVertSeam();
+      }
+      this.paintedSeam = false;
+      this.startSearch();
+    }
+    else if (this.pendingSeam == null) {
+      this.startSearch();
+    }
+    else if (this.pendingSeam.isDone()) {
+      this.paintFoundSeam();
+    }
+  }
+
   // Process one tick: find and remove a minimum energy seam
   public void onTick() {
     if (this.paused) {
@@ -1040,22 +1741,20 @@ class SeamCarver extends World {
       return;
     }
 
+    if (this.searcher != null) {
+      this.tickInBackground();
+      return;
+    }
+
     if (this.directionToCarve.equals("both")) {
-      if (Math.random() < 0.5) {
-        if (this.height > 1) {
-          this.findAndRemoveHoriSeam();
-        }
-        else if (this.width > 1) {
-          this.findAndRemoveVertSeam();
-        }
+      if (!this.paintedSeam) {
+        this.paintedDirection = this.cheaperDirection();
+      }
+      if (this.paintedDirection.equals("horizontal")) {
+        this.findAndRemoveHoriSeam();
       }
       else {
-        if (this.width > 1) {
-          this.findAndRemoveVertSeam();
-        }
-        else if (this.height > 1) {
-          this.findAndRemoveHoriSeam();
-        }
+        this.findAndRemoveVertSeam();
       }
     }
     else if (this.directionToCarve.equals("horizontal")) {
@@ -1076,16 +1775,61 @@ class SeamCarver extends World {
   public void onKeyEvent(String key) {
     if (key.equals("v")) {
       this.directionToCarve = "vertical";
+      this.cancelSearch();
     }
     else if (key.equals("h")) {
       this.directionToCarve = "horizontal";
+      this.cancelSearch();
     }
     else if (key.equals("b")) {
       this.directionToCarve = "both";
+      this.cancelSearch();
+    }
+    else if (key.equals("n")) {
+      if (this.energyModel.equals("sobel")) {
+        this.useEnergyModel("channels");
+      }
+      else if (this.energyModel.equals("channels")) {
+        this.useEnergyModel("entropy");
+      }
+      else {
+        this.useEnergyModel("sobel");
+      }
+    }
+    else if (key.equals("p")) {
+      if (this.searcher == null) {
+        this.useBackgroundSearch();
+      }
+      else {
+        this.stopBackgroundSearch();
+      }
     }
     else if (key.equals(" ")) {
       this.paused = !this.paused;
     }
+    else if (key.equals("z")) {
+      this.paused = true;
+      this.undoSeam();
+    }
+    else if (key.equals("o")) {
+      this.paused = true;
+      if (this.storeMask() != null && this.store.maskBounds(PixelStore.REMOVE) != null) {
+        this.removeObject();
+      }
+    }
+    else if (key.equals("y")) {
+      this.paused = true;
+      this.redoSeam();
+    }
+    else if (key.equals("r")) {
+      if (this.raster == null) {
+        this.useRaster();
+      }
+      else {
+        this.raster = null;
+        this.frame = null;
+      }
+    }
     else if (key.equals("e")) {
       if (!this.visualMode.equals("byEnergy")) {
         this.visualMode = "byEnergy";
@@ -1098,6 +1842,12 @@ class SeamCarver extends World {
 
   //Create the scene to be displayed
   public WorldScene makeScene() {
+    PhaseStart start = this.timer.start();
+    if (this.raster != null) {
+      WorldScene scene = this.makeRasterScene();
+      this.timer.end("draw", start, this.width, this.height, this.raster.flushed);
+      return scene;
+    }
     WorldScene scene = new WorldScene(this.width, this.height);
     ComputedPixelImage image = new ComputedPixelImage(this.width, this.height);
 
@@ -1107,6 +1857,28 @@ class SeamCarver extends World {
     }
 
     scene.placeImageXY(image, this.width / 2, this.height / 2);
+    this.timer.end("draw", start, this.width, this.height, this.width * this.height);
+    return scene;
+  }
+
+  // Creates the scene from the persistent raster, copying into the frame
+  // only the pixels that changed since the last scene
+  public WorldScene makeRasterScene() {
+    if (!this.raster.visualMode.equals(this.visualMode)) {
+      this.raster.drawAll(this.store, this.visualMode);
+    }
+    int rows = this.raster.dirtyLow.length;
+    if (this.frame.getWidth() != this.raster.stride || this.frame.getHeight() != rows) {
+      this.frame = new ComputedPixelImage(this.raster.stride, rows);
+      this.raster.drawAll(this.store, this.visualMode);
+    }
+    if (this.paintedSeam) {
+      this.raster.paintRed(this.seam);
+    }
+    this.raster.flushTo(this.frame);
+
+    WorldScene scene = new WorldScene(this.width, this.height);
+    scene.placeImageXY(this.frame, this.raster.stride / 2, rows / 2);
     return scene;
   }
 
@@ -1135,7 +1907,15 @@ class SeamCarver extends World {
       return;
     }
 
-    if (this.visualMode.equals("normal")) {
+    if (this.storeMode.equals("flat")) {
+      if (this.visualMode.equals("normal")) {
+        image.setPixel(x, y, this.store.getColor(x, y));
+      }
+      else if (this.visualMode.equals("byEnergy")) {
+        image.setPixel(x, y, this.store.energyColor(this.store.getEnergy(x, y)));
+      }
+    }
+    else if (this.visualMode.equals("normal")) {
       this.getPixelAt(y, x).drawToImage(image, x, y);
     }
     else if (this.visualMode.equals("byEnergy")) {
@@ -1650,6 +2430,380 @@ class ExamplesSeamCarving {
     t.checkExpect(newImage, testImage);
   }
 
+  void testFlatStoreMode(Tester t) {
+    init();
+    SeamCarver graph = new SeamCarver("src/Balloons.jpg");
+    SeamCarver flat = new SeamCarver("src/Balloons.jpg", "flat");
+    t.checkExpect(flat.grid.size(), 0);
+    t.checkExpect(flat.store.getWidth(), graph.width);
+    t.checkExpect(flat.store.height, graph.height);
+    t.checkExpect(flat.store.getColor(5, 7), graph.getPixelAt(7, 5).getColor());
+
+    flat.onTick();
+    t.checkExpect(flat.seamLocation.size(), flat.height);
+    flat.onTick();
+    t.checkExpect(flat.width, graph.width - 1);
+    t.checkExpect(flat.store.getWidth(), graph.width - 1);
+
+    flat.directionToCarve = "horizontal";
+    flat.onTick();
+    flat.onTick();
+    t.checkExpect(flat.height, graph.height - 1);
+    t.checkExpect(flat.store.height, graph.height - 1);
+    t.checkExpect(flat.store.getEnergy(3, 4), flat.store.computeEnergy(3, 4));
+
+    ComputedPixelImage image = new ComputedPixelImage(flat.width, 1);
+    flat.drawRowPixels(0, 0, image);
+    t.checkExpect(image.getColorAt(1, 0), flat.store.getColor(1, 0));
+  }
+
+  void testArrayCostMode(Tester t) {
+    init();
+    SeamCarver memo = new SeamCarver("src/Balloons.jpg", "flat");
+    SeamCarver array = new SeamCarver("src/Balloons.jpg", "flat");
+    array.costMode = "array";
+
+    memo.onTick();
+    array.onTick();
+    t.checkExpect(array.seamLocation, memo.seamLocation);
+    t.checkExpect(array.seam, memo.seam);
+    memo.onTick();
+    array.onTick();
+    t.checkExpect(array.width, memo.width);
+
+    memo.directionToCarve = "horizontal";
+    array.directionToCarve = "horizontal";
+    memo.onTick();
+    array.onTick();
+    t.checkExpect(array.seamLocation, memo.seamLocation);
+
+    SeamCarver incremental = new SeamCarver("src/Balloons.jpg", "flat");
+    incremental.costMode = "incremental";
+    SeamCarver full = new SeamCarver("src/Balloons.jpg", "flat");
+    full.costMode = "array";
+    for (int i = 0; i < 6; i++) {
+      incremental.onTick();
+      full.onTick();
+      t.checkExpect(incremental.seamLocation, full.seamLocation);
+    }
+    t.checkExpect(incremental.costTable.cellsSolved < incremental.width * incremental.height,
+        true);
+
+    SeamCarver parallel = new SeamCarver("src/Balloons.jpg", "flat", 4);
+    SeamCarver sequential = new SeamCarver("src/Balloons.jpg", "flat", 1);
+    t.checkExpect(parallel.store.energy, sequential.store.energy);
+    parallel.costMode = "parallel";
+    sequential.costMode = "array";
+    parallel.onTick();
+    sequential.onTick();
+    t.checkExpect(parallel.seamLocation, sequential.seamLocation);
+    parallel.onTick();
+    sequential.onTick();
+    parallel.directionToCarve = "horizontal";
+    sequential.directionToCarve = "horizontal";
+    parallel.onTick();
+    sequential.onTick();
+    t.checkExpect(parallel.seamLocation, sequential.seamLocation);
+    SeamCarver parallelGraph = new SeamCarver("src/Balloons.jpg", "graph", 4);
+    SeamCarver sequentialGraph = new SeamCarver("src/Balloons.jpg", "graph", 1);
+    parallelGraph.costMode = "array";
+    sequentialGraph.costMode = "array";
+    parallelGraph.onTick();
+    sequentialGraph.onTick();
+    t.checkExpect(parallelGraph.seamLocation, sequentialGraph.seamLocation);
+    parallel.parallelEnergy.shutdown();
+    parallelGraph.parallelEnergy.shutdown();
+
+    SeamCarver graph = this.createTestSeamCarver();
+    graph.costMode = "array";
+    graph.directionToCarve = "vertical";
+    graph.onTick();
+    t.checkExpect(graph.seamLocation.size(), 2);
+    graph.onTick();
+    t.checkExpect(graph.width, 1);
+    t.checkExpect(graph.grid.get(0).size(), 1);
+  }
+
+  // Returns whether the first width by height pixels of the raster frame
+  // match a picture drawn pixel by pixel
+  boolean frameMatchesDrawing(SeamCarver carver) {
+    ComputedPixelImage drawn = new ComputedPixelImage(carver.width, carver.height);
+    carver.drawRows(0, drawn);
+    if (carver.paintedSeam) {
+      carver.paintRedSeam(drawn);
+    }
+    boolean same = true;
+    for (int y = 0; y < carver.height; y++) {
+      for (int x = 0; x < carver.width; x++) {
+        same = same && carver.frame.getColorAt(x, y).equals(drawn.getColorAt(x, y));
+      }
+    }
+    return same;
+  }
+
+  void testRasterRendering(Tester t) {
+    init();
+    SeamCarver carver = new SeamCarver("src/Balloons.jpg");
+    carver.costMode = "array";
+    carver.onKeyEvent("r");
+    t.checkExpect(carver.storeMode, "flat");
+    int width = carver.width;
+    for (int i = 0; i < 4; i++) {
+      carver.onTick();
+      carver.makeScene();
+      t.checkExpect(this.frameMatchesDrawing(carver), true);
+    }
+    t.checkExpect(carver.width, width - 2);
+    t.checkExpect(carver.frame.getColorAt(width - 1, 5), new Color(0, 0, 0, 0));
+
+    carver.onKeyEvent("e");
+    carver.directionToCarve = "horizontal";
+    for (int i = 0; i < 3; i++) {
+      carver.onTick();
+      carver.makeScene();
+      t.checkExpect(this.frameMatchesDrawing(carver), true);
+    }
+
+    carver.enlargeTo(width + 5, carver.height);
+    carver.makeScene();
+    t.checkExpect(carver.raster.stride, width + 5);
+    t.checkExpect(this.frameMatchesDrawing(carver), true);
+
+    carver.onKeyEvent("r");
+    t.checkExpect(carver.raster, null);
+  }
+
+  void testPyramidCostMode(Tester t) {
+    init();
+    SeamCarver coarse = new SeamCarver("src/Balloons.jpg", "flat");
+    coarse.costMode = "pyramid";
+    int width = coarse.width;
+    coarse.onTick();
+    t.checkExpect(coarse.seamLocation.size(), coarse.height);
+    t.checkExpect(coarse.pyramid.cellsSolved < coarse.width * coarse.height / 4, true);
+    coarse.onTick();
+    t.checkExpect(coarse.width, width - 1);
+
+    SeamCarver wide = new SeamCarver("src/Balloons.jpg", "flat");
+    SeamCarver exact = new SeamCarver("src/Balloons.jpg", "flat");
+    wide.costMode = "pyramid";
+    wide.pyramid = new SeamPyramid(wide.width);
+    exact.costMode = "array";
+    wide.directionToCarve = "horizontal";
+    exact.directionToCarve = "horizontal";
+    wide.onTick();
+    exact.onTick();
+    t.checkExpect(wide.seamLocation, exact.seamLocation);
+  }
+
+  void testForwardEnergyMode(Tester t) {
+    init();
+    SeamCarver flat = new SeamCarver("src/Balloons.jpg", "flat");
+    SeamCarver graph = new SeamCarver("src/Balloons.jpg");
+    flat.energyMode = "forward";
+    graph.energyMode = "forward";
+    float[] brightness = java.util.Arrays.copyOf(flat.store.brightness,
+        flat.store.brightness.length);
+    int[] expected = new SeamCostTable().findVertSeamForward(brightness, flat.width, flat.width,
+        flat.height);
+
+    flat.onTick();
+    graph.onTick();
+    t.checkExpect(flat.seamArray(), expected);
+    t.checkExpect(graph.seamLocation.size(), graph.height);
+    flat.onTick();
+    graph.onTick();
+    t.checkExpect(flat.width, graph.width);
+
+    flat.directionToCarve = "horizontal";
+    flat.onTick();
+    t.checkExpect(flat.seamLocation.size(), flat.width);
+    flat.onTick();
+    t.checkExpect(flat.store.height, flat.height);
+  }
+
+  void testBothModeOrder(Tester t) {
+    init();
+    SeamCarver first = new SeamCarver("src/Balloons.jpg", "flat");
+    SeamCarver second = new SeamCarver("src/Balloons.jpg", "flat");
+    first.directionToCarve = "both";
+    second.directionToCarve = "both";
+    for (int i = 0; i < 8; i++) {
+      first.onTick();
+      second.onTick();
+      t.checkExpect(first.paintedDirection, second.paintedDirection);
+      t.checkExpect(first.seamLocation, second.seamLocation);
+    }
+    t.checkExpect(first.store.argb, second.store.argb);
+
+    // the seam painted on one tick is the one removed on the next
+    first.onTick();
+    String painted = first.paintedDirection;
+    int width = first.width;
+    first.onTick();
+    t.checkExpect(first.width, painted.equals("vertical") ? width - 1 : width);
+  }
+
+  void testCarveTo(Tester t) {
+    init();
+    SeamCarver graph = new SeamCarver("src/Balloons.jpg");
+    int width = graph.width;
+    int height = graph.height;
+    graph.carveTo(width * 7 / 10, height - 5);
+    t.checkExpect(graph.storeMode, "flat");
+    t.checkExpect(graph.grid.size(), 0);
+    t.checkExpect(graph.width, width * 7 / 10);
+    t.checkExpect(graph.height, height - 5);
+    t.checkExpect(graph.store.getWidth(), graph.width);
+
+    graph.costMode = "incremental";
+    graph.onTick();
+    graph.onTick();
+    t.checkExpect(graph.width, width * 7 / 10 - 1);
+    t.checkException(new IllegalArgumentException("Cannot carve to a size larger than the image"),
+        graph, "carveTo", width, height);
+
+    graph.enlargeTo(width, height);
+    t.checkExpect(graph.width, width);
+    t.checkExpect(graph.height, height);
+    t.checkExpect(graph.store.getEnergy(9, 9), graph.store.computeEnergy(9, 9));
+  }
+
+  void testEnergyModels(Tester t) {
+    init();
+    SeamCarver carver = new SeamCarver("src/Balloons.jpg");
+    carver.costMode = "array";
+    carver.onKeyEvent("n");
+    t.checkExpect(carver.storeMode, "flat");
+    t.checkExpect(carver.energyModel, "channels");
+    t.checkExpect(carver.store.energyFunction instanceof ChannelGradientEnergy, true);
+    carver.onTick();
+    carver.onTick();
+    t.checkExpect(carver.width, carver.store.getWidth());
+    t.checkInexact(carver.store.getEnergy(40, 40),
+        carver.store.energyFunction.energyAt(carver.store, 40, 40), 0.00001);
+
+    carver.onTick();
+    carver.onKeyEvent("n");
+    t.checkExpect(carver.energyModel, "entropy");
+    t.checkExpect(carver.paintedSeam, false);
+    carver.onKeyEvent("n");
+    t.checkExpect(carver.energyModel, "sobel");
+    t.checkExpect(carver.store.energyFunction, null);
+    t.checkExpect(carver.store.getEnergy(40, 40), carver.store.computeEnergy(40, 40));
+    t.checkException(new IllegalArgumentException("Unknown energy model: laplace"), carver,
+        "useEnergyModel", "laplace");
+
+    SeamCarver salient = new SeamCarver("src/Balloons.jpg", "flat");
+    salient.useSaliency("src/Balloons.jpg");
+    t.checkExpect(salient.energyModel, "saliency");
+    t.checkExpect(salient.store.planes.length, 2);
+  }
+
+  void testMasks(Tester t) {
+    init();
+    SeamCarver tall = new SeamCarver("src/Balloons.jpg", "flat");
+    tall.costMode = "incremental";
+    t.checkException(new IllegalStateException("No object to remove"), tall, "removeObject");
+    tall.markMask(100, 50, 111, 200, PixelStore.REMOVE);
+    int removed = tall.removeObject();
+    t.checkExpect(removed >= 12, true);
+    t.checkExpect(tall.store.countMask(PixelStore.REMOVE), 0);
+    t.checkExpect(tall.width, 800 - removed);
+    t.checkExpect(tall.height, 343);
+    tall.scrubTo(0);
+    t.checkExpect(tall.width, 800);
+    t.checkExpect(tall.store.countMask(PixelStore.REMOVE), 12 * 151);
+    t.checkExpect(tall.store.maskBounds(PixelStore.REMOVE), new int[] { 100, 50, 111, 200 });
+
+    SeamCarver wide = new SeamCarver("src/Balloons.jpg", "flat");
+    wide.costMode = "array";
+    wide.markMask(300, 100, 400, 105, PixelStore.REMOVE);
+    wide.onKeyEvent("o");
+    t.checkExpect(wide.store.countMask(PixelStore.REMOVE), 0);
+    t.checkExpect(wide.width, 800);
+    t.checkExpect(wide.height < 343 - 5, true);
+    wide.clearMask();
+    t.checkExpect(wide.store.mask, null);
+
+    SeamCarver covered = new SeamCarver("src/Balloons.jpg", "flat");
+    covered.costMode = "array";
+    covered.carveTo(40, 20);
+    covered.markMask(0, 0, 39, 19, PixelStore.REMOVE);
+    t.checkExpect(covered.removeObject(), 19);
+    t.checkExpect(covered.height, 1);
+    t.checkExpect(covered.width, 40);
+    t.checkExpect(covered.store.countMask(PixelStore.REMOVE), 40);
+    covered.onKeyEvent("o");
+    t.checkExpect(covered.height, 1);
+    SeamCarver coveredTall = new SeamCarver("src/Balloons.jpg", "flat");
+    coveredTall.costMode = "array";
+    coveredTall.carveTo(20, 40);
+    coveredTall.markMask(0, 0, 19, 39, PixelStore.REMOVE);
+    t.checkExpect(coveredTall.removeObject(), 19);
+    t.checkExpect(coveredTall.width, 1);
+    t.checkExpect(coveredTall.height, 40);
+
+    SeamCarver kept = new SeamCarver("src/Balloons.jpg", "flat");
+    kept.costMode = "array";
+    kept.markMask(200, 100, 260, 160, PixelStore.PROTECT);
+    for (int i = 0; i < 6; i++) {
+      kept.onTick();
+    }
+    kept.directionToCarve = "both";
+    for (int i = 0; i < 6; i++) {
+      kept.onTick();
+    }
+    kept.carveTo(760, 330);
+    t.checkExpect(kept.width, 760);
+    t.checkExpect(kept.store.countMask(PixelStore.PROTECT), 61 * 61);
+  }
+
+  void testUndoAndRedoSeams(Tester t) {
+    init();
+    SeamCarver flat = new SeamCarver("src/Balloons.jpg", "flat");
+    flat.costMode = "incremental";
+    flat.directionToCarve = "both";
+    flat.useRaster();
+    int width = flat.width;
+    int height = flat.height;
+    ArrayList<Double> original = new ExamplesPixelStore().visiblePixels(flat.store);
+    for (int i = 0; i < 12; i++) {
+      flat.onTick();
+    }
+    t.checkExpect(flat.history.position, 6);
+    t.checkExpect(flat.width + flat.height, width + height - 6);
+    ArrayList<Double> carved = new ExamplesPixelStore().visiblePixels(flat.store);
+    int[] next = flat.findVertSeamInArray();
+
+    flat.onTick();
+    flat.onKeyEvent("z");
+    t.checkExpect(flat.paused, true);
+    t.checkExpect(flat.paintedSeam, false);
+    t.checkExpect(flat.history.position, 5);
+    flat.scrubTo(0);
+    t.checkExpect(flat.width, width);
+    t.checkExpect(flat.height, height);
+    t.checkExpect(new ExamplesPixelStore().visiblePixels(flat.store), original);
+    flat.makeScene();
+    t.checkExpect(this.frameMatchesDrawing(flat), true);
+
+    flat.scrubTo(100);
+    t.checkExpect(flat.history.position, 6);
+    t.checkExpect(new ExamplesPixelStore().visiblePixels(flat.store), carved);
+    t.checkExpect(flat.findVertSeamInArray(), next);
+    flat.onKeyEvent("z");
+    flat.onKeyEvent("y");
+    flat.makeScene();
+    t.checkExpect(this.frameMatchesDrawing(flat), true);
+
+    SeamCarver graph = new SeamCarver("src/Balloons.jpg");
+    graph.onTick();
+    graph.onTick();
+    graph.onKeyEvent("z");
+    t.checkExpect(graph.width, width - 1);
+  }
+
   void testPause(Tester t) {
     this.init();
 
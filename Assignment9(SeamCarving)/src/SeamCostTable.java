@@ -0,0 +1,1196 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import tester.*;
+
+// Cumulative seam costs computed bottom-up, line by line, into primitive
+// arrays. A vertical seam runs down the rows of an energy plane and a
+// horizontal seam runs across its columns; both are solved by the same loop,
+// which walks "lines" (the direction the seam travels) and "positions" (where
+// the seam may sit on each line).
+class SeamCostTable {
+  // Cumulative costs of the line most recently solved
+  double[] previousCosts;
+  // Cumulative costs of the line being solved
+  double[] currentCosts;
+  // Step (-1, 0 or 1) from each cell to the cell the seam came from on the
+  // previous line, indexed by line * positions + position
+  byte[] cameFrom;
+  // Total cost of the last seam found
+  double lastSeamCost;
+  // Cumulative cost of every cell, laid out like the energy plane, kept
+  // between seams by the incremental mode
+  double[] costs;
+  // Step of every cell, laid out like the energy plane, kept between seams
+  // by the incremental mode
+  byte[] steps;
+  // Direction the kept costs were solved for: "none", "vertical" or
+  // "horizontal"
+  String solvedDirection;
+  // Seam removed from the image since the kept costs were last brought up
+  // to date, or null if there is none
+  int[] pendingSeam;
+  // Number of cells solved by the last seam search
+  int cellsSolved;
+  // Number of positions per line when the kept costs were last solved
+  int lastPositions;
+  // Mask laid out like the energy plane (see PixelStore.mask), whose value
+  // times maskBias is added to each cell's energy as it is solved, or null
+  byte[] mask;
+  // Cost added to a protected cell, or taken off a cell to remove, by the
+  // last solve with a mask (see updateMaskBias)
+  double maskBias;
+  // Highest energy of a cell that maskBias was derived from
+  double maskEnergyLimit;
+  // Whether the incremental mode solved a cell with more energy than
+  // maskEnergyLimit, so that maskBias no longer outweighs every seam
+  boolean maskBiasOutgrown;
+
+  // Chunks of a line solved in parallel have at least this many positions
+  static final int MIN_CHUNK_POSITIONS = 64;
+
+  // Creates an empty table; arrays grow on first use
+  SeamCostTable() {
+    this.previousCosts = new double[0];
+    this.currentCosts = new double[0];
+    this.cameFrom = new byte[0];
+    this.lastSeamCost = 0;
+    this.costs = new double[0];
+    this.steps = new byte[0];
+    this.solvedDirection = "none";
+    this.pendingSeam = null;
+    this.cellsSolved = 0;
+    this.lastPositions = 0;
+    this.mask = null;
+    this.maskBias = 0;
+    this.maskEnergyLimit = 0;
+    this.maskBiasOutgrown = false;
+  }
+
+  // Finds the minimum vertical seam of the energy plane: one x per row
+  int[] findVertSeam(double[] energy, int stride, int width, int height) {
+    return this.findSeam(energy, stride, 1, height, width);
+  }
+
+  // Finds the minimum horizontal seam of the energy plane: one y per column
+  int[] findHoriSeam(double[] energy, int stride, int width, int height) {
+    return this.findSeam(energy, 1, stride, width, height);
+  }
+
+  // EFFECT: makes sure the arrays can hold a table of the given size
+  void ensureCapacity(int lines, int positions) {
+    if (this.previousCosts.length < positions) {
+      this.previousCosts = new double[positions];
+      this.currentCosts = new double[positions];
+    }
+    if (this.cameFrom.length < lines * positions) {
+      this.cameFrom = new byte[lines * positions];
+    }
+  }
+
+  // Finds the minimum seam of the energy plane, where the cell at (line, pos)
+  // has energy energy[line * lineStep + pos * posStep]
+  int[] findSeam(double[] energy, int lineStep, int posStep, int lines, int positions) {
+    this.ensureCapacity(lines, positions);
+    this.updateMaskBias(energy, lineStep, posStep, lines, positions, null, null);
+    this.solveFirstLine(energy, posStep, positions);
+    for (int line = 1; line < lines; line++) {
+      this.solveLine(energy, line, lineStep, posStep, 0, positions, positions,
+          this.previousCosts, this.currentCosts);
+      this.swapLines();
+    }
+    int end = this.findMinEnd(positions);
+    this.lastSeamCost = this.previousCosts[end];
+    this.cellsSolved = lines * positions;
+    return this.traceSeam(end, lines, positions);
+  }
+
+  // Finds the minimum seam of the energy plane among the seams that stay
+  // between low[line] and high[line] (inclusive) on every line. Only the
+  // cells inside that band are solved. Each band must overlap the band of
+  // the line before it closely enough for a seam to step between them.
+  int[] findSeamInBand(double[] energy, int lineStep, int posStep, int lines, int positions,
+      int[] low, int[] high) {
+    this.ensureCapacity(lines, positions);
+    this.updateMaskBias(energy, lineStep, posStep, lines, positions, low, high);
+    int solved = high[0] - low[0] + 1;
+    for (int pos = low[0]; pos <= high[0]; pos++) {
+      this.previousCosts[pos] = energy[pos * posStep] + this.maskCost(pos * posStep);
+    }
+    for (int line = 1; line < lines; line++) {
+      int base = line * lineStep;
+      int row = line * positions;
+      int previousLow = low[line - 1];
+      int previousHigh = high[line - 1];
+      for (int pos = low[line]; pos <= high[line]; pos++) {
+        double center = Double.MAX_VALUE;
+        if (pos >= previousLow && pos <= previousHigh) {
+          center = this.previousCosts[pos];
+        }
+        double before = Double.MAX_VALUE;
+        if (pos - 1 >= previousLow && pos - 1 <= previousHigh) {
+          before = this.previousCosts[pos - 1];
+        }
+        double after = Double.MAX_VALUE;
+        if (pos + 1 >= previousLow && pos + 1 <= previousHigh) {
+          after = this.previousCosts[pos + 1];
+        }
+
+        double minCost = center;
+        if (before < minCost) {
+          minCost = before;
+        }
+        if (after < minCost) {
+          minCost = after;
+        }
+
+        byte step = 0;
+        if (before < center && before < after) {
+          step = -1;
+        }
+        else if (after < center && after < before) {
+          step = 1;
+        }
+
+        int i = base + pos * posStep;
+        this.currentCosts[pos] = minCost + energy[i] + this.maskCost(i);
+        this.cameFrom[row + pos] = step;
+      }
+      solved += high[line] - low[line] + 1;
+      this.swapLines();
+    }
+
+    int end = low[lines - 1];
+    for (int pos = end + 1; pos <= high[lines - 1]; pos++) {
+      if (this.previousCosts[pos] < this.previousCosts[end]) {
+        end = pos;
+      }
+    }
+    this.lastSeamCost = this.previousCosts[end];
+    this.cellsSolved = solved;
+    return this.traceSeam(end, lines, positions);
+  }
+
+  // Finds the vertical seam whose removal adds the least forward energy to
+  // the brightness plane: one x per row
+  int[] findVertSeamForward(float[] brightness, int stride, int width, int height) {
+    return this.findSeamForward(brightness, stride, 1, height, width);
+  }
+
+  // Finds the horizontal seam whose removal adds the least forward energy to
+  // the brightness plane: one y per column
+  int[] findHoriSeamForward(float[] brightness, int stride, int width, int height) {
+    return this.findSeamForward(brightness, 1, stride, width, height);
+  }
+
+  // Finds the minimum seam by forward energy (Rubinstein, Shamir and Avidan):
+  // instead of summing the energy of the pixels removed, a seam costs the
+  // brightness differences between the pixels that become neighbors once it
+  // is gone. Stepping straight on costs C_U = |I(p + 1) - I(p - 1)|, and
+  // stepping from p - 1 or p + 1 on the previous line adds the difference
+  // between I(p) there and I(p - 1) or I(p + 1) here (C_L and C_R). The costs
+  // are computed from the brightness plane inside the loop, so there is no
+  // energy pass at all. A difference with a neighbor outside the image is 0.
+  int[] findSeamForward(float[] brightness, int lineStep, int posStep, int lines,
+      int positions) {
+    this.ensureCapacity(lines, positions);
+    // a step costs at most 2 when brightness is between 0 and 1
+    this.maskBias = 3.0 * lines;
+    for (int pos = 0; pos < positions; pos++) {
+      this.previousCosts[pos] = this.upCost(brightness, 0, pos, posStep, positions)
+          + this.maskCost(pos * posStep);
+    }
+    for (int line = 1; line < lines; line++) {
+      this.solveForwardLine(brightness, line, lineStep, posStep, positions);
+      this.swapLines();
+    }
+    int end = this.findMinEnd(positions);
+    this.lastSeamCost = this.previousCosts[end];
+    this.cellsSolved = lines * positions;
+    return this.traceSeam(end, lines, positions);
+  }
+
+  // Returns C_U of the cell at pos on the line starting at base: the
+  // difference between its two neighbors on the line, or 0 at either end
+  double upCost(float[] brightness, int base, int pos, int posStep, int positions) {
+    if (pos == 0 || pos == positions - 1) {
+      return 0;
+    }
+    return Math.abs(brightness[base + (pos + 1) * posStep]
+        - brightness[base + (pos - 1) * posStep]);
+  }
+
+  // EFFECT: solves the forward costs of every cell of the given line into
+  // currentCosts, preferring the straight step, then the step from before,
+  // when costs tie. The cell's mask cost is part of every step's C_U.
+  void solveForwardLine(float[] brightness, int line, int lineStep, int posStep,
+      int positions) {
+    int base = line * lineStep;
+    int above = base - lineStep;
+    int row = line * positions;
+    for (int pos = 0; pos < positions; pos++) {
+      double straight = this.upCost(brightness, base, pos, posStep, positions)
+          + this.maskCost(base + pos * posStep);
+      double up = brightness[above + pos * posStep];
+      double center = this.previousCosts[pos] + straight;
+      double before = Double.MAX_VALUE;
+      if (pos > 0) {
+        before = this.previousCosts[pos - 1] + straight
+            + Math.abs(up - brightness[base + (pos - 1) * posStep]);
+      }
+      double after = Double.MAX_VALUE;
+      if (pos < positions - 1) {
+        after = this.previousCosts[pos + 1] + straight
+            + Math.abs(up - brightness[base + (pos + 1) * posStep]);
+      }
+
+      double minCost = center;
+      byte step = 0;
+      if (before < minCost) {
+        minCost = before;
+        step = -1;
+      }
+      if (after < minCost) {
+        minCost = after;
+        step = 1;
+      }
+
+      this.currentCosts[pos] = minCost;
+      this.cameFrom[row + pos] = step;
+    }
+  }
+
+  // Finds the minimum vertical seam like findVertSeam, but keeps the whole
+  // cost table so that after vertSeamRemoved only the cells the removal can
+  // affect are solved again
+  int[] findVertSeamIncremental(double[] energy, int stride, int width, int height) {
+    return this.findSeamIncremental("vertical", energy, stride, 1, height, width);
+  }
+
+  // Finds the minimum horizontal seam like findHoriSeam, but keeps the whole
+  // cost table so that after horiSeamRemoved only the cells the removal can
+  // affect are solved again
+  int[] findHoriSeamIncremental(double[] energy, int stride, int width, int height) {
+    return this.findSeamIncremental("horizontal", energy, 1, stride, width, height);
+  }
+
+  // EFFECT: tells this table that the given vertical seam was removed from
+  // the image (and that the energy near it was recomputed)
+  void vertSeamRemoved(int[] seam, int stride) {
+    this.seamRemoved("vertical", seam, stride, 1);
+  }
+
+  // EFFECT: tells this table that the given horizontal seam was removed from
+  // the image (and that the energy near it was recomputed)
+  void horiSeamRemoved(int[] seam, int stride) {
+    this.seamRemoved("horizontal", seam, 1, stride);
+  }
+
+  // EFFECT: removes the seam's cells from the kept table if it was solved in
+  // the seam's direction, or forgets the kept table otherwise
+  void seamRemoved(String direction, int[] seam, int lineStep, int posStep) {
+    if (!this.solvedDirection.equals(direction) || this.pendingSeam != null) {
+      this.solvedDirection = "none";
+      this.pendingSeam = null;
+      return;
+    }
+    for (int line = 0; line < seam.length; line++) {
+      int base = line * lineStep;
+      int last = this.lastPositions - 1;
+      for (int pos = seam[line]; pos < last; pos++) {
+        this.costs[base + pos * posStep] = this.costs[base + (pos + 1) * posStep];
+        this.steps[base + pos * posStep] = this.steps[base + (pos + 1) * posStep];
+      }
+    }
+    this.pendingSeam = seam;
+  }
+
+  // Finds the minimum seam into the kept table, solving every cell when the
+  // table is not usable and otherwise only the cells near the pending seam
+  int[] findSeamIncremental(String direction, double[] energy, int lineStep, int posStep,
+      int lines, int positions) {
+    if (this.costs.length < energy.length) {
+      this.costs = new double[energy.length];
+      this.steps = new byte[energy.length];
+      this.solvedDirection = "none";
+    }
+
+    this.cellsSolved = 0;
+    this.maskBiasOutgrown = false;
+    if (this.solvedDirection.equals(direction) && this.pendingSeam != null
+        && this.lastPositions == positions + 1) {
+      this.cellsSolved = this.resolveNearSeam(energy, lineStep, posStep, lines, positions);
+    }
+    else {
+      this.maskBiasOutgrown = true;
+    }
+    if (this.maskBiasOutgrown) {
+      this.updateMaskBias(energy, lineStep, posStep, lines, positions, null, null);
+      for (int line = 0; line < lines; line++) {
+        this.cellsSolved += this.solveKeptLine(energy, line, lineStep, posStep, 0,
+            positions - 1, positions);
+      }
+    }
+    this.solvedDirection = direction;
+    this.pendingSeam = null;
+    this.lastPositions = positions;
+
+    int lastLine = (lines - 1) * lineStep;
+    int end = 0;
+    for (int pos = 1; pos < positions; pos++) {
+      if (this.costs[lastLine + pos * posStep] < this.costs[lastLine + end * posStep]) {
+        end = pos;
+      }
+    }
+    this.lastSeamCost = this.costs[lastLine + end * posStep];
+
+    int[] seam = new int[lines];
+    int pos = end;
+    for (int line = lines - 1; line > 0; line--) {
+      seam[line] = pos;
+      pos += this.steps[line * lineStep + pos * posStep];
+    }
+    if (lines > 0) {
+      seam[0] = pos;
+    }
+    return seam;
+  }
+
+  // EFFECT: solves the kept cells that the pending seam's removal can change,
+  // and returns how many cells were solved. A cell has to be solved again if
+  // its energy or its parents changed (the band next to the seam), or if one
+  // of its parents' costs changed; once a line's costs come out the same as
+  // before, nothing below the band has to be solved on the next line.
+  int resolveNearSeam(double[] energy, int lineStep, int posStep, int lines, int positions) {
+    int[] seam = this.pendingSeam;
+    int count = 0;
+    int changedLow = Integer.MAX_VALUE;
+    int changedHigh = Integer.MIN_VALUE;
+    for (int line = 0; line < lines; line++) {
+      int low = seam[line];
+      int high = seam[line];
+      if (line > 0) {
+        low = Math.min(low, seam[line - 1]);
+        high = Math.max(high, seam[line - 1]);
+      }
+      if (line < lines - 1) {
+        low = Math.min(low, seam[line + 1]);
+        high = Math.max(high, seam[line + 1]);
+      }
+      low = low - 1;
+      if (changedLow <= changedHigh) {
+        low = Math.min(low, changedLow - 1);
+        high = Math.max(high, changedHigh + 1);
+      }
+      low = Math.max(0, low);
+      high = Math.min(positions - 1, high);
+
+      changedLow = Integer.MAX_VALUE;
+      changedHigh = Integer.MIN_VALUE;
+      for (int pos = low; pos <= high; pos++) {
+        int i = line * lineStep + pos * posStep;
+        double before = this.costs[i];
+        this.solveKeptLine(energy, line, lineStep, posStep, pos, pos, positions);
+        if (this.costs[i] != before) {
+          changedLow = Math.min(changedLow, pos);
+          changedHigh = Math.max(changedHigh, pos);
+        }
+      }
+      count += Math.max(0, high - low + 1);
+    }
+    return count;
+  }
+
+  // EFFECT: solves the kept cells of the given line from position start to
+  // end (inclusive) with the same rules as solveLine, and returns how many
+  // cells were solved
+  int solveKeptLine(double[] energy, int line, int lineStep, int posStep, int start, int end,
+      int positions) {
+    int base = line * lineStep;
+    int previousBase = base - lineStep;
+    for (int pos = start; pos <= end; pos++) {
+      int i = base + pos * posStep;
+      if (line == 0) {
+        this.costs[i] = energy[i] + this.maskCost(i);
+        this.steps[i] = 0;
+      }
+      else {
+        int parent = previousBase + pos * posStep;
+        double center = this.costs[parent];
+        double before = pos > 0 ? this.costs[parent - posStep] : Double.MAX_VALUE;
+        double after = pos < positions - 1 ? this.costs[parent + posStep] : Double.MAX_VALUE;
+
+        double minCost = center;
+        if (before < minCost) {
+          minCost = before;
+        }
+        if (after < minCost) {
+          minCost = after;
+        }
+
+        byte step = 0;
+        if (before < center && before < after) {
+          step = -1;
+        }
+        else if (after < center && after < before) {
+          step = 1;
+        }
+
+        this.costs[i] = minCost + energy[i] + this.maskCost(i);
+        this.steps[i] = step;
+      }
+      if (this.mask != null && energy[i] > this.maskEnergyLimit) {
+        this.maskBiasOutgrown = true;
+      }
+    }
+    return end - start + 1;
+  }
+
+  // EFFECT: fills previousCosts with the energies of the first line
+  void solveFirstLine(double[] energy, int posStep, int positions) {
+    for (int pos = 0; pos < positions; pos++) {
+      this.previousCosts[pos] = energy[pos * posStep] + this.maskCost(pos * posStep);
+    }
+  }
+
+  // Returns what the mask adds to the energy of the cell at index i
+  double maskCost(int i) {
+    if (this.mask == null) {
+      return 0;
+    }
+    return this.maskBias * this.mask[i];
+  }
+
+  // EFFECT: when there is a mask, derives maskBias from the highest energy
+  // of the cells to be solved (from low[line] to high[line] of every line,
+  // or all of them when low is null): (highest + 1) * lines is more than
+  // any seam through unmasked cells costs, however large the image. So a
+  // seam crosses a protected cell only when it has to, and crosses an
+  // object to remove whenever it can.
+  void updateMaskBias(double[] energy, int lineStep, int posStep, int lines, int positions,
+      int[] low, int[] high) {
+    if (this.mask == null) {
+      return;
+    }
+    double highest = 0;
+    for (int line = 0; line < lines; line++) {
+      int first = low == null ? 0 : low[line];
+      int last = high == null ? positions - 1 : high[line];
+      for (int pos = first; pos <= last; pos++) {
+        highest = Math.max(highest, energy[line * lineStep + pos * posStep]);
+      }
+    }
+    this.maskEnergyLimit = highest;
+    this.maskBias = (highest + 1) * lines;
+  }
+
+  // EFFECT: solves the cells of the given line from position start up to
+  // (not including) end into current, using previous as the costs of the
+  // line before it. Ties are broken the same way as SeamInfo's memoized costs
+  // and traces, so both find identical seams.
+  void solveLine(double[] energy, int line, int lineStep, int posStep, int start, int end,
+      int positions, double[] previous, double[] current) {
+    int base = line * lineStep;
+    int row = line * positions;
+    for (int pos = start; pos < end; pos++) {
+      double center = previous[pos];
+      double before = pos > 0 ? previous[pos - 1] : Double.MAX_VALUE;
+      double after = pos < positions - 1 ? previous[pos + 1] : Double.MAX_VALUE;
+
+      double minCost = center;
+      if (before < minCost) {
+        minCost = before;
+      }
+      if (after < minCost) {
+        minCost = after;
+      }
+
+      byte step = 0;
+      if (before < center && before < after) {
+        step = -1;
+      }
+      else if (after < center && after < before) {
+        step = 1;
+      }
+
+      int i = base + pos * posStep;
+      current[pos] = minCost + energy[i] + this.maskCost(i);
+      this.cameFrom[row + pos] = step;
+    }
+  }
+
+  // Finds the minimum vertical seam like findVertSeam, solving each row in
+  // column chunks on the given pool
+  int[] findVertSeamParallel(double[] energy, int stride, int width, int height,
+      ForkJoinPool pool, int chunks) {
+    return this.findSeamParallel(energy, stride, 1, height, width, pool, chunks);
+  }
+
+  // Finds the minimum horizontal seam like findHoriSeam, solving each column
+  // in row chunks on the given pool
+  int[] findHoriSeamParallel(double[] energy, int stride, int width, int height,
+      ForkJoinPool pool, int chunks) {
+    return this.findSeamParallel(energy, 1, stride, width, height, pool, chunks);
+  }
+
+  // Finds the minimum seam like findSeam, but splits every line into chunks
+  // of positions that are solved at the same time. A line only depends on
+  // the line before it, so the chunks wait for each other at a Phaser once
+  // per line. Lines too short to be worth splitting are solved on this
+  // thread alone.
+  int[] findSeamParallel(double[] energy, int lineStep, int posStep, int lines, int positions,
+      ForkJoinPool pool, int chunks) {
+    int chunkCount = Math.min(chunks, positions / MIN_CHUNK_POSITIONS);
+    if (chunkCount < 2 || lines < 2) {
+      return this.findSeam(energy, lineStep, posStep, lines, positions);
+    }
+
+    this.ensureCapacity(lines, positions);
+    this.updateMaskBias(energy, lineStep, posStep, lines, positions, null, null);
+    this.solveFirstLine(energy, posStep, positions);
+    double[][] buffers = new double[][] { this.previousCosts, this.currentCosts };
+    Phaser phaser = new Phaser(chunkCount);
+    ArrayList<Future<?>> running = new ArrayList<Future<?>>();
+    for (int chunk = 1; chunk < chunkCount; chunk++) {
+      int start = positions * chunk / chunkCount;
+      int end = positions * (chunk + 1) / chunkCount;
+      running.add(pool.submit(new CostChunk(this, energy, lineStep, posStep, lines, positions,
+          start, end, buffers, phaser)));
+    }
+    new CostChunk(this, energy, lineStep, posStep, lines, positions, 0,
+        positions / chunkCount, buffers, phaser).run();
+    for (Future<?> future : running) {
+      try {
+        future.get();
+      }
+      catch (InterruptedException | ExecutionException e) {
+        throw new IllegalStateException("Seam cost chunk failed", e);
+      }
+    }
+
+    // line 0 was solved into buffers[0], so the last line is in this one
+    this.previousCosts = buffers[(lines - 1) % 2];
+    this.currentCosts = buffers[lines % 2];
+    int end = this.findMinEnd(positions);
+    this.lastSeamCost = this.previousCosts[end];
+    this.cellsSolved = lines * positions;
+    return this.traceSeam(end, lines, positions);
+  }
+
+  // Finds up to max vertical seams that neither share nor cross pixels,
+  // from a single solve of the energy plane
+  ArrayList<int[]> findVertSeams(double[] energy, int stride, int width, int height, int max,
+      double slack) {
+    return this.findSeams(energy, stride, 1, height, width, max, slack);
+  }
+
+  // Finds up to max horizontal seams that neither share nor cross pixels,
+  // from a single solve of the energy plane
+  ArrayList<int[]> findHoriSeams(double[] energy, int stride, int width, int height, int max,
+      double slack) {
+    return this.findSeams(energy, 1, stride, width, height, max, slack);
+  }
+
+  // Finds up to max seams from a single solve. The minimum seam always comes
+  // first; after it, seams are traced back from the other ends of the last
+  // line in order of cost, and kept if they cost at most (1 + slack) times
+  // the minimum and neither share nor cross a pixel with a seam already
+  // kept.
+  ArrayList<int[]> findSeams(double[] energy, int lineStep, int posStep, int lines,
+      int positions, int max, double slack) {
+    ArrayList<int[]> seams = new ArrayList<int[]>();
+    seams.add(this.findSeam(energy, lineStep, posStep, lines, positions));
+    if (max <= 1) {
+      return seams;
+    }
+
+    Integer[] ends = new Integer[positions];
+    for (int pos = 0; pos < positions; pos++) {
+      ends[pos] = pos;
+    }
+    Arrays.sort(ends, new CheaperEnd(this.previousCosts));
+    double limit = this.lastSeamCost * (1 + slack);
+
+    boolean[] taken = new boolean[lines * positions];
+    this.markTaken(seams.get(0), taken, positions);
+    for (int i = 0; i < positions && seams.size() < max; i++) {
+      if (this.previousCosts[ends[i]] > limit) {
+        return seams;
+      }
+      int[] seam = this.traceFreeSeam(ends[i], lines, positions, taken);
+      if (seam != null) {
+        this.markTaken(seam, taken, positions);
+        seams.add(seam);
+      }
+    }
+    return seams;
+  }
+
+  // Traces the seam ending at the given position of the last line, like
+  // traceSeam, but gives up and returns null as soon as the seam goes
+  // through a taken cell or crosses diagonally between two taken cells
+  int[] traceFreeSeam(int end, int lines, int positions, boolean[] taken) {
+    int[] seam = new int[lines];
+    int pos = end;
+    for (int line = lines - 1; line >= 0; line--) {
+      if (taken[line * positions + pos]) {
+        return null;
+      }
+      seam[line] = pos;
+      if (line > 0) {
+        int next = pos + this.cameFrom[line * positions + pos];
+        if (next != pos && taken[line * positions + next]
+            && taken[(line - 1) * positions + pos]) {
+          return null;
+        }
+        pos = next;
+      }
+    }
+    return seam;
+  }
+
+  // EFFECT: marks the cells of the seam as taken
+  void markTaken(int[] seam, boolean[] taken, int positions) {
+    for (int line = 0; line < seam.length; line++) {
+      taken[line * positions + seam[line]] = true;
+    }
+  }
+
+  // EFFECT: forgets the kept costs, so the next incremental search solves
+  // every cell
+  void reset() {
+    this.solvedDirection = "none";
+    this.pendingSeam = null;
+  }
+
+  // EFFECT: makes the line just solved the previous line
+  void swapLines() {
+    double[] temp = this.previousCosts;
+    this.previousCosts = this.currentCosts;
+    this.currentCosts = temp;
+  }
+
+  // Returns the first position with the minimum cost on the last solved line
+  int findMinEnd(int positions) {
+    int minPos = 0;
+    for (int pos = 1; pos < positions; pos++) {
+      if (this.previousCosts[pos] < this.previousCosts[minPos]) {
+        minPos = pos;
+      }
+    }
+    return minPos;
+  }
+
+  // Traces a seam back from the given position on the last line
+  int[] traceSeam(int end, int lines, int positions) {
+    int[] seam = new int[lines];
+    int pos = end;
+    for (int line = lines - 1; line > 0; line--) {
+      seam[line] = pos;
+      pos += this.cameFrom[line * positions + pos];
+    }
+    if (lines > 0) {
+      seam[0] = pos;
+    }
+    return seam;
+  }
+}
+
+// Orders the ends of seams on the last solved line by their total cost,
+// cheapest first, and by position when costs are equal
+class CheaperEnd implements Comparator<Integer> {
+  // Cumulative costs of the last line
+  double[] costs;
+
+  CheaperEnd(double[] costs) {
+    this.costs = costs;
+  }
+
+  // compares two positions on the last line by their cost, then by position
+  public int compare(Integer end1, Integer end2) {
+    int byCost = Double.compare(this.costs[end1], this.costs[end2]);
+    if (byCost != 0) {
+      return byCost;
+    }
+    return end1 - end2;
+  }
+}
+
+// The part of a parallel seam cost solve that covers one chunk of positions
+// on every line
+class CostChunk implements Runnable {
+  // The table being solved
+  SeamCostTable table;
+  // The energy plane
+  double[] energy;
+  // Distance in the energy plane between lines
+  int lineStep;
+  // Distance in the energy plane between positions
+  int posStep;
+  // Number of lines
+  int lines;
+  // Number of positions on each line
+  int positions;
+  // First position of this chunk
+  int start;
+  // Position after the last position of this chunk
+  int end;
+  // The two rolling lines of costs; line L is solved into buffers[L % 2]
+  double[][] buffers;
+  // Keeps the chunks on the same line
+  Phaser phaser;
+
+  // Creates the chunk of positions from start up to (not including) end
+  CostChunk(SeamCostTable table, double[] energy, int lineStep, int posStep, int lines,
+      int positions, int start, int end, double[][] buffers, Phaser phaser) {
+    this.table = table;
+    this.energy = energy;
+    this.lineStep = lineStep;
+    this.posStep = posStep;
+    this.lines = lines;
+    this.positions = positions;
+    this.start = start;
+    this.end = end;
+    this.buffers = buffers;
+    this.phaser = phaser;
+  }
+
+  // EFFECT: solves this chunk on every line, waiting for the other chunks to
+  // finish a line before starting the next one
+  public void run() {
+    try {
+      for (int line = 1; line < this.lines; line++) {
+        this.table.solveLine(this.energy, line, this.lineStep, this.posStep, this.start,
+            this.end, this.positions, this.buffers[(line - 1) % 2], this.buffers[line % 2]);
+        this.phaser.arriveAndAwaitAdvance();
+      }
+    }
+    finally {
+      this.phaser.arriveAndDeregister();
+    }
+  }
+}
+
+class ExamplesSeamCostTable {
+  SeamCostTable table;
+  SeamInfo seamInfo;
+  // a 3x3 energy plane, row by row
+  double[] energy;
+
+  void init() {
+    this.table = new SeamCostTable();
+    this.seamInfo = new SeamInfo(0, null, 0, 0);
+    this.energy = new double[] { 1.0, 2.0, 3.0, 4.0, 2.0, 5.0, 3.0, 1.0, 6.0 };
+  }
+
+  // Builds the energy memo that SeamInfo uses from an energy plane
+  HashMap<String, Double> memoOf(double[] plane, int width, int height) {
+    HashMap<String, Double> memo = new HashMap<String, Double>();
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        memo.put(y + "," + x, plane[y * width + x]);
+      }
+    }
+    return memo;
+  }
+
+  // Builds a plane of random energies, with many ties
+  double[] randomPlane(int width, int height, int seed) {
+    java.util.Random random = new java.util.Random(seed);
+    double[] plane = new double[width * height];
+    for (int i = 0; i < plane.length; i++) {
+      plane[i] = random.nextInt(4);
+    }
+    return plane;
+  }
+
+  // Returns the forward cost of removing the given vertical seam from a
+  // brightness plane, straight from the definition
+  double forwardCostOf(int[] seam, float[] b, int width) {
+    double cost = 0;
+    for (int y = 0; y < seam.length; y++) {
+      int x = seam[y];
+      double left = x > 0 ? b[y * width + x - 1] : -1;
+      double right = x < width - 1 ? b[y * width + x + 1] : -1;
+      if (left >= 0 && right >= 0) {
+        cost += Math.abs(right - left);
+      }
+      if (y > 0 && seam[y - 1] == x - 1) {
+        cost += Math.abs(b[(y - 1) * width + x] - left);
+      }
+      if (y > 0 && seam[y - 1] == x + 1) {
+        cost += Math.abs(b[(y - 1) * width + x] - right);
+      }
+    }
+    return cost;
+  }
+
+  // Returns the least forward cost of any vertical seam, trying them all
+  double cheapestForwardCost(float[] b, int width, int height, int[] seam, int y) {
+    if (y == height) {
+      return this.forwardCostOf(seam, b, width);
+    }
+    double best = Double.MAX_VALUE;
+    for (int x = 0; x < width; x++) {
+      if (y == 0 || Math.abs(x - seam[y - 1]) <= 1) {
+        seam[y] = x;
+        best = Math.min(best, this.cheapestForwardCost(b, width, height, seam, y + 1));
+      }
+    }
+    return best;
+  }
+
+  void testFindSeamInBand(Tester t) {
+    this.init();
+    // the whole plane as the band gives the exact seam
+    t.checkExpect(this.table.findSeamInBand(this.energy, 3, 1, 3, 3, new int[] { 0, 0, 0 },
+        new int[] { 2, 2, 2 }), new int[] { 0, 1, 1 });
+    t.checkExpect(this.table.lastSeamCost, 4.0);
+    t.checkExpect(this.table.cellsSolved, 9);
+    // a band that leaves out column 0 and then column 1
+    t.checkExpect(this.table.findSeamInBand(this.energy, 3, 1, 3, 3, new int[] { 1, 1, 2 },
+        new int[] { 2, 2, 2 }), new int[] { 1, 1, 2 });
+    t.checkExpect(this.table.lastSeamCost, 10.0);
+    t.checkExpect(this.table.cellsSolved, 5);
+
+    double[] plane = this.randomPlane(30, 20, 8);
+    int[] low = new int[20];
+    int[] high = new int[20];
+    java.util.Arrays.fill(high, 29);
+    t.checkExpect(this.table.findSeamInBand(plane, 30, 1, 20, 30, low, high),
+        this.table.findVertSeam(plane, 30, 30, 20));
+    t.checkExpect(this.table.findSeamInBand(plane, 1, 30, 30, 20, new int[30],
+        this.filled(30, 19)), this.table.findHoriSeam(plane, 30, 30, 20));
+  }
+
+  // Returns an array of the given length filled with value
+  int[] filled(int length, int value) {
+    int[] result = new int[length];
+    java.util.Arrays.fill(result, value);
+    return result;
+  }
+
+  void testForwardEnergy(Tester t) {
+    this.init();
+    // a bright stripe down the middle: removing it joins two dark pixels
+    float[] stripe = new float[] { 0, 1, 0, 0, 0, 1, 0, 0, 0, 1, 0, 0 };
+    t.checkExpect(this.table.findVertSeamForward(stripe, 4, 4, 3), new int[] { 0, 0, 0 });
+    t.checkExpect(this.table.lastSeamCost, 0.0);
+    t.checkExpect(this.table.findVertSeamForward(stripe, 4, 3, 3), new int[] { 0, 0, 0 });
+    float[] ramp = new float[] { 0.0f, 0.5f, 0.25f, 1.0f, 0.75f, 0.5f };
+    t.checkExpect(this.table.findHoriSeamForward(ramp, 3, 3, 2), new int[] { 0, 0, 0 });
+
+    java.util.Random random = new java.util.Random(3);
+    boolean optimal = true;
+    boolean transposed = true;
+    for (int trial = 0; trial < 20; trial++) {
+      int width = 2 + random.nextInt(4);
+      int height = 1 + random.nextInt(4);
+      float[] b = new float[width * height];
+      float[] bT = new float[width * height];
+      for (int i = 0; i < b.length; i++) {
+        b[i] = random.nextInt(5) / 4.0f;
+        bT[(i % width) * height + i / width] = b[i];
+      }
+      int[] seam = this.table.findVertSeamForward(b, width, width, height);
+      double cost = this.table.lastSeamCost;
+      optimal = optimal && cost == this.forwardCostOf(seam, b, width)
+          && cost == this.cheapestForwardCost(b, width, height, new int[height], 0);
+      transposed = transposed
+          && Arrays.equals(this.table.findHoriSeamForward(bT, height, height, width), seam)
+          && this.table.lastSeamCost == cost;
+    }
+    t.checkExpect(optimal, true);
+    t.checkExpect(transposed, true);
+  }
+
+  void testMaskBias(Tester t) {
+    this.init();
+    double[] plane = this.randomPlane(30, 20, 5);
+    int[] cheapest = this.table.findVertSeam(plane, 30, 30, 20);
+    byte[] mask = new byte[plane.length];
+    for (int y = 0; y < 20; y++) {
+      mask[y * 30 + cheapest[y]] = PixelStore.PROTECT;
+    }
+    this.table.mask = mask;
+    int[] around = this.table.findVertSeam(plane, 30, 30, 20);
+    boolean avoided = true;
+    for (int y = 0; y < 20; y++) {
+      avoided = avoided && around[y] != cheapest[y];
+    }
+    t.checkExpect(avoided, true);
+    t.checkExpect(this.table.lastSeamCost < this.table.maskBias, true);
+
+    // an object to remove draws the seam through it, in every solver
+    mask = new byte[plane.length];
+    mask[10 * 30 + 25] = PixelStore.REMOVE;
+    this.table.mask = mask;
+    t.checkExpect(this.table.findVertSeam(plane, 30, 30, 20)[10], 25);
+    t.checkExpect(this.table.lastSeamCost < 0, true);
+    t.checkExpect(this.table.findHoriSeam(plane, 30, 30, 20)[25], 10);
+    t.checkExpect(this.table.findVertSeamIncremental(plane, 30, 30, 20)[10], 25);
+    float[] flat = new float[plane.length];
+    t.checkExpect(this.table.findVertSeamForward(flat, 30, 30, 20)[10], 25);
+    int[] low = new int[20];
+    int[] high = new int[20];
+    Arrays.fill(high, 29);
+    t.checkExpect(this.table.findSeamInBand(plane, 30, 1, 20, 30, low, high)[10], 25);
+
+    this.table.mask = null;
+    t.checkExpect(this.table.findVertSeam(plane, 30, 30, 20), cheapest);
+
+    // the bias grows with the energy and the length of the seams: reaching
+    // the object from the one free column costs far more than 1e6 here
+    double[] steep = new double[30 * 30];
+    Arrays.fill(steep, 1e5);
+    for (int y = 0; y < 30; y++) {
+      steep[y * 30] = 0;
+    }
+    mask = new byte[steep.length];
+    mask[29] = PixelStore.REMOVE;
+    this.table.mask = mask;
+    t.checkExpect(this.table.findVertSeam(steep, 30, 30, 30)[0], 29);
+    t.checkExpect(this.table.maskBias > 30 * 1e5, true);
+    t.checkExpect(this.table.findVertSeamIncremental(steep, 30, 30, 30)[0], 29);
+    mask[29] = PixelStore.PROTECT;
+    mask[30 * 15] = PixelStore.PROTECT;
+    t.checkExpect(this.table.findVertSeam(steep, 30, 30, 30)[15] != 0, true);
+
+    // the incremental mode solves everything again once the energy outgrows
+    // the bias it kept
+    PixelStore store = this.randomStore(30, 20, 3);
+    SeamCostTable incremental = new SeamCostTable();
+    store.mask = new byte[store.argb.length];
+    store.mask[5 * 30 + 12] = PixelStore.REMOVE;
+    incremental.mask = store.mask;
+    int[] seam = incremental.findVertSeamIncremental(store.energy, store.stride, 30, 20);
+    t.checkExpect(seam[5], 12);
+    store.removeVertSeam(seam);
+    store.recomputeEnergyNearVertSeam(seam);
+    store.energy[10 * 30 + seam[10]] = incremental.maskEnergyLimit + 1e4;
+    incremental.vertSeamRemoved(seam, store.stride);
+    incremental.findVertSeamIncremental(store.energy, store.stride, 29, 20);
+    t.checkExpect(incremental.cellsSolved > 29 * 20, true);
+    t.checkExpect(incremental.maskEnergyLimit > 1e4, true);
+  }
+
+  // Converts a seam to an array
+  int[] arrayOf(ArrayList<Integer> seam) {
+    int[] result = new int[seam.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = seam.get(i);
+    }
+    return result;
+  }
+
+  void testFindVertSeam(Tester t) {
+    this.init();
+    t.checkExpect(this.table.findVertSeam(this.energy, 3, 3, 3), new int[] { 0, 1, 1 });
+    t.checkExpect(this.table.lastSeamCost, 4.0);
+    t.checkExpect(this.table.findVertSeam(new double[] { 5.0 }, 1, 1, 1), new int[] { 0 });
+  }
+
+  void testFindHoriSeam(Tester t) {
+    this.init();
+    t.checkExpect(this.table.findHoriSeam(this.energy, 3, 3, 3), new int[] { 0, 0, 0 });
+    t.checkExpect(this.table.lastSeamCost, 6.0);
+  }
+
+  void testNarrowerThanStride(Tester t) {
+    this.init();
+    // only the first two columns of the plane are part of the image
+    t.checkExpect(this.table.findVertSeam(this.energy, 3, 2, 3), new int[] { 0, 1, 1 });
+    t.checkExpect(this.table.findHoriSeam(this.energy, 3, 2, 3), new int[] { 0, 0 });
+  }
+
+  void testMatchesMemoizedVertSeams(Tester t) {
+    this.init();
+    for (int seed = 0; seed < 20; seed++) {
+      int width = 3 + seed % 7;
+      int height = 2 + seed % 5;
+      double[] plane = this.randomPlane(width, height, seed);
+      HashMap<String, Double> costs = new HashMap<String, Double>();
+      this.seamInfo.calculateAllVertSeamCosts(height, width, costs,
+          this.memoOf(plane, width, height));
+      int minCol = this.seamInfo.findMinBottomColVert(width, height, costs);
+      ArrayList<Integer> expected = this.seamInfo.traceVertSeam(minCol, height, costs);
+
+      t.checkExpect(this.table.findVertSeam(plane, width, width, height), this.arrayOf(expected));
+      t.checkExpect(this.table.lastSeamCost, costs.get((height - 1) + "," + minCol));
+    }
+  }
+
+  // Builds a store of random colors with its energy computed
+  PixelStore randomStore(int width, int height, int seed) {
+    java.util.Random random = new java.util.Random(seed);
+    PixelStore store = new PixelStore(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        // few distinct colors, so that equal costs and ties are common
+        store.setArgb(x, y, random.nextInt(3) * 0x7F7F7F);
+      }
+    }
+    store.updateAllEnergy();
+    return store;
+  }
+
+  void testIncrementalVertSeams(Tester t) {
+    this.init();
+    PixelStore store = this.randomStore(30, 20, 7);
+    SeamCostTable full = new SeamCostTable();
+    int firstSolve = 0;
+    for (int i = 0; i < 15; i++) {
+      int width = store.getWidth();
+      int[] expected = full.findVertSeam(store.energy, store.stride, width, store.height);
+      int[] seam = this.table.findVertSeamIncremental(store.energy, store.stride, width,
+          store.height);
+      t.checkExpect(seam, expected);
+      t.checkExpect(this.table.lastSeamCost, full.lastSeamCost);
+      if (i == 0) {
+        firstSolve = this.table.cellsSolved;
+      }
+      else {
+        t.checkExpect(this.table.cellsSolved < firstSolve, true);
+      }
+
+      store.removeVertSeam(seam);
+      store.recomputeEnergyNearVertSeam(seam);
+      this.table.vertSeamRemoved(seam, store.stride);
+    }
+    t.checkExpect(firstSolve, 600);
+  }
+
+  void testIncrementalHoriSeams(Tester t) {
+    this.init();
+    PixelStore store = this.randomStore(20, 30, 11);
+    SeamCostTable full = new SeamCostTable();
+    for (int i = 0; i < 15; i++) {
+      int[] expected = full.findHoriSeam(store.energy, store.stride, store.getWidth(),
+          store.height);
+      int[] seam = this.table.findHoriSeamIncremental(store.energy, store.stride,
+          store.getWidth(), store.height);
+      t.checkExpect(seam, expected);
+      t.checkExpect(this.table.lastSeamCost, full.lastSeamCost);
+
+      store.removeHoriSeam(seam);
+      store.recomputeEnergyNearHoriSeam(seam);
+      this.table.horiSeamRemoved(seam, store.stride);
+    }
+  }
+
+  void testIncrementalSwitchingDirection(Tester t) {
+    this.init();
+    PixelStore store = this.randomStore(15, 15, 13);
+    SeamCostTable full = new SeamCostTable();
+    int[] seam = this.table.findVertSeamIncremental(store.energy, store.stride,
+        store.getWidth(), store.height);
+    store.removeVertSeam(seam);
+    store.recomputeEnergyNearVertSeam(seam);
+    this.table.vertSeamRemoved(seam, store.stride);
+
+    // a horizontal search after a vertical one solves the whole table again
+    seam = this.table.findHoriSeamIncremental(store.energy, store.stride, store.getWidth(),
+        store.height);
+    t.checkExpect(this.table.cellsSolved, 14 * 15);
+    t.checkExpect(seam,
+        full.findHoriSeam(store.energy, store.stride, store.getWidth(), store.height));
+    store.removeHoriSeam(seam);
+    store.recomputeEnergyNearHoriSeam(seam);
+    this.table.horiSeamRemoved(seam, store.stride);
+    this.table.vertSeamRemoved(new int[14], store.stride);
+    t.checkExpect(this.table.solvedDirection, "none");
+  }
+
+  void testParallelMatchesSequential(Tester t) {
+    this.init();
+    ForkJoinPool pool = new ForkJoinPool(4);
+    PixelStore store = this.randomStore(300, 200, 19);
+    SeamCostTable sequential = new SeamCostTable();
+    for (int i = 0; i < 3; i++) {
+      int[] seam = this.table.findVertSeamParallel(store.energy, store.stride,
+          store.getWidth(), store.height, pool, 4);
+      t.checkExpect(seam,
+          sequential.findVertSeam(store.energy, store.stride, store.getWidth(), store.height));
+      t.checkExpect(this.table.lastSeamCost, sequential.lastSeamCost);
+      store.removeVertSeam(seam);
+      store.recomputeEnergyNearVertSeam(seam);
+    }
+
+    int[] hori = this.table.findHoriSeamParallel(store.energy, store.stride, store.getWidth(),
+        store.height, pool, 3);
+    t.checkExpect(hori,
+        sequential.findHoriSeam(store.energy, store.stride, store.getWidth(), store.height));
+    t.checkExpect(this.table.lastSeamCost, sequential.lastSeamCost);
+
+    // too narrow to split: solved on this thread
+    t.checkExpect(this.table.findVertSeamParallel(this.energy, 3, 3, 3, pool, 4),
+        new int[] { 0, 1, 1 });
+    pool.shutdown();
+  }
+
+  void testFindSeveralSeams(Tester t) {
+    this.init();
+    // three cheap columns (0, 2 and 4) separated by expensive ones
+    double[] stripes = new double[5 * 4];
+    for (int y = 0; y < 4; y++) {
+      for (int x = 0; x < 5; x++) {
+        stripes[y * 5 + x] = x % 2 == 0 ? 1.0 + x : 100.0;
+      }
+    }
+    ArrayList<int[]> seams = this.table.findVertSeams(stripes, 5, 5, 4, 3, 10.0);
+    t.checkExpect(seams.size(), 3);
+    t.checkExpect(seams.get(0), new int[] { 0, 0, 0, 0 });
+    t.checkExpect(seams.get(1), new int[] { 2, 2, 2, 2 });
+    t.checkExpect(seams.get(2), new int[] { 4, 4, 4, 4 });
+
+    // the slack rules out the more expensive seams
+    t.checkExpect(this.table.findVertSeams(stripes, 5, 5, 4, 3, 0.5).size(), 1);
+    t.checkExpect(this.table.findVertSeams(stripes, 5, 5, 4, 3, 2.0).size(), 2);
+    t.checkExpect(this.table.findVertSeams(stripes, 5, 5, 4, 1, 10.0).size(), 1);
+
+    // every row of the plane is a cheap horizontal seam
+    ArrayList<int[]> rows = this.table.findHoriSeams(stripes, 5, 5, 4, 4, 10.0);
+    t.checkExpect(rows.size(), 4);
+  }
+
+  void testSeveralSeamsNeverMeet(Tester t) {
+    this.init();
+    PixelStore store = this.randomStore(60, 40, 23);
+    ArrayList<int[]> seams = this.table.findVertSeams(store.energy, store.stride, 60, 40, 12,
+        100.0);
+    t.checkExpect(seams.size() > 1, true);
+    boolean apart = true;
+    for (int i = 0; i < seams.size(); i++) {
+      for (int j = i + 1; j < seams.size(); j++) {
+        int[] a = seams.get(i);
+        int[] b = seams.get(j);
+        for (int y = 0; y < 40; y++) {
+          apart = apart && a[y] != b[y];
+          apart = apart && (y == 0 || (a[y] < b[y]) == (a[y - 1] < b[y - 1]));
+        }
+      }
+    }
+    t.checkExpect(apart, true);
+  }
+
+  void testMatchesMemoizedHoriSeams(Tester t) {
+    this.init();
+    for (int seed = 0; seed < 20; seed++) {
+      int width = 2 + seed % 5;
+      int height = 3 + seed % 7;
+      double[] plane = this.randomPlane(width, height, seed);
+      HashMap<String, Double> costs = new HashMap<String, Double>();
+      this.seamInfo.calculateAllHoriSeamCosts(height, width, costs,
+          this.memoOf(plane, width, height));
+      int minRow = this.seamInfo.findMinRightRowHori(width, height, costs);
+      ArrayList<Integer> expected = this.seamInfo.traceHoriSeam(minRow, width, costs);
+
+      t.checkExpect(this.table.findHoriSeam(plane, width, width, height), this.arrayOf(expected));
+    }
+  }
+}
@@ -0,0 +1,290 @@
+import java.util.ArrayList;
+import tester.*;
+
+// One seam taken out of a PixelStore, kept so that it can be put back: where
+// it ran and the colors (and masks and energy function planes) of the
+// pixels it removed
+class SeamRecord {
+  // Direction of the seam: "vertical" or "horizontal"
+  String direction;
+  // Column of the seam in every row, or row of the seam in every column
+  int[] seam;
+  // Color of the pixel the seam removed from every row (or column)
+  int[] colors;
+  // Mask of the pixel the seam removed from every row (or column), or null
+  // if the store had no mask
+  byte[] masks;
+  // Value of every energy function plane at the pixel the seam removed from
+  // every row (or column), indexed by plane, or null if the store had no
+  // planes. Planes such as a saliency map cannot be computed again from the
+  // pixels, so they are kept like the colors.
+  float[][] planes;
+
+  // Creates a record of a seam
+  SeamRecord(String direction, int[] seam, int[] colors, byte[] masks, float[][] planes) {
+    this.direction = direction;
+    this.seam = seam;
+    this.colors = colors;
+    this.masks = masks;
+    this.planes = planes;
+  }
+
+  // Returns the position in the store's arrays of the seam's pixel in the
+  // given line
+  int indexIn(PixelStore store, int line) {
+    if (this.direction.equals("vertical")) {
+      return store.index(this.seam[line], line);
+    }
+    return store.index(line, this.seam[line]);
+  }
+}
+
+// The seams taken out of a store in order, and how many of them are taken
+// out right now. Undoing the last seam puts its pixels back and redoing it
+// takes them out again, each writing one pixel per row (or column) plus the
+// shift of the rest of the line and a band of energy around the seam, with
+// no seam search at all, so stepping anywhere in the history costs only the
+// seams stepped over.
+class SeamHistory {
+  // Every seam recorded, in the order they were first removed
+  ArrayList<SeamRecord> records;
+  // Number of records that are removed from the store right now; the rest
+  // were undone and can be redone
+  int position;
+
+  // Creates an empty history
+  SeamHistory() {
+    this.records = new ArrayList<SeamRecord>();
+    this.position = 0;
+  }
+
+  // EFFECT: records a seam that is about to be removed from the store,
+  // forgetting any seams that were undone
+  void record(PixelStore store, int[] seam, String direction) {
+    byte[] masks = store.mask == null ? null : new byte[seam.length];
+    float[][] planes = null;
+    if (store.planes != null) {
+      planes = new float[store.planes.length][seam.length];
+    }
+    SeamRecord record = new SeamRecord(direction, seam, new int[seam.length], masks, planes);
+    for (int i = 0; i < seam.length; i++) {
+      int at = record.indexIn(store, i);
+      record.colors[i] = store.argb[at];
+      if (masks != null) {
+        masks[i] = store.mask[at];
+      }
+      if (planes != null) {
+        for (int p = 0; p < planes.length; p++) {
+          planes[p][i] = store.planes[p][at];
+        }
+      }
+    }
+    while (this.records.size() > this.position) {
+      this.records.remove(this.records.size() - 1);
+    }
+    this.records.add(record);
+    this.position++;
+  }
+
+  // Determines whether there is a removed seam to put back
+  boolean canUndo() {
+    return this.position > 0;
+  }
+
+  // Determines whether there is an undone seam to take out again
+  boolean canRedo() {
+    return this.position < this.records.size();
+  }
+
+  // EFFECT: puts the last removed seam back into the store, with the masks
+  // and planes it had, then recomputes its energy and that of its
+  // neighbors, and returns its record
+  SeamRecord undo(PixelStore store) {
+    if (!this.canUndo()) {
+      throw new IllegalStateException("No seam to undo");
+    }
+    this.position--;
+    SeamRecord last = this.records.get(this.position);
+    if (last.direction.equals("vertical")) {
+      store.restoreVertSeam(last.seam, last.colors);
+    }
+    else {
+      store.restoreHoriSeam(last.seam, last.colors);
+    }
+    this.restoreKept(store, last);
+    if (last.direction.equals("vertical")) {
+      store.recomputeEnergyNearRestoredVertSeam(last.seam);
+    }
+    else {
+      store.recomputeEnergyNearRestoredHoriSeam(last.seam);
+    }
+    return last;
+  }
+
+  // EFFECT: writes the masks and planes kept in the record back into the
+  // seam's pixels, which were just restored
+  void restoreKept(PixelStore store, SeamRecord record) {
+    boolean masks = record.masks != null && store.mask != null;
+    boolean planes = record.planes != null && store.planes != null
+        && record.planes.length == store.planes.length;
+    for (int i = 0; i < record.seam.length; i++) {
+      int at = record.indexIn(store, i);
+      if (masks) {
+        store.mask[at] = record.masks[i];
+      }
+      if (planes) {
+        for (int p = 0; p < record.planes.length; p++) {
+          store.planes[p][at] = record.planes[p][i];
+        }
+      }
+    }
+  }
+
+  // EFFECT: takes the last undone seam out of the store again, with the
+  // energy near it, and returns its record
+  SeamRecord redo(PixelStore store) {
+    if (!this.canRedo()) {
+      throw new IllegalStateException("No seam to redo");
+    }
+    SeamRecord next = this.records.get(this.position);
+    this.position++;
+    if (next.direction.equals("vertical")) {
+      store.removeVertSeam(next.seam);
+      store.recomputeEnergyNearVertSeam(next.seam);
+    }
+    else {
+      store.removeHoriSeam(next.seam);
+      store.recomputeEnergyNearHoriSeam(next.seam);
+    }
+    return next;
+  }
+
+  // EFFECT: forgets every seam, for a store that changed some other way
+  void clear() {
+    this.records.clear();
+    this.position = 0;
+  }
+}
+
+class ExamplesSeamHistory {
+  // Returns the colors and energies of the visible pixels of the store
+  ArrayList<Double> visiblePixels(PixelStore s) {
+    return new ExamplesPixelStore().visiblePixels(s);
+  }
+
+  void testUndoAndRedo(Tester t) {
+    PixelStore store = new ExamplesPixelStore().randomStore(15, 10, new java.util.Random(5));
+    store.updateAllEnergy();
+    ArrayList<Double> original = this.visiblePixels(store);
+    SeamCostTable table = new SeamCostTable();
+    SeamHistory history = new SeamHistory();
+    t.checkExpect(history.canUndo(), false);
+
+    for (int i = 0; i < 6; i++) {
+      String direction = i % 3 == 2 ? "horizontal" : "vertical";
+      int[] seam;
+      if (direction.equals("vertical")) {
+        seam = table.findVertSeam(store.energy, store.stride, store.getWidth(), store.height);
+      }
+      else {
+        seam = table.findHoriSeam(store.energy, store.stride, store.getWidth(), store.height);
+      }
+      history.record(store, seam, direction);
+      if (direction.equals("vertical")) {
+        store.removeVertSeam(seam);
+        store.recomputeEnergyNearVertSeam(seam);
+      }
+      else {
+        store.removeHoriSeam(seam);
+        store.recomputeEnergyNearHoriSeam(seam);
+      }
+    }
+    t.checkExpect(store.getWidth(), 11);
+    t.checkExpect(store.height, 8);
+    ArrayList<Double> carved = this.visiblePixels(store);
+
+    t.checkExpect(history.undo(store).direction, "horizontal");
+    t.checkExpect(store.height, 9);
+    while (history.canUndo()) {
+      history.undo(store);
+    }
+    t.checkExpect(this.visiblePixels(store), original);
+    t.checkException(new IllegalStateException("No seam to undo"), history, "undo", store);
+
+    while (history.canRedo()) {
+      history.redo(store);
+    }
+    t.checkExpect(this.visiblePixels(store), carved);
+    t.checkException(new IllegalStateException("No seam to redo"), history, "redo", store);
+
+    history.undo(store);
+    history.undo(store);
+    history.record(store, new int[9], "vertical");
+    t.checkExpect(history.records.size(), 5);
+    t.checkExpect(history.canRedo(), false);
+    history.clear();
+    t.checkExpect(history.canUndo(), false);
+  }
+
+  // Returns the values of the store's first energy function plane at its
+  // visible pixels, row by row
+  ArrayList<Float> visiblePlane(PixelStore s) {
+    ArrayList<Float> result = new ArrayList<Float>();
+    for (int y = 0; y < s.height; y++) {
+      for (int x = 0; x < s.getRowWidth(y); x++) {
+        result.add(s.planes[0][s.index(x, y)]);
+      }
+    }
+    return result;
+  }
+
+  void testUndoRestoresSaliencyMap(Tester t) {
+    SeamCarver carver = new SeamCarver("src/Balloons.jpg", "flat");
+    carver.costMode = "array";
+    carver.useSaliency("src/Balloons.jpg");
+    ArrayList<Float> map = this.visiblePlane(carver.store);
+    ArrayList<Double> original = this.visiblePixels(carver.store);
+    for (int i = 0; i < 6; i++) {
+      carver.onTick();
+    }
+    carver.directionToCarve = "horizontal";
+    for (int i = 0; i < 4; i++) {
+      carver.onTick();
+    }
+    t.checkExpect(carver.history.position, 5);
+    ArrayList<Float> carvedMap = this.visiblePlane(carver.store);
+    ArrayList<Double> carved = this.visiblePixels(carver.store);
+
+    carver.scrubTo(0);
+    t.checkExpect(this.visiblePlane(carver.store), map);
+    t.checkExpect(this.visiblePixels(carver.store), original);
+    carver.scrubTo(5);
+    t.checkExpect(this.visiblePlane(carver.store), carvedMap);
+    t.checkExpect(this.visiblePixels(carver.store), carved);
+  }
+
+  void testUndoRestoresMask(Tester t) {
+    PixelStore store = new ExamplesPixelStore().randomStore(8, 6, new java.util.Random(9));
+    store.updateAllEnergy();
+    store.markMask(3, 0, 3, 5, PixelStore.REMOVE);
+    store.markMask(4, 2, 4, 2, PixelStore.PROTECT);
+    byte[] original = java.util.Arrays.copyOf(store.mask, store.mask.length);
+    SeamHistory history = new SeamHistory();
+    int[] seam = new int[] { 3, 3, 3, 3, 3, 3 };
+    history.record(store, seam, "vertical");
+    store.removeVertSeam(seam);
+    store.recomputeEnergyNearVertSeam(seam);
+    t.checkExpect(store.countMask(PixelStore.REMOVE), 0);
+    t.checkExpect(store.getMask(3, 2), PixelStore.PROTECT);
+    int[] row = new int[] { 1, 1, 1, 2, 2, 2, 2 };
+    history.record(store, row, "horizontal");
+    store.removeHoriSeam(row);
+    store.recomputeEnergyNearHoriSeam(row);
+
+    history.undo(store);
+    history.undo(store);
+    t.checkExpect(store.mask, original);
+    history.redo(store);
+    t.checkExpect(store.countMask(PixelStore.REMOVE), 0);
+  }
+}
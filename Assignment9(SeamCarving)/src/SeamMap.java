@@ -0,0 +1,291 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import javax.imageio.ImageIO;
+import tester.*;
+
+// A retargetable image: an image together with the order in which one full
+// carve removed its vertical seams. Every pixel records the number of the
+// seam that removed it (seams are numbered from 0 in the order they were
+// taken out), so the image at any width between the original and the
+// minimum is the pixels whose seam number is at least the number of seams
+// removed, found in one pass over the image with no energy or DP at all.
+class SeamMap {
+  // The pixels of the original image
+  PixelStore image;
+  // Number of the seam that removed each pixel, aligned with the image's
+  // arrays, or seams for pixels that were never removed
+  int[] order;
+  // Number of seams recorded, so the narrowest width is the image's width
+  // minus seams
+  int seams;
+
+  // Magic number at the start of a seam map file ("SMAP")
+  static final int MAGIC = 0x534D4150;
+  // Version of the seam map file format
+  static final int VERSION = 1;
+
+  // Records the order map of the store carved down to minWidth, taking up
+  // to 16 seams per pass
+  SeamMap(PixelStore store, int minWidth) {
+    this(store, minWidth, 16);
+  }
+
+  // Records the order map of the store carved down to minWidth with the given
+  // seams per pass. The store itself is not changed.
+  SeamMap(PixelStore store, int minWidth, int seamsPerPass) {
+    if (minWidth < 1 || minWidth > store.getWidth()) {
+      throw new IllegalArgumentException("Minimum width must be between 1 and the image's width");
+    }
+    this.image = new PixelStore(store);
+    this.image.origins = null;
+    this.seams = store.getWidth() - minWidth;
+    this.order = new int[store.argb.length];
+    Arrays.fill(this.order, this.seams);
+
+    PixelStore copy = new PixelStore(store);
+    copy.trackOrigins();
+    copy.updateAllEnergy();
+    Retargeter retargeter = new Retargeter(copy, seamsPerPass, 1.0, null);
+    int removed = 0;
+    while (copy.getWidth() > minWidth) {
+      ArrayList<int[]> found = retargeter.findSeams(copy, copy.getWidth() - minWidth, "vertical");
+      for (int[] seam : found) {
+        for (int y = 0; y < seam.length; y++) {
+          this.order[copy.origins[copy.index(seam[y], y)]] = removed;
+        }
+        removed++;
+      }
+      retargeter.removeSeams(copy, found, "vertical");
+    }
+  }
+
+  // Creates a seam map from an image and an order map read back from disk
+  SeamMap(PixelStore image, int[] order, int seams) {
+    this.image = image;
+    this.order = order;
+    this.seams = seams;
+  }
+
+  // Returns the narrowest width this map can produce
+  int minWidth() {
+    return this.image.getWidth() - this.seams;
+  }
+
+  // Returns a new store holding the image at the given width: the pixels
+  // of every row not removed by the first (original width - width) seams.
+  // Brightness is copied over, but energy is not computed.
+  PixelStore atWidth(int width) {
+    if (width < this.minWidth() || width > this.image.getWidth()) {
+      throw new IllegalArgumentException("Width must be between the minimum and original widths");
+    }
+    int cut = this.image.getWidth() - width;
+    PixelStore result = new PixelStore(width, this.image.height);
+    for (int y = 0; y < this.image.height; y++) {
+      int from = this.image.index(0, y);
+      int end = from + this.image.getWidth();
+      int to = result.index(0, y);
+      for (int i = from; i < end; i++) {
+        if (this.order[i] >= cut) {
+          result.argb[to] = this.image.argb[i];
+          result.brightness[to] = this.image.brightness[i];
+          to++;
+        }
+      }
+    }
+    return result;
+  }
+
+  // EFFECT: writes the order map (but not the image) to the given file: a
+  // header of magic, version, width, height and seams, then the seam number
+  // of every pixel row by row, as unsigned shorts when they fit and ints
+  // otherwise, all deflated
+  void write(File file) throws IOException {
+    int width = this.image.getWidth();
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(width);
+      out.writeInt(this.image.height);
+      out.writeInt(this.seams);
+      DataOutputStream body = new DataOutputStream(new BufferedOutputStream(
+          new DeflaterOutputStream(out)));
+      for (int y = 0; y < this.image.height; y++) {
+        int from = this.image.index(0, y);
+        for (int i = from; i < from + width; i++) {
+          if (this.seams <= 0xFFFF) {
+            body.writeShort(this.order[i]);
+          }
+          else {
+            body.writeInt(this.order[i]);
+          }
+        }
+      }
+      body.close();
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  // Reads the order map written for the given image back from the file
+  static SeamMap read(File file, PixelStore image) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a seam map: " + file);
+      }
+      int width = in.readInt();
+      int height = in.readInt();
+      int seams = in.readInt();
+      if (width != image.getWidth() || height != image.height || seams < 0 || seams >= width) {
+        throw new IllegalArgumentException("Seam map does not match the image");
+      }
+      DataInputStream body = new DataInputStream(new BufferedInputStream(
+          new InflaterInputStream(in)));
+      int[] order = new int[image.argb.length];
+      for (int y = 0; y < height; y++) {
+        int from = image.index(0, y);
+        for (int i = from; i < from + width; i++) {
+          order[i] = seams <= 0xFFFF ? body.readUnsignedShort() : body.readInt();
+        }
+      }
+      return new SeamMap(new PixelStore(image), order, seams);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  // Returns the file the order map of the given image is cached in
+  static File cacheFileFor(File imageFile) {
+    return new File(imageFile.getPath() + ".seams");
+  }
+
+  // Returns the seam map of the image file, read from its cache file when
+  // that holds a map down to at most minWidth, and otherwise carved and
+  // written to the cache file
+  static SeamMap forImage(File imageFile, int minWidth) throws IOException {
+    PixelStore image = new PixelStore(ImageIO.read(imageFile));
+    File cache = SeamMap.cacheFileFor(imageFile);
+    if (cache.exists() && cache.lastModified() >= imageFile.lastModified()) {
+      try {
+        SeamMap cached = SeamMap.read(cache, image);
+        if (cached.minWidth() <= minWidth) {
+          return cached;
+        }
+      }
+      catch (IOException | IllegalArgumentException e) {
+        // fall through and carve the map again
+      }
+    }
+    SeamMap map = new SeamMap(image, minWidth);
+    map.write(cache);
+    return map;
+  }
+
+  // Carves the map of an image (or reads it from its cache file), then
+  // writes the image at each of the given widths next to it, timing both
+  //
+  // Usage: java SeamMap <image> <minWidth> <width> ...
+  public static void main(String[] args) throws IOException {
+    File imageFile = new File(args[0]);
+    long start = System.nanoTime();
+    SeamMap map = SeamMap.forImage(imageFile, Integer.parseInt(args[1]));
+    System.out.println(String.format("map of %d seams ready in %.1f ms (%d bytes cached)",
+        map.seams, (System.nanoTime() - start) / 1e6, SeamMap.cacheFileFor(imageFile).length()));
+    for (int i = 2; i < args.length; i++) {
+      int width = Integer.parseInt(args[i]);
+      start = System.nanoTime();
+      PixelStore result = map.atWidth(width);
+      double millis = (System.nanoTime() - start) / 1e6;
+      File out = new File(imageFile.getPath() + "." + width + ".png");
+      ImageIO.write(result.toBufferedImage(), "png", out);
+      System.out.println(String.format("width %d in %.2f ms: %s", width, millis, out));
+    }
+  }
+}
+
+class ExamplesSeamMap {
+  PixelStore store;
+
+  void init() {
+    java.util.Random random = new java.util.Random(17);
+    this.store = new PixelStore(20, 8);
+    for (int y = 0; y < 8; y++) {
+      for (int x = 0; x < 20; x++) {
+        this.store.setArgb(x, y, random.nextInt(3) * 0x7F7F7F);
+      }
+    }
+    this.store.updateAllEnergy();
+  }
+
+  void testAtWidthMatchesCarving(Tester t) {
+    this.init();
+    int[] before = Arrays.copyOf(this.store.argb, this.store.argb.length);
+    SeamMap map = new SeamMap(this.store, 6, 1);
+    t.checkExpect(this.store.argb, before);
+    t.checkExpect(map.minWidth(), 6);
+    t.checkExpect(map.atWidth(20).argb, before);
+    for (int width = 19; width >= 6; width -= 4) {
+      PixelStore carved = new PixelStore(this.store);
+      new Retargeter(carved, 1, 1.0, null).carveTo(width, 8);
+      PixelStore fromMap = map.atWidth(width);
+      fromMap.updateAllEnergy();
+      t.checkExpect(fromMap.getWidth(), width);
+      t.checkExpect(fromMap.toBufferedImage().getRGB(0, 0, width, 8, null, 0, width),
+          carved.toBufferedImage().getRGB(0, 0, width, 8, null, 0, width));
+      t.checkExpect(fromMap.getEnergy(3, 3), carved.getEnergy(3, 3));
+    }
+  }
+
+  void testSeveralSeamsPerPass(Tester t) {
+    this.init();
+    SeamMap map = new SeamMap(this.store, 1);
+    t.checkExpect(map.seams, 19);
+    boolean eachRowOnce = true;
+    for (int y = 0; y < 8; y++) {
+      int[] counts = new int[20];
+      for (int x = 0; x < 20; x++) {
+        counts[map.order[this.store.index(x, y)]]++;
+      }
+      for (int count : counts) {
+        eachRowOnce = eachRowOnce && count == 1;
+      }
+    }
+    t.checkExpect(eachRowOnce, true);
+    t.checkExpect(map.atWidth(1).getWidth(), 1);
+    t.checkException(
+        new IllegalArgumentException("Width must be between the minimum and original widths"),
+        map, "atWidth", 21);
+    t.checkConstructorException(
+        new IllegalArgumentException("Minimum width must be between 1 and the image's width"),
+        "SeamMap", this.store, 0);
+  }
+
+  void testWriteAndRead(Tester t) throws IOException {
+    this.init();
+    SeamMap map = new SeamMap(this.store, 5);
+    File dir = ScratchFiles.newDirectory("seams");
+    File file = new File(dir, "map.seams");
+    map.write(file);
+    SeamMap read = SeamMap.read(file, this.store);
+    t.checkExpect(read.seams, 15);
+    t.checkExpect(read.order, map.order);
+    t.checkExpect(read.atWidth(9).argb, map.atWidth(9).argb);
+    t.checkException(new IllegalArgumentException("Seam map does not match the image"),
+        map, "read", file, new PixelStore(21, 8));
+    ScratchFiles.deleteTree(dir);
+  }
+}
@@ -0,0 +1,218 @@
+import java.util.ArrayList;
+import tester.*;
+
+// Decides in which order vertical and horizontal seams are removed when an
+// image shrinks in both directions. The greedy order compares the cheapest
+// vertical seam with the cheapest horizontal seam at every step; the optimal
+// order fills in a transport map over the number of seams removed in each
+// direction, as described by Avidan and Shamir.
+class SeamOrder {
+  // Cost table for vertical seams
+  SeamCostTable verticalTable;
+  // Cost table for horizontal seams
+  SeamCostTable horizontalTable;
+  // Cost of the cheapest seam in the direction last chosen by
+  // cheaperDirection
+  double lastCost;
+  // Transport map filled in by the last optimalOrder: the total cost of
+  // removing r horizontal and c vertical seams is at r * (columns + 1) + c
+  double[] transport;
+
+  // Creates a seam order with its own cost tables
+  SeamOrder() {
+    this.verticalTable = new SeamCostTable();
+    this.horizontalTable = new SeamCostTable();
+    this.lastCost = 0;
+    this.transport = new double[0];
+  }
+
+  // Returns "vertical" if the cheapest vertical seam of the energy plane costs
+  // less than the cheapest horizontal seam, and "horizontal" otherwise.
+  // An image one pixel wide can only lose rows, and one pixel tall only
+  // columns.
+  String cheaperDirection(double[] energy, int stride, int width, int height) {
+    if (width <= 1) {
+      this.horizontalTable.findHoriSeam(energy, stride, width, height);
+      this.lastCost = this.horizontalTable.lastSeamCost;
+      return "horizontal";
+    }
+    this.verticalTable.findVertSeam(energy, stride, width, height);
+    if (height <= 1) {
+      this.lastCost = this.verticalTable.lastSeamCost;
+      return "vertical";
+    }
+    this.horizontalTable.findHoriSeam(energy, stride, width, height);
+    if (this.verticalTable.lastSeamCost < this.horizontalTable.lastSeamCost) {
+      this.lastCost = this.verticalTable.lastSeamCost;
+      return "vertical";
+    }
+    this.lastCost = this.horizontalTable.lastSeamCost;
+    return "horizontal";
+  }
+
+  // Returns the order ("vertical" or "horizontal" for each seam) in which
+  // the given numbers of seams are removed from the store at the least total
+  // cost. The store itself is not changed; every cell of the transport map
+  // solves seam costs on a copy, so this takes about 2 * (rows + 1) *
+  // (columns + 1) solves and keeps columns + 1 copies per row of the map.
+  ArrayList<String> optimalOrder(PixelStore store, int columns, int rows) {
+    if (columns < 0 || rows < 0) {
+      throw new IllegalArgumentException("Cannot remove a negative number of seams");
+    }
+    int cells = columns + 1;
+    this.transport = new double[(rows + 1) * cells];
+    boolean[] vertical = new boolean[(rows + 1) * cells];
+
+    PixelStore[] previous = new PixelStore[cells];
+    previous[0] = new PixelStore(store);
+    for (int c = 1; c < cells; c++) {
+      previous[c] = new PixelStore(previous[c - 1]);
+      this.transport[c] = this.transport[c - 1] + this.removeVertSeam(previous[c]);
+      vertical[c] = true;
+    }
+
+    for (int r = 1; r <= rows; r++) {
+      PixelStore[] current = new PixelStore[cells];
+      current[0] = previous[0];
+      this.transport[r * cells] = this.transport[(r - 1) * cells]
+          + this.removeHoriSeam(current[0]);
+      for (int c = 1; c < cells; c++) {
+        int[] horiSeam = this.horizontalTable.findHoriSeam(previous[c].energy,
+            previous[c].stride, previous[c].getWidth(), previous[c].height);
+        double byHorizontal = this.transport[(r - 1) * cells + c]
+            + this.horizontalTable.lastSeamCost;
+        int[] vertSeam = this.verticalTable.findVertSeam(current[c - 1].energy,
+            current[c - 1].stride, current[c - 1].getWidth(), current[c - 1].height);
+        double byVertical = this.transport[r * cells + c - 1] + this.verticalTable.lastSeamCost;
+
+        if (byVertical < byHorizontal) {
+          current[c] = new PixelStore(current[c - 1]);
+          current[c].removeVertSeam(vertSeam);
+          current[c].recomputeEnergyNearVertSeam(vertSeam);
+          this.transport[r * cells + c] = byVertical;
+          vertical[r * cells + c] = true;
+        }
+        else {
+          current[c] = previous[c];
+          current[c].removeHoriSeam(horiSeam);
+          current[c].recomputeEnergyNearHoriSeam(horiSeam);
+          this.transport[r * cells + c] = byHorizontal;
+        }
+      }
+      previous = current;
+    }
+
+    ArrayList<String> order = new ArrayList<String>();
+    int r = rows;
+    int c = columns;
+    while (r > 0 || c > 0) {
+      if (vertical[r * cells + c]) {
+        order.add(0, "vertical");
+        c--;
+      }
+      else {
+        order.add(0, "horizontal");
+        r--;
+      }
+    }
+    return order;
+  }
+
+  // EFFECT: removes the cheapest vertical seam from the store
+  // Returns the cost of that seam
+  double removeVertSeam(PixelStore store) {
+    int[] seam = this.verticalTable.findVertSeam(store.energy, store.stride, store.getWidth(),
+        store.height);
+    store.removeVertSeam(seam);
+    store.recomputeEnergyNearVertSeam(seam);
+    return this.verticalTable.lastSeamCost;
+  }
+
+  // EFFECT: removes the cheapest horizontal seam from the store
+  // Returns the cost of that seam
+  double removeHoriSeam(PixelStore store) {
+    int[] seam = this.horizontalTable.findHoriSeam(store.energy, store.stride, store.getWidth(),
+        store.height);
+    store.removeHoriSeam(seam);
+    store.recomputeEnergyNearHoriSeam(seam);
+    return this.horizontalTable.lastSeamCost;
+  }
+}
+
+class ExamplesSeamOrder {
+  SeamOrder order;
+
+  void init() {
+    this.order = new SeamOrder();
+  }
+
+  // A store whose left half has random colors and whose right half is flat,
+  // so vertical seams through the right half are much cheaper
+  PixelStore halfFlatStore(int width, int height) {
+    java.util.Random random = new java.util.Random(5);
+    PixelStore store = new PixelStore(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width / 2; x++) {
+        store.setArgb(x, y, random.nextInt(3) * 0x7F7F7F);
+      }
+    }
+    store.updateAllEnergy();
+    return store;
+  }
+
+  void testCheaperDirection(Tester t) {
+    this.init();
+    // every seam costs 3, and ties go to horizontal seams
+    double[] energy = new double[] { 1, 1, 1, 1, 1, 1, 1, 1, 1 };
+    t.checkExpect(this.order.cheaperDirection(energy, 3, 3, 3), "horizontal");
+    t.checkExpect(this.order.lastCost, 3.0);
+    double[] rows = new double[] { 1, 1, 1, 5, 5, 5, 5, 5, 5 };
+    t.checkExpect(this.order.cheaperDirection(rows, 3, 3, 3), "horizontal");
+    double[] columns = new double[] { 1, 5, 5, 1, 5, 5, 1, 5, 5 };
+    t.checkExpect(this.order.cheaperDirection(columns, 3, 3, 3), "vertical");
+    t.checkExpect(this.order.cheaperDirection(columns, 3, 1, 3), "horizontal");
+    t.checkExpect(this.order.cheaperDirection(columns, 3, 3, 1), "vertical");
+  }
+
+  void testOptimalOrder(Tester t) {
+    this.init();
+    PixelStore store = this.halfFlatStore(12, 10);
+    int[] before = java.util.Arrays.copyOf(store.argb, store.argb.length);
+    ArrayList<String> path = this.order.optimalOrder(store, 3, 2);
+    t.checkExpect(path.size(), 5);
+    int verticals = 0;
+    for (String direction : path) {
+      if (direction.equals("vertical")) {
+        verticals++;
+      }
+    }
+    t.checkExpect(verticals, 3);
+    t.checkExpect(store.argb, before);
+    t.checkExpect(this.order.transport[0], 0.0);
+
+    // the optimal total is no more than removing all columns first or all
+    // rows first
+    double best = this.order.transport[2 * 4 + 3];
+    PixelStore columnsFirst = new PixelStore(store);
+    double columnsFirstCost = 0;
+    for (int i = 0; i < 3; i++) {
+      columnsFirstCost += this.order.removeVertSeam(columnsFirst);
+    }
+    for (int i = 0; i < 2; i++) {
+      columnsFirstCost += this.order.removeHoriSeam(columnsFirst);
+    }
+    PixelStore rowsFirst = new PixelStore(store);
+    double rowsFirstCost = 0;
+    for (int i = 0; i < 2; i++) {
+      rowsFirstCost += this.order.removeHoriSeam(rowsFirst);
+    }
+    for (int i = 0; i < 3; i++) {
+      rowsFirstCost += this.order.removeVertSeam(rowsFirst);
+    }
+    t.checkExpect(best <= columnsFirstCost && best <= rowsFirstCost, true);
+
+    t.checkExpect(this.order.optimalOrder(store, 0, 0), new ArrayList<String>());
+    t.checkException(new IllegalArgumentException("Cannot remove a negative number of seams"),
+        this.order, "optimalOrder", store, -1, 0);
+  }
+}
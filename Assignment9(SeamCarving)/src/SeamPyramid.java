@@ -0,0 +1,191 @@
+import java.util.ArrayList;
+import tester.*;
+
+// Finds seams coarse-to-fine. The energy plane is summed down into a
+// pyramid of planes, each half the width and height of the one below it;
+// the seam is solved exactly on the smallest plane, then refined on each
+// larger plane inside a band around the seam scaled up from the level above.
+// Every level but the smallest solves only about (2 * band + 2) cells per
+// line, so a seam costs O(H * band) cells of DP instead of O(W * H), at the
+// price of missing seams that look poor at the coarse levels.
+class SeamPyramid {
+  // Table that solves every level
+  SeamCostTable table;
+  // Half-width of the band searched around the scaled-up seam at each finer
+  // level: the knob between speed (small) and matching the exact seam
+  // (large)
+  int band;
+  // Levels are not made smaller than this many pixels in either direction
+  int minSize;
+  // Most levels above the energy plane itself
+  int maxLevels;
+  // Number of DP cells solved for the last seam, over all levels
+  int cellsSolved;
+  // Total cost, on the energy plane itself, of the last seam found
+  double lastSeamCost;
+
+  // Creates a pyramid search with the given band
+  SeamPyramid(int band) {
+    if (band < 1) {
+      throw new IllegalArgumentException("Band must be at least 1");
+    }
+    this.table = new SeamCostTable();
+    this.band = band;
+    this.minSize = 32;
+    this.maxLevels = 8;
+    this.cellsSolved = 0;
+    this.lastSeamCost = 0;
+  }
+
+  // Finds a low-cost vertical seam of the energy plane: one x per row
+  int[] findVertSeam(double[] energy, int stride, int width, int height) {
+    return this.findSeam("vertical", energy, stride, width, height);
+  }
+
+  // Finds a low-cost horizontal seam of the energy plane: one y per column
+  int[] findHoriSeam(double[] energy, int stride, int width, int height) {
+    return this.findSeam("horizontal", energy, stride, width, height);
+  }
+
+  // Finds a seam in the given direction by solving the coarsest level of
+  // the pyramid and refining the seam level by level
+  int[] findSeam(String direction, double[] energy, int stride, int width, int height) {
+    ArrayList<double[]> planes = new ArrayList<double[]>();
+    ArrayList<int[]> sizes = new ArrayList<int[]>();
+    planes.add(energy);
+    sizes.add(new int[] { width, height, stride });
+    while (planes.size() <= this.maxLevels) {
+      int[] size = sizes.get(sizes.size() - 1);
+      if (size[0] / 2 < this.minSize || size[1] / 2 < this.minSize) {
+        break;
+      }
+      planes.add(this.downsample(planes.get(planes.size() - 1), size[0], size[1], size[2]));
+      sizes.add(new int[] { (size[0] + 1) / 2, (size[1] + 1) / 2, (size[0] + 1) / 2 });
+    }
+
+    int top = planes.size() - 1;
+    int[] size = sizes.get(top);
+    int[] seam;
+    if (direction.equals("vertical")) {
+      seam = this.table.findVertSeam(planes.get(top), size[2], size[0], size[1]);
+    }
+    else {
+      seam = this.table.findHoriSeam(planes.get(top), size[2], size[0], size[1]);
+    }
+    int cells = this.table.cellsSolved;
+
+    for (int level = top - 1; level >= 0; level--) {
+      size = sizes.get(level);
+      int lines = direction.equals("vertical") ? size[1] : size[0];
+      int positions = direction.equals("vertical") ? size[0] : size[1];
+      int[] low = new int[lines];
+      int[] high = new int[lines];
+      for (int line = 0; line < lines; line++) {
+        int coarse = seam[Math.min(line / 2, seam.length - 1)];
+        low[line] = Math.max(0, 2 * coarse - this.band);
+        high[line] = Math.min(positions - 1, 2 * coarse + 1 + this.band);
+      }
+      if (direction.equals("vertical")) {
+        seam = this.table.findSeamInBand(planes.get(level), size[2], 1, lines, positions, low,
+            high);
+      }
+      else {
+        seam = this.table.findSeamInBand(planes.get(level), 1, size[2], lines, positions, low,
+            high);
+      }
+      cells += this.table.cellsSolved;
+    }
+    this.cellsSolved = cells;
+    this.lastSeamCost = this.table.lastSeamCost;
+    return seam;
+  }
+
+  // Returns a plane half the width and height of the given one (rounded
+  // up), where each cell is the mean of the (up to) four cells it covers, so
+  // that the cells along an odd edge are not made to look cheap
+  double[] downsample(double[] plane, int width, int height, int stride) {
+    int halfWidth = (width + 1) / 2;
+    int halfHeight = (height + 1) / 2;
+    double[] half = new double[halfWidth * halfHeight];
+    for (int y = 0; y < halfHeight; y++) {
+      int top = 2 * y * stride;
+      int bottom = 2 * y + 1 < height ? top + stride : top;
+      int out = y * halfWidth;
+      for (int x = 0; x < width / 2; x++) {
+        int left = 2 * x;
+        half[out + x] = (plane[top + left] + plane[top + left + 1] + plane[bottom + left]
+            + plane[bottom + left + 1]) * 0.25;
+      }
+      if (width % 2 == 1) {
+        half[out + halfWidth - 1] = (plane[top + width - 1] + plane[bottom + width - 1]) * 0.5;
+      }
+    }
+    return half;
+  }
+
+  // Returns the cost of the given vertical seam on the energy plane
+  static double vertSeamCost(int[] seam, double[] energy, int stride) {
+    double cost = 0;
+    for (int y = 0; y < seam.length; y++) {
+      cost += energy[y * stride + seam[y]];
+    }
+    return cost;
+  }
+}
+
+class ExamplesSeamPyramid {
+  SeamPyramid pyramid;
+
+  void init() {
+    this.pyramid = new SeamPyramid(2);
+    this.pyramid.minSize = 4;
+  }
+
+  void testDownsample(Tester t) {
+    this.init();
+    double[] plane = new double[] { 1, 2, 3, 9, 4, 5, 6, 9, 7, 8, 9, 9 };
+    t.checkExpect(this.pyramid.downsample(plane, 3, 3, 4),
+        new double[] { 3.0, 4.5, 7.5, 9.0 });
+  }
+
+  void testMatchesExactWithWideBand(Tester t) {
+    this.init();
+    PixelStore store = new PixelStore(new javalib.worldimages.FromFileImage("src/Balloons.jpg"));
+    store.updateAllEnergy();
+    SeamCostTable exact = new SeamCostTable();
+    SeamPyramid wide = new SeamPyramid(store.getWidth());
+    t.checkExpect(wide.findVertSeam(store.energy, store.stride, store.getWidth(), store.height),
+        exact.findVertSeam(store.energy, store.stride, store.getWidth(), store.height));
+    t.checkExpect(wide.findHoriSeam(store.energy, store.stride, store.getWidth(), store.height),
+        exact.findHoriSeam(store.energy, store.stride, store.getWidth(), store.height));
+  }
+
+  void testNarrowBand(Tester t) {
+    this.init();
+    PixelStore store = new PixelStore(new javalib.worldimages.FromFileImage("src/Balloons.jpg"));
+    store.updateAllEnergy();
+    SeamCostTable exact = new SeamCostTable();
+    SeamPyramid narrow = new SeamPyramid(4);
+    int width = store.getWidth();
+    int height = store.height;
+
+    int[] seam = narrow.findVertSeam(store.energy, store.stride, width, height);
+    exact.findVertSeam(store.energy, store.stride, width, height);
+    t.checkExpect(seam.length, height);
+    boolean connected = true;
+    for (int y = 1; y < height; y++) {
+      connected = connected && Math.abs(seam[y] - seam[y - 1]) <= 1;
+    }
+    t.checkExpect(connected, true);
+    t.checkExpect(narrow.lastSeamCost, SeamPyramid.vertSeamCost(seam, store.energy,
+        store.stride));
+    t.checkExpect(narrow.lastSeamCost >= exact.lastSeamCost, true);
+    t.checkExpect(narrow.lastSeamCost <= exact.lastSeamCost * 1.5, true);
+    t.checkExpect(narrow.cellsSolved < width * height / 4, true);
+
+    int[] row = narrow.findHoriSeam(store.energy, store.stride, width, height);
+    t.checkExpect(row.length, width);
+    t.checkConstructorException(new IllegalArgumentException("Band must be at least 1"),
+        "SeamPyramid", 0);
+  }
+}
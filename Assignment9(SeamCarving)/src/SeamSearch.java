@@ -0,0 +1,127 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadFactory;
+import tester.*;
+
+// A seam found off the world's thread, with the direction it runs in
+class FoundSeam {
+  // Direction of the seam: "vertical" or "horizontal"
+  String direction;
+  // Column of the seam in every row, or row of the seam in every column
+  int[] seam;
+
+  // Creates a found seam
+  FoundSeam(String direction, int[] seam) {
+    this.direction = direction;
+    this.seam = seam;
+  }
+}
+
+// Finds the next seam of a seam carver on its searcher thread: the energy
+// (for a graph of pixels), the seam costs with the cost table and the trace,
+// for the direction to carve, or the cheaper direction in "both" mode. While
+// a search is pending the world's thread only reads the carver's store (to
+// draw it) and leaves its cost table alone, and the carver waits for the
+// searcher to go idle before it changes the store any other way than by
+// removing a seam the searcher handed over.
+class SeamSearch implements Callable<FoundSeam> {
+  // The carver whose next seam is found
+  SeamCarver carver;
+  // Direction to carve when the search was started
+  String directionToCarve;
+
+  // Creates a search for the carver's next seam in the given direction
+  SeamSearch(SeamCarver carver, String directionToCarve) {
+    this.carver = carver;
+    this.directionToCarve = directionToCarve;
+  }
+
+  // Finds the seam
+  public FoundSeam call() {
+    String direction = this.directionToCarve;
+    if (direction.equals("both")) {
+      direction = this.carver.cheaperDirection();
+    }
+    PhaseStart start = this.carver.timer.start();
+    int[] seam;
+    if (direction.equals("horizontal")) {
+      seam = this.carver.findHoriSeamInArray();
+    }
+    else {
+      seam = this.carver.findVertSeamInArray();
+    }
+    this.carver.timer.end("seamCosts", start, this.carver.width, this.carver.height,
+        this.carver.cellsSolved());
+    return new FoundSeam(direction, seam);
+  }
+}
+
+// Does nothing; queued on a searcher behind a search to wait until that
+// search is over
+class SearchBarrier implements Runnable {
+  // Does nothing
+  public void run() {
+  }
+}
+
+// Makes the daemon threads seams are searched on, so that a searcher left
+// running does not keep the program alive
+class SearchThreads implements ThreadFactory {
+  // Creates a daemon thread for the runnable
+  public Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "seam-search");
+    thread.setDaemon(true);
+    return thread;
+  }
+}
+
+class ExamplesSeamSearch {
+  // Ticks the carver until it paints a seam, waiting for its searcher
+  void tickUntilPainted(SeamCarver carver) throws InterruptedException {
+    while (!carver.paintedSeam) {
+      carver.onTick();
+      Thread.sleep(1);
+    }
+  }
+
+  void testBackgroundMatchesWorldThread(Tester t) throws InterruptedException {
+    SeamCarver plain = new SeamCarver("src/Balloons.jpg", "flat");
+    SeamCarver background = new SeamCarver("src/Balloons.jpg", "flat");
+    plain.costMode = "array";
+    background.costMode = "array";
+    background.useBackgroundSearch();
+    t.checkExpect(background.searcher != null, true);
+
+    for (int i = 0; i < 3; i++) {
+      plain.onTick();
+      this.tickUntilPainted(background);
+      t.checkExpect(background.seamLocation, plain.seamLocation);
+      plain.onTick();
+      background.onTick();
+      t.checkExpect(background.paintedSeam, false);
+      t.checkExpect(background.width, plain.width);
+    }
+    t.checkExpect(background.pendingSeam != null, true);
+
+    plain.onKeyEvent("h");
+    background.onKeyEvent("h");
+    plain.onTick();
+    this.tickUntilPainted(background);
+    t.checkExpect(background.paintedDirection, "horizontal");
+    t.checkExpect(background.seamLocation, plain.seamLocation);
+    background.onTick();
+    t.checkExpect(background.height, plain.height - 1);
+
+    background.onKeyEvent("b");
+    this.tickUntilPainted(background);
+    t.checkExpect(background.paintedDirection, background.cheaperDirection());
+    background.onKeyEvent("z");
+    t.checkExpect(background.pendingSeam, null);
+    t.checkExpect(background.height, plain.height);
+
+    background.stopBackgroundSearch();
+    t.checkExpect(background.searcher, null);
+    background.paused = false;
+    background.onTick();
+    t.checkExpect(background.paintedSeam, true);
+  }
+}
@@ -0,0 +1,612 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import javax.imageio.ImageIO;
+import tester.*;
+
+// One stage of the seam carving pipeline run by one engine on one image.
+// setUp brings a carver to the state the stage starts from and is not
+// timed; run does the stage's work once and is timed.
+//
+// Stages: "load" decodes the image into pixels, "energy" computes every
+// pixel's energy, "seamCosts" fills in the vertical seam costs, "trace"
+// follows the cheapest vertical seam back up, "removeVert" and
+// "removeHori" take a seam out and update the energy next to it, and
+// "render" draws a frame after a seam was removed.
+//
+// Engines: "graph" is the linked IPixel grid with the memoized seam costs
+// of SeamInfo, "flat" is the PixelStore with the SeamCostTable, and
+// "raster" is the flat store drawn through a SceneRaster (render only).
+class PipelineStage {
+  // Which stage is run
+  String stage;
+  // Which engine runs it
+  String engine;
+  // Image file the carver is made from
+  String fileName;
+  // Carver in the state the stage starts from
+  SeamCarver carver;
+  // Seam found by setUp for the removal stages
+  ArrayList<Integer> seam;
+  // Keeps the result of a stage reachable so it is not optimized away
+  Object result;
+
+  // Creates the given stage of the given engine on an image file
+  PipelineStage(String stage, String engine, String fileName) {
+    this.stage = stage;
+    this.engine = engine;
+    this.fileName = fileName;
+  }
+
+  // Returns a short name for this stage, like "energy/flat"
+  String name() {
+    return this.stage + "/" + this.engine;
+  }
+
+  // Returns whether the engine has this stage, and whether it is worth
+  // running on an image of the given size (the graph engine takes hundreds
+  // of bytes per pixel, and its memoized costs far more)
+  boolean supports(int pixels) {
+    if (this.engine.equals("raster")) {
+      return this.stage.equals("render");
+    }
+    if (this.engine.equals("flat")) {
+      return !this.stage.equals("trace");
+    }
+    if (this.stage.equals("seamCosts") || this.stage.equals("trace")) {
+      return pixels <= 1000000;
+    }
+    return pixels <= 4000000;
+  }
+
+  // EFFECT: brings the carver to the state this stage starts from
+  void setUp() {
+    if (this.stage.equals("load")) {
+      this.carver = null;
+      return;
+    }
+    if (this.carver == null || this.carver.width < 3 || this.carver.height < 3) {
+      this.carver = new SeamCarver(this.fileName,
+          this.engine.equals("graph") ? "graph" : "flat");
+      this.carver.costMode = "array";
+      if (this.engine.equals("raster")) {
+        this.carver.useRaster();
+      }
+      if (this.engine.equals("graph")) {
+        this.carver.recomputeAllEnergy();
+      }
+    }
+
+    if (this.stage.equals("seamCosts") || this.stage.equals("trace")) {
+      // neither stage changes the image, so its energy is filled in once,
+      // and the seam costs once for tracing
+      if (this.carver.energyMemo.isEmpty()) {
+        this.carver.updateAllEnergy();
+      }
+      if (this.stage.equals("seamCosts")) {
+        this.carver.seamCostMemo.clear();
+      }
+      else if (this.carver.seamCostMemo.isEmpty()) {
+        this.carver.seamInfo.calculateAllVertSeamCosts(this.carver.height, this.carver.width,
+            this.carver.seamCostMemo, this.carver.energyMemo);
+      }
+    }
+    else if (this.stage.equals("removeVert")) {
+      this.seam = this.carver.seamListOf(this.carver.findVertSeamInArray());
+    }
+    else if (this.stage.equals("removeHori")) {
+      this.seam = this.carver.seamListOf(this.carver.findHoriSeamInArray());
+    }
+    else if (this.stage.equals("render")) {
+      this.carver.directionToCarve = "vertical";
+      this.carver.onTick();
+      this.carver.onTick();
+    }
+  }
+
+  // EFFECT: runs this stage once
+  void run() {
+    if (this.stage.equals("load") && this.engine.equals("graph")) {
+      this.result = new SeamCarver(this.fileName);
+    }
+    else if (this.stage.equals("load")) {
+      this.result = PixelStore.load(this.fileName);
+    }
+    else if (this.stage.equals("energy")) {
+      this.carver.recomputeAllEnergy();
+    }
+    else if (this.stage.equals("seamCosts") && this.engine.equals("graph")) {
+      this.carver.seamInfo.calculateAllVertSeamCosts(this.carver.height, this.carver.width,
+          this.carver.seamCostMemo, this.carver.energyMemo);
+    }
+    else if (this.stage.equals("seamCosts")) {
+      this.result = this.carver.findVertSeamInArray();
+    }
+    else if (this.stage.equals("trace")) {
+      int bottom = this.carver.seamInfo.findMinBottomColVert(this.carver.width,
+          this.carver.height, this.carver.seamCostMemo);
+      this.result = this.carver.seamInfo.traceVertSeam(bottom, this.carver.height,
+          this.carver.seamCostMemo);
+    }
+    else if (this.stage.equals("removeVert") || this.stage.equals("removeHori")) {
+      this.carver.seamLocation = this.seam;
+      this.carver.paintedSeam = true;
+      if (this.stage.equals("removeVert")) {
+        this.carver.findAndRemoveVertSeam();
+      }
+      else {
+        this.carver.findAndRemoveHoriSeam();
+      }
+      this.carver.paintedSeam = false;
+    }
+    else {
+      this.result = this.carver.makeScene();
+    }
+  }
+}
+
+// What was measured of one stage: how many times it ran, for how long,
+// and how many bytes it allocated
+class StageResult {
+  // Stage measured
+  String name;
+  // Image it ran on
+  String image;
+  // Number of timed runs
+  int runs;
+  // Total time of the timed runs
+  long nanos;
+  // Total bytes allocated by the timed runs, or -1 if the JVM cannot tell
+  long bytes;
+
+  // Creates the result of a measurement
+  StageResult(String name, String image, int runs, long nanos, long bytes) {
+    this.name = name;
+    this.image = image;
+    this.runs = runs;
+    this.nanos = nanos;
+    this.bytes = bytes;
+  }
+
+  // Returns the mean time of one run in milliseconds
+  double millisPerRun() {
+    return this.nanos / 1e6 / this.runs;
+  }
+
+  // Returns the number of runs per second
+  double runsPerSecond() {
+    return this.runs * 1e9 / this.nanos;
+  }
+
+  // Returns the mean bytes allocated by one run, or -1 if unknown
+  double bytesPerRun() {
+    return this.bytes < 0 ? -1 : (double) this.bytes / this.runs;
+  }
+
+  // Returns the allocation rate while running in MB per second, or -1 if
+  // unknown
+  double allocationRate() {
+    return this.bytes < 0 ? -1 : this.bytes * 1e9 / this.nanos / (1 << 20);
+  }
+
+  // Returns one line of the report
+  public String toString() {
+    return String.format("%-16s %-20s %7d %10.3f %10.1f %12.1f %10.1f", this.name, this.image,
+        this.runs, this.millisPerRun(), this.runsPerSecond(), this.bytesPerRun() / 1024,
+        this.allocationRate());
+  }
+}
+
+// Measures each stage of the pipeline on each engine and image: the
+// throughput of the stage and the bytes it allocates per run, read from
+// the JVM's per-thread allocation counter. Each stage is warmed up before
+// it is timed, and only run (not setUp) is counted.
+class StageBenchmark {
+  // Seconds each stage is warmed up for
+  double warmupSeconds;
+  // Seconds each stage is timed for
+  double measureSeconds;
+  // Most runs timed per stage, so slow stages on large images end
+  int maxRuns;
+  // Counts the bytes allocated by a thread, or null if the JVM cannot
+  com.sun.management.ThreadMXBean threads;
+
+  // Every stage, in pipeline order
+  static final String[] STAGES = new String[] { "load", "energy", "seamCosts", "trace",
+      "removeVert", "removeHori", "render" };
+  // Every engine
+  static final String[] ENGINES = new String[] { "graph", "flat", "raster" };
+
+  // Creates a benchmark that warms each stage up and times it for the
+  // given numbers of seconds
+  StageBenchmark(double warmupSeconds, double measureSeconds) {
+    this.warmupSeconds = warmupSeconds;
+    this.measureSeconds = measureSeconds;
+    this.maxRuns = 1000000;
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+      this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      if (!this.threads.isThreadAllocatedMemorySupported()) {
+        this.threads = null;
+      }
+    }
+  }
+
+  // Returns the bytes allocated so far by this thread, or -1 if unknown
+  long allocatedBytes() {
+    if (this.threads == null) {
+      return -1;
+    }
+    return this.threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  // Warms the stage up, then times it for measureSeconds (but at least
+  // once). A stage whose setUp takes much longer than its run stops after
+  // three times measureSeconds of wall time.
+  StageResult measure(PipelineStage stage, String image) {
+    long end = System.nanoTime() + (long) (this.warmupSeconds * 1e9);
+    while (System.nanoTime() < end) {
+      stage.setUp();
+      stage.run();
+    }
+
+    int runs = 0;
+    long nanos = 0;
+    long bytes = 0;
+    long stop = System.nanoTime() + (long) (3 * this.measureSeconds * 1e9);
+    while (runs == 0 || (nanos < this.measureSeconds * 1e9 && runs < this.maxRuns
+        && System.nanoTime() < stop)) {
+      stage.setUp();
+      long allocated = this.allocatedBytes();
+      long start = System.nanoTime();
+      stage.run();
+      nanos += System.nanoTime() - start;
+      bytes += this.allocatedBytes() - allocated;
+      runs++;
+    }
+    return new StageResult(stage.name(), image, runs, nanos, this.threads == null ? -1 : bytes);
+  }
+
+  // Measures every stage of every engine that supports the image, in
+  // pipeline order, labeling the results with the name and the image's size
+  ArrayList<StageResult> measureImage(String fileName, String name) {
+    BufferedImage image = this.read(fileName);
+    int pixels = image.getWidth() * image.getHeight();
+    String label = name + " " + image.getWidth() + "x" + image.getHeight();
+    ArrayList<StageResult> results = new ArrayList<StageResult>();
+    for (String stage : STAGES) {
+      for (String engine : ENGINES) {
+        PipelineStage run = new PipelineStage(stage, engine, fileName);
+        if (run.supports(pixels)) {
+          results.add(this.measure(run, label));
+        }
+      }
+    }
+    return results;
+  }
+
+  // Returns the image in the file
+  BufferedImage read(String fileName) {
+    try {
+      return ImageIO.read(new File(fileName));
+    }
+    catch (IOException e) {
+      throw new java.io.UncheckedIOException(e);
+    }
+  }
+
+  // Returns a PNG file in dir holding a synthetic image of the given size:
+  // smooth bands of color with seeded noise, so that seams are neither
+  // trivial nor random
+  static File syntheticImage(int width, int height, File dir) throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    java.util.Random random = new java.util.Random(width * 31L + height);
+    int[] row = new int[width];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int red = (int) (127 + 100 * Math.sin(x * 0.01 + y * 0.003)) + random.nextInt(24);
+        int green = (int) (127 + 100 * Math.sin(y * 0.013)) + random.nextInt(24);
+        int blue = (x * 255 / width + random.nextInt(24)) & 0xFF;
+        row[x] = (Math.min(red, 255) << 16) | (Math.min(green, 255) << 8) | blue;
+      }
+      image.setRGB(0, y, width, 1, row, 0, width);
+    }
+    File file = new File(dir, "synthetic-" + width + "x" + height + ".png");
+    ImageIO.write(image, "png", file);
+    return file;
+  }
+
+  // Times three ways of computing the energy of every pixel of an image: the
+  // linked Pixel grid, one computeEnergy call per pixel of a PixelStore, and
+  // updateAllEnergy with its row kernel, after a few warm-up rounds each.
+  // Returns one line per way, after a heading.
+  static ArrayList<String> compareEnergy(String fileName, int rounds) {
+    PixelStore store = PixelStore.load(fileName);
+    int width = store.getWidth();
+    long pixels = (long) width * store.height;
+
+    ArrayList<ArrayList<IPixel>> grid = new ArrayList<ArrayList<IPixel>>();
+    for (int y = 0; y < store.height; y++) {
+      ArrayList<IPixel> row = new ArrayList<IPixel>();
+      for (int x = 0; x < width; x++) {
+        row.add(new Pixel(store.getColor(x, y)));
+      }
+      grid.add(row);
+    }
+    BorderPixel border = new BorderPixel();
+    for (int y = 0; y < store.height; y++) {
+      for (int x = 0; x < width; x++) {
+        grid.get(y).get(x).connectToNeighbors(x, y, width, store.height, grid, border);
+      }
+    }
+
+    ArrayList<String> lines = new ArrayList<String>();
+    lines.add(fileName + ": " + width + "x" + store.height + ", " + rounds + " rounds");
+    String[] ways = new String[] { "pixels", "scalar", "kernel" };
+    for (String way : ways) {
+      long nanos = 0;
+      for (int round = -5; round < rounds; round++) {
+        long start = System.nanoTime();
+        if (way.equals("pixels")) {
+          for (ArrayList<IPixel> row : grid) {
+            for (IPixel pixel : row) {
+              pixel.recomputeEnergy();
+            }
+          }
+        }
+        else if (way.equals("scalar")) {
+          for (int y = 0; y < store.height; y++) {
+            for (int x = 0; x < width; x++) {
+              store.energy[store.index(x, y)] = store.computeEnergy(x, y);
+            }
+          }
+        }
+        else {
+          store.updateAllEnergy();
+        }
+        if (round >= 0) {
+          nanos += System.nanoTime() - start;
+        }
+      }
+      lines.add(String.format("%-8s %8.2f ms/image %6.2f ns/pixel", way,
+          nanos / 1e6 / rounds, (double) nanos / rounds / pixels));
+    }
+    return lines;
+  }
+
+  // Times carving a third of the rows, then a third of the columns, out of
+  // an image with a Retargeter, with the rows removed in place and through
+  // a transpose, twice over. Returns one line per mode and round, after a
+  // heading.
+  static ArrayList<String> compareRetargeting(String fileName) {
+    String[] modes = new String[] { "inPlace", "transposed" };
+    PixelStore original = PixelStore.load(fileName);
+    original.updateAllEnergy();
+    int width = original.getWidth();
+    int height = original.height;
+    ArrayList<String> lines = new ArrayList<String>();
+    lines.add(fileName + ": " + width + "x" + height);
+    for (int round = 0; round < 2; round++) {
+      for (String mode : modes) {
+        Retargeter rows = new Retargeter(new PixelStore(original));
+        rows.horizontalMode = mode;
+        long start = System.nanoTime();
+        rows.carveTo(width, height - height / 3);
+        double rowMillis = (System.nanoTime() - start) / 1e6;
+
+        Retargeter columns = new Retargeter(new PixelStore(original));
+        start = System.nanoTime();
+        columns.carveTo(width - width / 3, height);
+        double columnMillis = (System.nanoTime() - start) / 1e6;
+        lines.add(String.format(
+            "  %-10s %4d rows in %7.1f ms (%.3f ms/seam), %4d columns in %7.1f ms"
+                + " (%.3f ms/seam)",
+            mode, height / 3, rowMillis, rowMillis / (height / 3), width / 3, columnMillis,
+            columnMillis / (width / 3)));
+      }
+    }
+    return lines;
+  }
+
+  // Compares the pyramid search with the exact DP on an image: for each
+  // band, the time and cells solved per seam and how much more its seams
+  // cost than the exact ones, over the first seams carved. Returns one line
+  // per band, after a heading.
+  static ArrayList<String> comparePyramid(String fileName, int seams) {
+    PixelStore original = PixelStore.load(fileName);
+    original.updateAllEnergy();
+    ArrayList<String> lines = new ArrayList<String>();
+    lines.add(fileName + ": " + original.getWidth() + "x" + original.height + ", " + seams
+        + " vertical seams");
+    int[] bands = new int[] { 0, 1, 2, 4, 8, 16 };
+    for (int band : bands) {
+      PixelStore store = new PixelStore(original);
+      SeamCostTable exact = new SeamCostTable();
+      SeamPyramid pyramid = band > 0 ? new SeamPyramid(band) : null;
+      double extra = 0;
+      long cells = 0;
+      long nanos = 0;
+      for (int i = 0; i < seams; i++) {
+        long start = System.nanoTime();
+        int[] seam;
+        if (pyramid == null) {
+          seam = exact.findVertSeam(store.energy, store.stride, store.getWidth(), store.height);
+          cells += exact.cellsSolved;
+        }
+        else {
+          seam = pyramid.findVertSeam(store.energy, store.stride, store.getWidth(),
+              store.height);
+          cells += pyramid.cellsSolved;
+        }
+        nanos += System.nanoTime() - start;
+        exact.findVertSeam(store.energy, store.stride, store.getWidth(), store.height);
+        extra += SeamPyramid.vertSeamCost(seam, store.energy, store.stride) / exact.lastSeamCost
+            - 1;
+        store.removeVertSeam(seam);
+        store.recomputeEnergyNearVertSeam(seam);
+      }
+      lines.add(String.format("%-8s %8.2f ms/seam %10d cells/seam %6.2f%% above exact",
+          band == 0 ? "exact" : "band " + band, nanos / 1e6 / seams, cells / seams,
+          100 * extra / seams));
+    }
+    return lines;
+  }
+
+  // Runs every stage on the bundled images and on synthetic 2000x1500 and
+  // 4000x3000 images, or on the images given, and prints one line per stage.
+  // Given the name of a comparison first, runs that comparison instead:
+  // "energy" (energy of every pixel three ways, over rounds rounds, 20
+  // unless given), "retarget" (rows carved in place and transposed, on each
+  // image given) or "pyramid" (pyramid bands against the exact seams, over
+  // the first seams seams, 50 unless given).
+  //
+  // Usage: java StageBenchmark [seconds] [image | WIDTHxHEIGHT] ...
+  //        java StageBenchmark energy <image> [rounds]
+  //        java StageBenchmark retarget <image> ...
+  //        java StageBenchmark pyramid <image> [seams]
+  public static void main(String[] args) throws IOException {
+    if (args.length > 1 && args[0].equals("energy")) {
+      StageBenchmark.print(StageBenchmark.compareEnergy(args[1],
+          args.length > 2 ? Integer.parseInt(args[2]) : 20));
+      return;
+    }
+    if (args.length > 1 && args[0].equals("retarget")) {
+      for (int i = 1; i < args.length; i++) {
+        StageBenchmark.print(StageBenchmark.compareRetargeting(args[i]));
+      }
+      return;
+    }
+    if (args.length > 1 && args[0].equals("pyramid")) {
+      StageBenchmark.print(StageBenchmark.comparePyramid(args[1],
+          args.length > 2 ? Integer.parseInt(args[2]) : 50));
+      return;
+    }
+    double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+    ArrayList<String> images = new ArrayList<String>();
+    for (int i = 1; i < args.length; i++) {
+      images.add(args[i]);
+    }
+    if (images.isEmpty()) {
+      images.add("src/Balloons.jpg");
+      images.add("src/Nature.jpg");
+      images.add("src/Ice.png");
+      images.add("2000x1500");
+      images.add("4000x3000");
+    }
+
+    StageBenchmark benchmark = new StageBenchmark(seconds / 2, seconds);
+    System.out.println(String.format("%-16s %-20s %7s %10s %10s %12s %10s", "stage/engine",
+        "image", "runs", "ms/run", "runs/s", "KB/run", "MB/s alloc"));
+    File scratch = ScratchFiles.newDirectory("synthetic");
+    try {
+      for (String image : images) {
+        String fileName = image;
+        String name = new File(image).getName();
+        if (image.matches("\\d+x\\d+")) {
+          String[] size = image.split("x");
+          fileName = StageBenchmark.syntheticImage(Integer.parseInt(size[0]),
+              Integer.parseInt(size[1]), scratch).getPath();
+          name = "synthetic";
+        }
+        for (StageResult result : benchmark.measureImage(fileName, name)) {
+          System.out.println(result);
+        }
+      }
+    }
+    finally {
+      ScratchFiles.deleteTree(scratch);
+    }
+  }
+
+  // EFFECT: prints each line
+  static void print(ArrayList<String> lines) {
+    for (String line : lines) {
+      System.out.println(line);
+    }
+  }
+}
+
+class ExamplesStageBenchmark {
+  StageBenchmark benchmark;
+  File workDir;
+
+  void init() {
+    this.benchmark = new StageBenchmark(0, 0);
+    this.benchmark.maxRuns = 2;
+    this.workDir = ScratchFiles.newDirectory("stages");
+  }
+
+  // EFFECT: deletes the work directory and everything written into it
+  void cleanUp() {
+    ScratchFiles.deleteTree(this.workDir);
+  }
+
+  void testSupports(Tester t) {
+    this.init();
+    t.checkExpect(new PipelineStage("render", "raster", "x").supports(100), true);
+    t.checkExpect(new PipelineStage("energy", "raster", "x").supports(100), false);
+    t.checkExpect(new PipelineStage("trace", "flat", "x").supports(100), false);
+    t.checkExpect(new PipelineStage("trace", "graph", "x").supports(100), true);
+    t.checkExpect(new PipelineStage("seamCosts", "graph", "x").supports(2000000), false);
+    t.checkExpect(new PipelineStage("seamCosts", "flat", "x").supports(2000000), true);
+    t.checkExpect(new PipelineStage("energy", "flat", "x").name(), "energy/flat");
+    this.cleanUp();
+  }
+
+  void testMeasureStages(Tester t) throws IOException {
+    this.init();
+    File file = StageBenchmark.syntheticImage(40, 30, this.workDir);
+    t.checkExpect(ImageIO.read(file).getWidth(), 40);
+    ArrayList<StageResult> results = this.benchmark.measureImage(file.getPath(), "synthetic");
+    t.checkExpect(results.get(0).image, "synthetic 40x30");
+    // 7 graph stages, 6 flat stages and the raster render
+    t.checkExpect(results.size(), 14);
+    boolean measured = true;
+    for (StageResult result : results) {
+      measured = measured && result.runs == 1 && result.nanos > 0 && result.millisPerRun() > 0;
+    }
+    t.checkExpect(measured, true);
+
+    PipelineStage removal = new PipelineStage("removeVert", "flat", file.getPath());
+    removal.setUp();
+    removal.run();
+    removal.setUp();
+    removal.run();
+    t.checkExpect(removal.carver.width, 38);
+    t.checkExpect(removal.carver.store.getWidth(), 38);
+
+    PipelineStage render = new PipelineStage("render", "raster", file.getPath());
+    render.setUp();
+    render.run();
+    t.checkExpect(render.carver.width, 39);
+    t.checkExpect(render.result instanceof javalib.impworld.WorldScene, true);
+    this.cleanUp();
+  }
+
+  void testComparisons(Tester t) throws IOException {
+    this.init();
+    File file = StageBenchmark.syntheticImage(30, 24, this.workDir);
+    ArrayList<String> energy = StageBenchmark.compareEnergy(file.getPath(), 1);
+    t.checkExpect(energy.size(), 4);
+    t.checkExpect(energy.get(0), file.getPath() + ": 30x24, 1 rounds");
+    t.checkExpect(energy.get(3).startsWith("kernel"), true);
+    ArrayList<String> retargeting = StageBenchmark.compareRetargeting(file.getPath());
+    t.checkExpect(retargeting.size(), 5);
+    t.checkExpect(retargeting.get(2).contains("transposed    8 rows"), true);
+    ArrayList<String> pyramid = StageBenchmark.comparePyramid(file.getPath(), 3);
+    t.checkExpect(pyramid.size(), 7);
+    t.checkExpect(pyramid.get(1).startsWith("exact"), true);
+    t.checkExpect(pyramid.get(1).endsWith("0.00% above exact"), true);
+    this.cleanUp();
+  }
+
+  void testResult(Tester t) {
+    StageResult result = new StageResult("energy/flat", "a.png", 4, 2000000, 4096);
+    t.checkInexact(result.millisPerRun(), 0.5, 0.0001);
+    t.checkInexact(result.runsPerSecond(), 2000.0, 0.0001);
+    t.checkInexact(result.bytesPerRun(), 1024.0, 0.0001);
+    t.checkInexact(new StageResult("load/flat", "a.png", 1, 1000, -1).bytesPerRun(), -1.0,
+        0.0001);
+  }
+}
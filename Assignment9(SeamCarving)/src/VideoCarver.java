@@ -0,0 +1,409 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import tester.*;
+
+// Retargets the frames of a clip to a narrower width, one frame after
+// another. The i-th seam of a frame is searched for only in a band around
+// the i-th seam of the frame before, which keeps the seams from jumping
+// between frames and solves a small part of each plane. A frame whose band
+// seam costs much more than the seam it follows (a cut, or fast motion)
+// gets a full solve for that seam instead.
+//
+// Frames are decoded, carved and encoded by a pipeline of three threads
+// joined by small bounded queues, so carving one frame overlaps with
+// reading the next and writing the last.
+//
+// Usage: java VideoCarver <frames directory> <output directory>
+//            <target width> [band]
+class VideoCarver {
+  // Width every frame is carved to
+  int targetWidth;
+  // Half-width of the band around the previous frame's seam
+  int band;
+  // A band seam is kept while it costs at most (1 + divergence) times the
+  // seam of the previous frame it follows
+  double divergence;
+  // Most frames waiting between two stages of the pipeline
+  int queueSize;
+  // Cost table that solves every seam
+  SeamCostTable table;
+  // Seams taken out of the last frame, in the order they were taken, each
+  // in the coordinates of the frame as it was when it was taken
+  ArrayList<int[]> previousSeams;
+  // Cost of each of previousSeams
+  double[] previousCosts;
+  // Size of the last frame before carving
+  int previousWidth;
+  int previousHeight;
+  // Number of frames carved
+  int frames;
+  // Number of seams solved in a band, and with a full solve
+  int bandSolves;
+  int fullSolves;
+  // Seam cost cells solved, and the cells full solves of every seam would
+  // have taken
+  long cellsSolved;
+  long fullCells;
+  // Sum, over every row of every seam that followed a seam of the frame
+  // before, of how far it moved, and the number of rows summed
+  long drift;
+  long driftRows;
+  // Time spent carving, in nanoseconds
+  long carveNanos;
+
+  // Creates a video carver with a band of 8 pixels and a divergence of 0.25
+  VideoCarver(int targetWidth) {
+    this(targetWidth, 8, 0.25);
+  }
+
+  // Creates a video carver with the given band and divergence
+  VideoCarver(int targetWidth, int band, double divergence) {
+    if (targetWidth < 1) {
+      throw new IllegalArgumentException("Target width must be at least 1");
+    }
+    if (band < 1) {
+      throw new IllegalArgumentException("Band must be at least 1");
+    }
+    this.targetWidth = targetWidth;
+    this.band = band;
+    this.divergence = divergence;
+    this.queueSize = 4;
+    this.table = new SeamCostTable();
+    this.previousSeams = new ArrayList<int[]>();
+    this.previousCosts = new double[0];
+  }
+
+  // EFFECT: carves the frame to the target width, following the seams of
+  // the previous frame when it was the same size
+  void carveFrame(PixelStore store) {
+    int width = store.getWidth();
+    int height = store.height;
+    if (this.targetWidth > width) {
+      throw new IllegalArgumentException("Cannot carve to a size larger than the image");
+    }
+    long start = System.nanoTime();
+    boolean coherent = this.frames > 0 && width == this.previousWidth
+        && height == this.previousHeight;
+    store.updateAllEnergy();
+    int count = width - this.targetWidth;
+    ArrayList<int[]> seams = new ArrayList<int[]>();
+    double[] costs = new double[count];
+    int[] low = new int[height];
+    int[] high = new int[height];
+
+    for (int i = 0; i < count; i++) {
+      int current = store.getWidth();
+      int[] seam = null;
+      if (coherent) {
+        int[] before = this.previousSeams.get(i);
+        for (int y = 0; y < height; y++) {
+          low[y] = Math.max(0, before[y] - this.band);
+          high[y] = Math.min(current - 1, before[y] + this.band);
+        }
+        seam = this.table.findSeamInBand(store.energy, store.stride, 1, height, current, low,
+            high);
+        if (this.table.lastSeamCost > (1 + this.divergence) * this.previousCosts[i]) {
+          this.cellsSolved += this.table.cellsSolved;
+          seam = null;
+        }
+        else {
+          this.bandSolves++;
+        }
+      }
+      if (seam == null) {
+        seam = this.table.findVertSeam(store.energy, store.stride, current, height);
+        this.fullSolves++;
+      }
+      if (coherent) {
+        int[] before = this.previousSeams.get(i);
+        for (int y = 0; y < height; y++) {
+          this.drift += Math.abs(seam[y] - before[y]);
+        }
+        this.driftRows += height;
+      }
+      this.cellsSolved += this.table.cellsSolved;
+      this.fullCells += (long) current * height;
+      costs[i] = this.table.lastSeamCost;
+      seams.add(seam);
+      store.removeVertSeam(seam);
+      store.recomputeEnergyNearVertSeam(seam);
+    }
+
+    this.previousSeams = seams;
+    this.previousCosts = costs;
+    this.previousWidth = width;
+    this.previousHeight = height;
+    this.frames++;
+    this.carveNanos += System.nanoTime() - start;
+  }
+
+  // Returns the image files of the directory, in name order
+  static File[] framesIn(File dir) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      throw new IllegalArgumentException("Not a directory: " + dir);
+    }
+    ArrayList<File> frames = new ArrayList<File>();
+    for (File file : files) {
+      String name = file.getName().toLowerCase();
+      if (file.isFile() && (name.endsWith(".png") || name.endsWith(".jpg")
+          || name.endsWith(".jpeg") || name.endsWith(".bmp"))) {
+        frames.add(file);
+      }
+    }
+    if (frames.isEmpty()) {
+      throw new IllegalArgumentException("No frames in " + dir);
+    }
+    File[] result = frames.toArray(new File[0]);
+    Arrays.sort(result);
+    return result;
+  }
+
+  // Carves every frame of the input directory, in name order, and writes
+  // each one as a PNG of the same name to the output directory. Returns the
+  // number of frames written.
+  int run(File inputDir, File outputDir) {
+    File[] files = VideoCarver.framesIn(inputDir);
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new UncheckedIOException(new IOException("Cannot create " + outputDir));
+    }
+    BlockingQueue<VideoFrame> decoded = new ArrayBlockingQueue<VideoFrame>(this.queueSize);
+    BlockingQueue<VideoFrame> carved = new ArrayBlockingQueue<VideoFrame>(this.queueSize);
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      Future<Integer> decoder = pool.submit(new FrameDecoder(files, decoded));
+      Future<Integer> encoder = pool.submit(new FrameEncoder(outputDir, carved));
+      while (true) {
+        VideoFrame frame = decoded.take();
+        if (frame.store != null) {
+          this.carveFrame(frame.store);
+        }
+        while (!carved.offer(frame, 100, TimeUnit.MILLISECONDS)) {
+          if (encoder.isDone()) {
+            encoder.get();
+          }
+        }
+        if (frame.store == null) {
+          break;
+        }
+      }
+      decoder.get();
+      return encoder.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while carving frames");
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+    finally {
+      pool.shutdownNow();
+    }
+  }
+
+  // Returns a one-line summary of the frames carved so far
+  String summary() {
+    return String.format(
+        "%d frames, %d band solves, %d full solves, %.1f%% of full-solve cells, "
+            + "%.2f px mean seam drift, %.1f ms/frame carving",
+        this.frames, this.bandSolves, this.fullSolves,
+        this.fullCells == 0 ? 0 : 100.0 * this.cellsSolved / this.fullCells,
+        this.driftRows == 0 ? 0 : (double) this.drift / this.driftRows,
+        this.frames == 0 ? 0 : this.carveNanos / 1e6 / this.frames);
+  }
+
+  // Carves a directory of frames from the command line
+  public static void main(String[] args) {
+    if (args.length < 3) {
+      System.err.println("Usage: java VideoCarver <frames directory> <output directory> "
+          + "<target width> [band]");
+      System.exit(2);
+    }
+    int band = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+    VideoCarver video = new VideoCarver(Integer.parseInt(args[2]), band, 0.25);
+    long start = System.nanoTime();
+    int written = video.run(new File(args[0]), new File(args[1]));
+    System.out.println(String.format("%d frames written in %.1f s", written,
+        (System.nanoTime() - start) / 1e9));
+    System.out.println(video.summary());
+  }
+}
+
+// One frame of a clip on its way through the pipeline, or, with no store,
+// the mark after the last frame
+class VideoFrame {
+  // File name of the frame
+  String name;
+  // Pixels of the frame, or null for the end mark
+  PixelStore store;
+
+  // Creates a frame
+  VideoFrame(String name, PixelStore store) {
+    this.name = name;
+    this.store = store;
+  }
+}
+
+// First stage of the pipeline: decodes frames in order onto a queue, then
+// the end mark, even if a frame cannot be read
+class FrameDecoder implements Callable<Integer> {
+  // Files of the frames, in order
+  File[] files;
+  // Queue the carver takes frames from
+  BlockingQueue<VideoFrame> out;
+
+  // Creates a decoder of the files onto the queue
+  FrameDecoder(File[] files, BlockingQueue<VideoFrame> out) {
+    this.files = files;
+    this.out = out;
+  }
+
+  // Decodes every frame, returning how many there were
+  public Integer call() throws InterruptedException {
+    RuntimeException failure = null;
+    int count = 0;
+    try {
+      for (File file : this.files) {
+        this.out.put(new VideoFrame(file.getName(), PixelStore.load(file.getPath())));
+        count++;
+      }
+    }
+    catch (RuntimeException e) {
+      failure = e;
+    }
+    this.out.put(new VideoFrame(null, null));
+    if (failure != null) {
+      throw failure;
+    }
+    return count;
+  }
+}
+
+// Last stage of the pipeline: writes carved frames as PNGs until the end
+// mark
+class FrameEncoder implements Callable<Integer> {
+  // Directory the frames are written to
+  File outputDir;
+  // Queue of carved frames
+  BlockingQueue<VideoFrame> in;
+
+  // Creates an encoder of the queue's frames into the directory
+  FrameEncoder(File outputDir, BlockingQueue<VideoFrame> in) {
+    this.outputDir = outputDir;
+    this.in = in;
+  }
+
+  // Writes every frame, returning how many there were
+  public Integer call() throws InterruptedException, IOException {
+    int count = 0;
+    while (true) {
+      VideoFrame frame = this.in.take();
+      if (frame.store == null) {
+        return count;
+      }
+      String name = frame.name;
+      int dot = name.lastIndexOf('.');
+      if (dot > 0) {
+        name = name.substring(0, dot);
+      }
+      ImageIO.write(frame.store.toBufferedImage(), "png", new File(this.outputDir, name + ".png"));
+      count++;
+    }
+  }
+}
+
+class ExamplesVideoCarver {
+  // A frame of a noisy scene panning left: the scene's columns from pan
+  // onward, with a flat stripe four pixels wide at column stripe of the
+  // scene, where the cheap seams run
+  PixelStore frame(int width, int height, int pan, int stripe) {
+    java.util.Random random = new java.util.Random(3);
+    int[] scene = new int[60 * height];
+    for (int i = 0; i < scene.length; i++) {
+      scene[i] = 0xFF000000 | (random.nextInt(2) * 0xFFFFFF);
+    }
+    PixelStore store = new PixelStore(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int sceneX = x + pan;
+        if (sceneX >= stripe && sceneX < stripe + 4) {
+          store.setArgb(x, y, 0xFF808080);
+        }
+        else {
+          store.setArgb(x, y, scene[y * 60 + sceneX]);
+        }
+      }
+    }
+    return store;
+  }
+
+  void testFollowsPreviousSeams(Tester t) {
+    VideoCarver video = new VideoCarver(37, 2, 0.25);
+    for (int f = 0; f < 4; f++) {
+      PixelStore store = this.frame(40, 20, f, 20);
+      video.carveFrame(store);
+      t.checkExpect(store.getWidth(), 37);
+      t.checkExpect(store.getRowWidth(19), 37);
+    }
+    t.checkExpect(video.frames, 4);
+    t.checkExpect(video.fullSolves, 3);
+    t.checkExpect(video.bandSolves, 9);
+    t.checkExpect(video.cellsSolved * 2 < video.fullCells, true);
+    t.checkExpect(video.drift <= video.driftRows * 2, true);
+
+    // a cut: the stripe is somewhere else, so the band seams cost far more
+    video.carveFrame(this.frame(40, 20, 0, 34));
+    t.checkExpect(video.fullSolves, 6);
+    // a frame of another size starts over
+    video.carveFrame(this.frame(41, 20, 0, 34));
+    t.checkExpect(video.fullSolves, 10);
+    t.checkExpect(video.summary().startsWith("6 frames, 9 band solves, 10 full solves"), true);
+  }
+
+  void testErrors(Tester t) {
+    t.checkConstructorException(new IllegalArgumentException("Target width must be at least 1"),
+        "VideoCarver", 0);
+    t.checkConstructorException(new IllegalArgumentException("Band must be at least 1"),
+        "VideoCarver", 5, 0, 0.25);
+    VideoCarver video = new VideoCarver(50);
+    t.checkException(new IllegalArgumentException("Cannot carve to a size larger than the image"),
+        video, "carveFrame", this.frame(40, 20, 0, 20));
+  }
+
+  void testRunDirectory(Tester t) throws IOException {
+    File input = ScratchFiles.newDirectory("frames");
+    File output = new File(input, "out");
+    for (int f = 0; f < 3; f++) {
+      ImageIO.write(this.frame(40, 20, f, 20).toBufferedImage(), "png",
+          new File(input, "frame" + f + ".png"));
+    }
+    VideoCarver video = new VideoCarver(35, 3, 0.25);
+    t.checkExpect(video.run(input, output), 3);
+    BufferedImage written = ImageIO.read(new File(output, "frame2.png"));
+    t.checkExpect(written.getWidth(), 35);
+    t.checkExpect(written.getHeight(), 20);
+    t.checkExpect(video.bandSolves + video.fullSolves, 15);
+    File empty = new File(input, "empty");
+    empty.mkdir();
+    t.checkException(new IllegalArgumentException("No frames in " + empty),
+        video, "run", empty, output);
+    ScratchFiles.deleteTree(input);
+  }
+}